@@ -0,0 +1,135 @@
+package com.example.android.pets.data;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.DatabaseUtils;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import com.example.android.pets.CatalogActivity;
+import com.example.android.pets.R;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Time from launching the catalog until its list shows pets, with the snapshot of the first page and without it.
+ * The launches run in the process of the test, where the provider and the database are already open, so they
+ * compare reading the snapshot with querying the first page. For true cold starts compare
+ * adb shell am start -W -S -n com.example.android.pets/.CatalogActivity with and without
+ * files/catalog.snapshot and read the "Fully drawn" line of the ActivityManager.
+ * <p>
+ * Run with ./gradlew connectedDebugAndroidTest, the timings are logged under CatalogStartup.
+ */
+
+@RunWith(AndroidJUnit4.class)
+public class CatalogStartupBenchmark {
+
+    private static final String LOG_TAG = "CatalogStartup";
+
+    //Launches measured in each mode, after one of each to warm up
+    private static final int LAUNCHES = 10;
+
+    //Longest wait for the snapshot to be written and for the list to show pets
+    private static final long TIMEOUT_MS = 10000;
+
+    @Test
+    public void snapshotShowsPetsBeforeTheDatabase() throws Exception {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        Context context = instrumentation.getTargetContext();
+        File snapshot = PetSnapshot.fileOf(context);
+        File aside = new File(snapshot.getPath() + ".aside");
+        fillFirstPage(context, snapshot);
+
+        long[] withSnapshot = new long[LAUNCHES];
+        long[] withoutSnapshot = new long[LAUNCHES];
+        for (int i = -1; i < LAUNCHES; i++) {
+            long shown = launch(instrumentation, context);
+            if (i >= 0)
+                withSnapshot[i] = shown;
+
+            //The provider writes it again only after a write, none happens meanwhile
+            assertTrue(snapshot.renameTo(aside));
+            try {
+                shown = launch(instrumentation, context);
+                if (i >= 0)
+                    withoutSnapshot[i] = shown;
+            } finally {
+                assertTrue(aside.renameTo(snapshot));
+            }
+        }
+
+        log("with the snapshot", withSnapshot);
+        log("without the snapshot", withoutSnapshot);
+    }
+
+    /*
+    fillFirstPage() adds pets until the first page is full and waits for the provider to write its snapshot
+     */
+    private static void fillFirstPage(Context context, File snapshot) throws InterruptedException {
+        long count = DatabaseUtils.queryNumEntries(
+                PetDbHelper.getInstance(context).getReadableDatabase(), PetDbHelper.VIEW_LIVE_PETS);
+        if (count < PetSnapshot.MAX_ROWS) {
+            ContentValues[] values = new ContentValues[(int) (PetSnapshot.MAX_ROWS - count)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = new ContentValues();
+                values[i].put(PetContract.PetEntry.COLUMN_PET_NAME, "Startup pet " + i);
+                values[i].put(PetContract.PetEntry.COLUMN_PET_BREED, "Breed " + (i % 10));
+                values[i].put(PetContract.PetEntry.COLUMN_PET_GENDER, i % 3);
+                values[i].put(PetContract.PetEntry.COLUMN_PET_WEIGHT, i % 40);
+            }
+            context.getContentResolver().bulkInsert(PetContract.PetEntry.CONTENT_URI, values);
+        }
+
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MS;
+        while (!snapshot.exists() && SystemClock.uptimeMillis() < deadline)
+            Thread.sleep(50);
+        assertTrue("No snapshot written", snapshot.exists());
+    }
+
+    /*
+    launch() starts the catalog, returns the milliseconds until its list shows pets and finishes it
+     */
+    private static long launch(Instrumentation instrumentation, Context context) throws InterruptedException {
+        Intent intent = new Intent(context, CatalogActivity.class).addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        long start = SystemClock.uptimeMillis();
+        final Activity activity = instrumentation.startActivitySync(intent);
+        try {
+            final int[] itemCount = new int[1];
+            while (SystemClock.uptimeMillis() - start < TIMEOUT_MS) {
+                instrumentation.runOnMainSync(new Runnable() {
+                    @Override
+                    public void run() {
+                        RecyclerView list = (RecyclerView) activity.findViewById(R.id.recycler_view_pet);
+                        itemCount[0] = list.getAdapter().getItemCount();
+                    }
+                });
+                if (itemCount[0] > 0)
+                    return SystemClock.uptimeMillis() - start;
+                Thread.sleep(1);
+            }
+            throw new AssertionError("No pets shown after " + TIMEOUT_MS + " ms");
+        } finally {
+            activity.finish();
+            instrumentation.waitForIdleSync();
+        }
+    }
+
+    private static void log(String mode, long[] millis) {
+        long[] sorted = Arrays.copyOf(millis, millis.length);
+        Arrays.sort(sorted);
+        Log.i(LOG_TAG, "Pets shown " + mode + " after " + sorted[sorted.length / 2] + " ms median, "
+                + sorted[sorted.length - 1] + " ms worst");
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.android.pets.data;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Results of a benchmark, written as JSON lines to &lt;benchmark&gt;.json in the directory of the
+ * pets.benchmark.dir system property, one object per measurement, so runs of different releases can be
+ * compared by a script. Every measurement is printed too.
+ * <p>
+ * The numbers come from the local JVM and the SQLite of Robolectric, they compare the data paths
+ * with each other and between releases, not with a device.
+ */
+
+public class BenchmarkReport {
+
+    private final String mBenchmark;
+    private final File mFile;
+
+    public BenchmarkReport(String benchmark) {
+        mBenchmark = benchmark;
+        File dir = new File(System.getProperty("pets.benchmark.dir", "build/outputs/benchmark"));
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IllegalStateException("Cannot create " + dir);
+        mFile = new File(dir, benchmark + ".json");
+        //Every run starts a new file
+        if (mFile.exists() && !mFile.delete())
+            throw new IllegalStateException("Cannot delete " + mFile);
+    }
+
+    /*
+    record() adds one measurement of the named case at the given number of rows
+     */
+    public synchronized void record(String name, int rows, String metric, double value, String unit) {
+        String line = String.format(Locale.US,
+                "{\"benchmark\":\"%s\",\"case\":\"%s\",\"rows\":%d,\"metric\":\"%s\",\"value\":%.3f,\"unit\":\"%s\"}",
+                mBenchmark, name, rows, metric, value, unit);
+        System.out.println(line);
+        try {
+            Writer writer = new FileWriter(mFile, true);
+            try {
+                writer.write(line);
+                writer.write('\n');
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write " + mFile, e);
+        }
+    }
+
+    /*
+    recordRate() records the rows per second of a run of the case that took elapsedNanos
+     */
+    public void recordRate(String name, int rows, long elapsedNanos) {
+        record(name, rows, "throughput", rows * 1e9 / elapsedNanos, "rows/s");
+    }
+
+    /*
+    recordLatency() records the mean time per call of count calls that took elapsedNanos together
+     */
+    public void recordLatency(String name, int rows, int count, long elapsedNanos) {
+        record(name, rows, "latency", elapsedNanos / 1000.0 / count, "us/op");
+    }
+
+    /*
+    recordPercentiles() records the median, 99th percentile and worst of the latencies of single calls
+     */
+    public void recordPercentiles(String name, int rows, long[] nanos) {
+        long[] sorted = Arrays.copyOf(nanos, nanos.length);
+        Arrays.sort(sorted);
+        record(name, rows, "latency_p50", sorted[sorted.length / 2] / 1000.0, "us/op");
+        record(name, rows, "latency_p99", sorted[(int) (sorted.length * 0.99)] / 1000.0, "us/op");
+        record(name, rows, "latency_max", sorted[sorted.length - 1] / 1000.0, "us/op");
+    }
+
+    /*
+    allocatedBytes() is the number of bytes the current thread allocated so far, HotSpot only
+     */
+    public static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /*
+    usedHeapBytes() is the heap in use after a collection, for the footprint of what is still referenced
+     */
+    public static long usedHeapBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.android.pets.data;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The list of 100k pets read through the provider, which copies it into a PetColumnCursor, against the same
+ * query on the view read through its SQLiteCursor: the time to get the cursor, a scroll over every row
+ * binding the name like a list item, the bytes that scroll allocates and the heap the cursor keeps.
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class PetColumnCursorBenchmark {
+
+    private static final int ROWS = 100000;
+
+    //Scrolls measured after the first one
+    private static final int SCROLLS = 5;
+
+    private static final String[] PROJECTION = {
+            PetContract.PetEntry._ID,
+            PetContract.PetEntry.COLUMN_PET_NAME,
+            PetContract.PetEntry.COLUMN_PET_BREED_ID,
+            PetContract.PetEntry.COLUMN_PET_PHOTO};
+
+    private static final BenchmarkReport sReport = new BenchmarkReport("PetColumnCursorBenchmark");
+
+    @Rule
+    public final PetProviderRule mPets = new PetProviderRule();
+
+    @Test
+    public void columnCursorScrollsWithoutAllocating() throws Exception {
+        mPets.insertPets(ROWS);
+        String sql = SQLiteQueryBuilder.buildQueryString(false, PetDbHelper.VIEW_LIVE_PETS, PROJECTION,
+                null, null, null, null, null);
+
+        long before = BenchmarkReport.usedHeapBytes();
+        long start = System.nanoTime();
+        Cursor window = mPets.database().rawQuery(sql, null);
+        assertEquals(ROWS, window.getCount());
+        sReport.recordLatency("sqliteCursor_query", ROWS, 1, System.nanoTime() - start);
+        long scrollBytes = scroll("sqliteCursor", window);
+        sReport.record("sqliteCursor", ROWS, "retained", BenchmarkReport.usedHeapBytes() - before, "bytes");
+        window.close();
+
+        before = BenchmarkReport.usedHeapBytes();
+        start = System.nanoTime();
+        Cursor columns = mPets.resolver().query(PetContract.PetEntry.CONTENT_URI, PROJECTION, null, null, null);
+        assertEquals(ROWS, columns.getCount());
+        sReport.recordLatency("columnCursor_query", ROWS, 1, System.nanoTime() - start);
+        long columnScrollBytes = scroll("columnCursor", columns);
+        sReport.record("columnCursor", ROWS, "retained", BenchmarkReport.usedHeapBytes() - before, "bytes");
+        columns.close();
+
+        assertTrue("a scroll of the column cursor allocated " + columnScrollBytes + " bytes, of the SQLite cursor "
+                + scrollBytes, columnScrollBytes < scrollBytes);
+    }
+
+    /*
+    scroll() moves over every row of the cursor SCROLLS times, reading the _id and the breed id as numbers
+    and the name and the photo into a reused buffer, records the rate and the bytes allocated per scroll
+    and returns those bytes
+     */
+    private static long scroll(String name, Cursor cursor) {
+        CharArrayBuffer buffer = new CharArrayBuffer(64);
+        //The first scroll fills what the cursor fills lazily
+        scrollOnce(cursor, buffer);
+
+        long allocated = BenchmarkReport.allocatedBytes();
+        long start = System.nanoTime();
+        long checksum = 0;
+        for (int i = 0; i < SCROLLS; i++)
+            checksum += scrollOnce(cursor, buffer);
+        long elapsedNanos = System.nanoTime() - start;
+        long bytes = (BenchmarkReport.allocatedBytes() - allocated) / SCROLLS;
+
+        assertTrue(checksum > 0);
+        sReport.recordRate(name + "_scroll", ROWS, elapsedNanos / SCROLLS);
+        sReport.record(name + "_scroll", ROWS, "allocated", bytes, "bytes");
+        return bytes;
+    }
+
+    private static long scrollOnce(Cursor cursor, CharArrayBuffer buffer) {
+        long checksum = 0;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            checksum += cursor.getLong(0);
+            cursor.copyStringToBuffer(1, buffer);
+            checksum += buffer.sizeCopied;
+            if (!cursor.isNull(2))
+                checksum += cursor.getLong(2);
+            cursor.copyStringToBuffer(3, buffer);
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The data path of the app through the provider on tables of 1k, 10k and 100k pets: loading the table with
+ * bulkInsert(), single inserts, queries of one pet by _id, the full catalog, a filtered and sorted list,
+ * single updates and single deletes. Every case is recorded under the size of its table, so the sizes and the
+ * releases can be compared from the JSON lines.
+ */
+
+//The largest table goes first, the JIT is warm by the time the small ones are measured
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@RunWith(RobolectricTestRunner.class)
+public class PetDataPathBenchmark {
+
+    //Single calls measured per case
+    private static final int CALLS = 1000;
+
+    //Runs of the list queries measured, after one left out
+    private static final int LIST_QUERIES = 5;
+
+    //Prime stepping through the table, so the single calls touch CALLS different pets spread over it
+    private static final int STRIDE = 7919;
+
+    //The columns of a list item
+    private static final String[] LIST_PROJECTION = {
+            PetContract.PetEntry._ID,
+            PetContract.PetEntry.COLUMN_PET_NAME,
+            PetContract.PetEntry.COLUMN_PET_BREED};
+
+    //The columns the editor asks for
+    private static final String[] PET_PROJECTION = {
+            PetContract.PetEntry._ID,
+            PetContract.PetEntry.COLUMN_PET_NAME,
+            PetContract.PetEntry.COLUMN_PET_BREED,
+            PetContract.PetEntry.COLUMN_PET_GENDER,
+            PetContract.PetEntry.COLUMN_PET_WEIGHT};
+
+    private static final BenchmarkReport sReport = new BenchmarkReport("PetDataPathBenchmark");
+
+    @Rule
+    public final PetProviderRule mPets = new PetProviderRule();
+
+    @Test
+    public void rows1k() {
+        run(1000);
+    }
+
+    @Test
+    public void rows10k() {
+        run(10000);
+    }
+
+    @Test
+    public void rows100k() {
+        run(100000);
+    }
+
+    private void run(int rows) {
+        //Creating the database is not part of any case
+        assertEquals(0, mPets.countPets());
+        long firstId = bulkInsert(rows);
+        insert(rows);
+        queryById(rows, firstId);
+        queryList(rows, "queryAll", null, null, null);
+        //The females, heaviest first, like a filtered list of the catalog
+        queryList(rows, "queryFilteredSorted", PetContract.PetEntry.COLUMN_PET_GENDER + " = ?",
+                new String[] {String.valueOf(PetContract.PetEntry.GENDER_FEMALE)},
+                PetContract.PetEntry.COLUMN_PET_WEIGHT + " DESC, " + PetContract.PetEntry.COLUMN_PET_NAME + " ASC");
+        update(rows, firstId);
+        delete(rows, firstId);
+    }
+
+    /*
+    bulkInsert() loads the table in one bulkInsert() and returns the _id of its first pet
+     */
+    private long bulkInsert(int rows) {
+        ContentValues[] values = new ContentValues[rows];
+        for (int i = 0; i < rows; i++)
+            values[i] = pet(i);
+
+        long start = System.nanoTime();
+        assertEquals(rows, mPets.resolver().bulkInsert(PetContract.PetEntry.CONTENT_URI, values));
+        sReport.recordRate("bulkInsert", rows, System.nanoTime() - start);
+
+        return mPets.longForQuery("SELECT MIN(" + PetContract.PetEntry._ID + ") FROM "
+                + PetContract.PetEntry.TABLE_NAME);
+    }
+
+    private void insert(int rows) {
+        ContentValues[] values = new ContentValues[CALLS];
+        for (int i = 0; i < CALLS; i++)
+            values[i] = pet(rows + i);
+
+        long[] nanos = new long[CALLS];
+        for (int i = 0; i < CALLS; i++) {
+            long start = System.nanoTime();
+            assertNotNull(mPets.resolver().insert(PetContract.PetEntry.CONTENT_URI, values[i]));
+            nanos[i] = System.nanoTime() - start;
+        }
+        sReport.recordPercentiles("insert", rows, nanos);
+    }
+
+    private void queryById(int rows, long firstId) {
+        long[] nanos = new long[CALLS];
+        for (int i = 0; i < CALLS; i++) {
+            Uri uri = petUri(rows, firstId, i);
+            long start = System.nanoTime();
+            Cursor cursor = mPets.resolver().query(uri, PET_PROJECTION, null, null, null);
+            try {
+                assertTrue(cursor.moveToFirst());
+            } finally {
+                cursor.close();
+            }
+            nanos[i] = System.nanoTime() - start;
+        }
+        sReport.recordPercentiles("queryById", rows, nanos);
+    }
+
+    /*
+    queryList() runs a list query of the catalog and reads it to the last row like a scroll to the end would
+     */
+    private void queryList(int rows, String name, String selection, String[] selectionArgs, String sortOrder) {
+        long elapsedNanos = 0;
+        for (int i = -1; i < LIST_QUERIES; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = mPets.resolver().query(PetContract.PetEntry.CONTENT_URI, LIST_PROJECTION,
+                    selection, selectionArgs, sortOrder);
+            try {
+                assertTrue(cursor.moveToLast());
+            } finally {
+                cursor.close();
+            }
+            if (i >= 0)
+                elapsedNanos += System.nanoTime() - start;
+        }
+        sReport.recordLatency(name, rows, LIST_QUERIES, elapsedNanos);
+    }
+
+    private void update(int rows, long firstId) {
+        long[] nanos = new long[CALLS];
+        for (int i = 0; i < CALLS; i++) {
+            Uri uri = petUri(rows, firstId, i);
+            //Every column, like the editor saves a pet
+            ContentValues values = pet(i);
+            values.put(PetContract.PetEntry.COLUMN_PET_WEIGHT, 40 + i % 10);
+            long start = System.nanoTime();
+            assertEquals(1, mPets.resolver().update(uri, values, null, null));
+            nanos[i] = System.nanoTime() - start;
+        }
+        sReport.recordPercentiles("update", rows, nanos);
+    }
+
+    private void delete(int rows, long firstId) {
+        long[] nanos = new long[CALLS];
+        for (int i = 0; i < CALLS; i++) {
+            Uri uri = petUri(rows, firstId, i);
+            long start = System.nanoTime();
+            assertEquals(1, mPets.resolver().delete(uri, null, null));
+            nanos[i] = System.nanoTime() - start;
+        }
+        sReport.recordPercentiles("delete", rows, nanos);
+        assertEquals(rows, mPets.countPets());
+    }
+
+    //The uri of the i-th pet of the single calls, a different one for every i below CALLS
+    private static Uri petUri(int rows, long firstId, int i) {
+        return ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, firstId + (long) i * STRIDE % rows);
+    }
+
+    private static ContentValues pet(int i) {
+        return PetProviderRule.pet("Pet " + i, "Breed " + (i % 50), i % 3, i % 40);
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Latency of reading a page of the catalog while nothing else runs, and while another thread keeps
+ * writing batches of pets. With WAL the reads go to their own connection and never wait for a write
+ * transaction to commit, only for the statement SQLite is running (Robolectric runs the statements of
+ * every connection one at a time).
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class PetReadWhileWriteBenchmark {
+
+    private static final int ROWS = 10000;
+
+    //Pets of one page and of one write transaction
+    private static final int PAGE_SIZE = 50;
+    private static final int WRITE_BATCH = 200;
+
+    private static final int READS = 500;
+
+    private static final String[] PROJECTION = {
+            PetContract.PetEntry._ID,
+            PetContract.PetEntry.COLUMN_PET_NAME,
+            PetContract.PetEntry.COLUMN_PET_BREED};
+
+    private static final BenchmarkReport sReport = new BenchmarkReport("PetReadWhileWriteBenchmark");
+
+    @Rule
+    public final PetProviderRule mPets = new PetProviderRule();
+
+    @Test
+    public void readsDoNotWaitForWrites() throws Exception {
+        mPets.insertPets(ROWS);
+        final ContentValues[] batch = new ContentValues[WRITE_BATCH];
+        for (int i = 0; i < WRITE_BATCH; i++)
+            batch[i] = PetProviderRule.pet("New pet " + i, "Breed " + (i % 10), i % 3, i % 40);
+
+        //Warm up the statement caches, then read alone
+        readPages(READS);
+        sReport.recordPercentiles("read", ROWS, readPages(READS));
+
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicInteger batches = new AtomicInteger();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (writing.get()) {
+                    mPets.resolver().bulkInsert(PetContract.PetEntry.CONTENT_URI, batch);
+                    batches.incrementAndGet();
+                }
+            }
+        });
+        writer.start();
+        long start = System.nanoTime();
+        long[] nanos = readPages(READS);
+        long elapsedNanos = System.nanoTime() - start;
+        writing.set(false);
+        writer.join();
+
+        sReport.recordPercentiles("readWhileWrite", ROWS, nanos);
+        sReport.record("writeWhileRead", ROWS, "throughput", batches.get() * WRITE_BATCH * 1e9 / elapsedNanos, "rows/s");
+
+        assertTrue("No write ran during the reads", batches.get() > 0);
+        assertEquals(ROWS + batches.get() * WRITE_BATCH, mPets.countPets());
+    }
+
+    /*
+    readPages() reads count pages at random places of the table and returns the time of each
+     */
+    private long[] readPages(int count) {
+        Random random = new Random(42);
+        long[] nanos = new long[count];
+        for (int i = 0; i < count; i++) {
+            Uri uri = PetContract.PetEntry.buildPageUri(PAGE_SIZE, random.nextInt(ROWS - PAGE_SIZE));
+            long start = System.nanoTime();
+            Cursor cursor = mPets.resolver().query(uri, PROJECTION, null, null, null);
+            try {
+                assertEquals(PAGE_SIZE, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+            nanos[i] = System.nanoTime() - start;
+        }
+        return nanos;
+    }
+}
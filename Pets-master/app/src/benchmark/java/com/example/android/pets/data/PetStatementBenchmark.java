@@ -0,0 +1,123 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Latency and allocations of a single insert and a single update by _id through the provider, with the compiled
+ * statements it keeps and with the SQL it builds and compiles for every call. The values of the second path also
+ * hold the photo column, which sends them past the statements like any values they do not fit, and like every
+ * write before them. The two paths alternate call by call, so they see the same table.
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class PetStatementBenchmark {
+
+    //Calls of each path left out of the measure, then calls of each path measured
+    private static final int WARMUP = 2000;
+    private static final int CALLS = 10000;
+
+    private static final BenchmarkReport sReport = new BenchmarkReport("PetStatementBenchmark");
+
+    @Rule
+    public final PetProviderRule mPets = new PetProviderRule();
+
+    @Test
+    public void insert() {
+        ContentValues[] statement = pets(WARMUP + CALLS, false);
+        ContentValues[] compiledPerCall = pets(WARMUP + CALLS, true);
+
+        Measure statementMeasure = new Measure();
+        Measure compiledPerCallMeasure = new Measure();
+        for (int i = 0; i < WARMUP + CALLS; i++) {
+            statementMeasure.start(i);
+            assertNotNull(mPets.provider().insert(PetContract.PetEntry.CONTENT_URI, statement[i]));
+            statementMeasure.stop(i);
+
+            compiledPerCallMeasure.start(i);
+            assertNotNull(mPets.provider().insert(PetContract.PetEntry.CONTENT_URI, compiledPerCall[i]));
+            compiledPerCallMeasure.stop(i);
+        }
+        statementMeasure.record("insert_statement");
+        compiledPerCallMeasure.record("insert_compiledPerCall");
+
+        assertEquals(2 * (WARMUP + CALLS), mPets.countPets());
+    }
+
+    @Test
+    public void updateById() {
+        mPets.insertPets(2 * CALLS);
+        long firstId = mPets.longForQuery("SELECT MIN(" + PetContract.PetEntry._ID + ") FROM "
+                + PetContract.PetEntry.TABLE_NAME);
+        ContentValues[] statement = pets(WARMUP + CALLS, false);
+        ContentValues[] compiledPerCall = pets(WARMUP + CALLS, true);
+
+        Measure statementMeasure = new Measure();
+        Measure compiledPerCallMeasure = new Measure();
+        for (int i = 0; i < WARMUP + CALLS; i++) {
+            //Each path updates its own half of the pets
+            Uri statementUri = ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, firstId + i % CALLS);
+            Uri compiledPerCallUri = ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI,
+                    firstId + CALLS + i % CALLS);
+
+            statementMeasure.start(i);
+            assertEquals(1, mPets.provider().update(statementUri, statement[i], null, null));
+            statementMeasure.stop(i);
+
+            compiledPerCallMeasure.start(i);
+            assertEquals(1, mPets.provider().update(compiledPerCallUri, compiledPerCall[i], null, null));
+            compiledPerCallMeasure.stop(i);
+        }
+        statementMeasure.record("update_statement");
+        compiledPerCallMeasure.record("update_compiledPerCall");
+    }
+
+    //Values of every pet column, the shape the statements take, with the photo too if asked
+    private static ContentValues[] pets(int count, boolean withPhoto) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = PetProviderRule.pet("Pet " + i, "Breed " + (i % 10), i % 3, i % 40);
+            if (withPhoto)
+                values[i].putNull(PetContract.PetEntry.COLUMN_PET_PHOTO);
+        }
+        return values;
+    }
+
+    /*
+    The time of every measured call of one path and the bytes they allocated together
+     */
+    private static class Measure {
+        private final long[] mNanos = new long[CALLS];
+        private long mAllocatedBytes;
+        private long mStartBytes;
+        private long mStartNanos;
+
+        void start(int call) {
+            if (call >= WARMUP)
+                mStartBytes = BenchmarkReport.allocatedBytes();
+            mStartNanos = System.nanoTime();
+        }
+
+        void stop(int call) {
+            long nanos = System.nanoTime() - mStartNanos;
+            if (call >= WARMUP) {
+                mNanos[call - WARMUP] = nanos;
+                mAllocatedBytes += BenchmarkReport.allocatedBytes() - mStartBytes;
+            }
+        }
+
+        void record(String name) {
+            sReport.recordPercentiles(name, CALLS, mNanos);
+            sReport.record(name, CALLS, "allocated", (double) mAllocatedBytes / CALLS, "bytes/op");
+        }
+    }
+}
@@ -16,27 +16,41 @@
 package com.example.android.pets;
 
 import android.app.LoaderManager;
+import android.content.BroadcastReceiver;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.Loader;
+import android.database.ContentObserver;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.Snackbar;
+import android.support.v4.content.LocalBroadcastManager;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.example.android.pets.data.PetContract;
-import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetSnapshot;
+import com.example.android.pets.data.PetWriteQueue;
+
+import java.util.ArrayList;
+import java.util.Collections;
 
 import static android.R.id.content;
 
@@ -46,13 +60,90 @@ import static android.R.id.content;
 public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
 
+    //Loader ids are PET_LOADER + page index, one loader for every page of the catalog
     private static final int PET_LOADER = 0;
 
+    //Number of pets loaded per page
+    private static final int PAGE_SIZE = 50;
+
+    //Start loading the next page when the list is this many rows from the end
+    private static final int PAGE_PREFETCH = 10;
+
+    //Key of the page a loader should load (the _id of the last pet of the previous page)
+    private static final String ARG_AFTER_ID = "after_id";
+
+    //Loader of the search results, kept apart from the page loaders
+    private static final int SEARCH_LOADER = -1;
+
+    //Maximum number of search results shown
+    private static final int SEARCH_LIMIT = 100;
+
+    //Text of the search the loader should run
+    private static final String ARG_SEARCH = "search";
+
+    //Request code of the file picker of the import
+    private static final int REQUEST_IMPORT = 1;
+
+    //Request code of the editor, which reports a deleted pet
+    private static final int REQUEST_EDIT = 2;
+
     PetCursorAdapter mCursorAdapter;
 
-    // To access our database, we instantiate our subclass of SQLiteOpenHelper
-    // and pass the context, which is the current activity.
-    PetDbHelper mDbHelper = new PetDbHelper(this);
+    //View shown instead of the list when there are no pets
+    private View mEmptyView;
+
+    //Loaded pages in order, the adapter shows the snapshots of their rows one after the other
+    private final ArrayList<Cursor> mPages = new ArrayList<>();
+
+    //True while the loader of the next page has not delivered yet
+    private boolean mLoadingPage = false;
+
+    //Text typed in the search view, null when the catalog is not being searched
+    private String mSearchText;
+
+    //True once the first page of the database is shown, the snapshot of it is not shown after that
+    private boolean mFirstPageShown = false;
+
+    //Watches the pets table and its rows, and reloads only the pages a change touches
+    private final ContentObserver mPetsObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onPetsChanged(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            onPetsChanged(uri);
+        }
+    };
+
+    //Shows the progress of a running import in the app bar
+    private final BroadcastReceiver mImportReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            long imported = intent.getLongExtra(PetImportService.EXTRA_IMPORTED, 0);
+            long failed = intent.getLongExtra(PetImportService.EXTRA_FAILED, 0);
+
+            if (!intent.getBooleanExtra(PetImportService.EXTRA_FINISHED, false)) {
+                if (getSupportActionBar() != null)
+                    getSupportActionBar().setSubtitle(getString(R.string.import_progress, imported, failed));
+                return;
+            }
+
+            if (getSupportActionBar() != null)
+                getSupportActionBar().setSubtitle(null);
+            if (intent.getBooleanExtra(PetImportService.EXTRA_SUCCESS, false)) {
+                Toast.makeText(CatalogActivity.this, getString(R.string.import_finished, imported, failed),
+                        Toast.LENGTH_LONG).show();
+                ArrayList<String> errors = intent.getStringArrayListExtra(PetImportService.EXTRA_ERRORS);
+                if (errors != null)
+                    for (String error : errors)
+                        Log.w("CatalogActivity", error);
+            } else {
+                Toast.makeText(CatalogActivity.this, R.string.import_failed, Toast.LENGTH_SHORT).show();
+            }
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -69,22 +160,19 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        //Find the List view which will be populated with the data
-        ListView petListView = (ListView) findViewById(R.id.list_view_pet);
+        //Find the Recycler view which will be populated with the data
+        RecyclerView petRecyclerView = (RecyclerView) findViewById(R.id.recycler_view_pet);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        petRecyclerView.setLayoutManager(layoutManager);
 
         //Find the emptyView
-        View emptyView = (View) findViewById(R.id.empty_view);
-        petListView.setEmptyView(emptyView);
+        mEmptyView = findViewById(R.id.empty_view);
 
-        //Setup an Adapter to create a list item for each row of pet data in the cursor
-        //There is no pet data yet(until the loader finishes) so pass in null for the cursor
-        mCursorAdapter = new PetCursorAdapter(this, null);
-        petListView.setAdapter(mCursorAdapter);
-
-        //Setup item clickListener
-        petListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        //Setup an Adapter to create a list item for each row of pet data
+        //There is no pet data yet(until the loader finishes), clicking a pet opens it in the editor
+        mCursorAdapter = new PetCursorAdapter(this, new PetCursorAdapter.OnPetClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onPetClick(long id) {
 
                 //Create a new intent to go to Editor Activity
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
@@ -100,17 +188,84 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 intent.setData(currentPetUri);
 
                 //Launch the Editor Activity to display the data for the current per.
-                startActivity(intent);
+                startActivityForResult(intent, REQUEST_EDIT);
+
+            }
+        });
+        petRecyclerView.setAdapter(mCursorAdapter);
+
+        //Show the empty view whenever the adapter runs out of pets
+        mCursorAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+        updateEmptyView();
 
+        //Load the next page when the user scrolls close to the end of the loaded rows
+        petRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (mSearchText == null
+                        && layoutManager.findLastVisibleItemPosition() >= layoutManager.getItemCount() - PAGE_PREFETCH)
+                    loadNextPage();
             }
         });
 
-        //Kick off the Loader
+        //The page loaders do not watch their cursors, the catalog tells them what changed
+        getContentResolver().registerContentObserver(PetContract.PetEntry.CONTENT_URI, true, mPetsObserver);
+
+        //On a cold start show the snapshot of the first page until the database delivers it,
+        //a recreated activity gets the page from its loader right away
+        if (getLoaderManager().getLoader(PET_LOADER) == null)
+            showSnapshot();
+
+        //Kick off the Loader for the first page
         getLoaderManager().initLoader(PET_LOADER,null,this);
 
     }
 
 
+    /*
+    showSnapshot() fills the list from the snapshot the provider keeps of the first page. It is read
+    and decoded on a background thread, next to the loader opening the database, and the first real
+    page is then diffed against it. A snapshot coming after the real page is dropped
+     */
+    private void showSnapshot() {
+        final Context context = getApplicationContext();
+        //On the thread pool, not queued behind the diffs of the adapter
+        new AsyncTask<Void, Void, PetCursorAdapter.Snapshot>() {
+            @Override
+            protected PetCursorAdapter.Snapshot doInBackground(Void... params) {
+                Cursor snapshot = PetSnapshot.read(context);
+                if (snapshot == null)
+                    return null;
+                try {
+                    return PetCursorAdapter.Snapshot.from(snapshot, PetBreedDictionary.getInstance(context));
+                } finally {
+                    snapshot.close();
+                }
+            }
+
+            @Override
+            protected void onPostExecute(PetCursorAdapter.Snapshot snapshot) {
+                if (snapshot != null && !mFirstPageShown)
+                    mCursorAdapter.swapSnapshots(Collections.singletonList(snapshot));
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
     private void insertPet(){
 
         //Create a new map of Values where column names are the keys
@@ -120,14 +275,36 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         values.put(PetContract.PetEntry.COLUMN_PET_GENDER,1);
         values.put(PetContract.PetEntry.COLUMN_PET_WEIGHT,7);
 
-        //Insert a new row in Pets using ContentResolver
-        Uri newUri = getContentResolver().insert(PetContract.PetEntry.CONTENT_URI,values);
+        //Insert a new row in Pets on the write queue
+        PetWriteQueue.getInstance(this).insert(PetContract.PetEntry.CONTENT_URI, values, null);
 
     }
 
     @Override
     protected void onStart() {
         super.onStart();
+        LocalBroadcastManager.getInstance(this).registerReceiver(mImportReceiver,
+                new IntentFilter(PetImportService.ACTION_PROGRESS));
+    }
+
+    @Override
+    protected void onStop() {
+        LocalBroadcastManager.getInstance(this).unregisterReceiver(mImportReceiver);
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        getContentResolver().unregisterContentObserver(mPetsObserver);
+        super.onDestroy();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        //The thumbnails can be decoded again from the disk cache
+        if (level >= TRIM_MEMORY_BACKGROUND)
+            PetThumbnailLoader.getInstance(this).trimMemory();
     }
 
     @Override
@@ -135,9 +312,48 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        //Search the pets as the user types
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(menu.findItem(R.id.action_search));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText);
+                return true;
+            }
+        });
         return true;
     }
 
+    /*
+    search() shows the pets matching the text, or the paged catalog again when the text is empty
+     */
+    private void search(String text) {
+        text = text == null ? "" : text.trim();
+        if (text.isEmpty()) {
+            if (mSearchText != null) {
+                mSearchText = null;
+                getLoaderManager().destroyLoader(SEARCH_LOADER);
+                swapPages();
+            }
+            return;
+        }
+
+        if (text.equals(mSearchText))
+            return;
+        mSearchText = text;
+
+        Bundle args = new Bundle();
+        args.putString(ARG_SEARCH, text);
+        getLoaderManager().restartLoader(SEARCH_LOADER, args, this);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -146,6 +362,10 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             case R.id.action_insert_dummy_data:
                 insertPet();
                 return true;
+            // Respond to a click on the "Import pets" menu option
+            case R.id.action_import:
+                pickImportFile();
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 deleteAllPets();
@@ -154,38 +374,225 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         return super.onOptionsItemSelected(item);
     }
 
+    /*
+    pickImportFile() lets the user pick the CSV or NDJSON file to import
+     */
+    private void pickImportFile() {
+        //A document keeps its permission after this activity is gone, so a restarted import can reopen it
+        Intent intent = new Intent(Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                ? Intent.ACTION_OPEN_DOCUMENT : Intent.ACTION_GET_CONTENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[]{
+                PetContract.PetEntry.CSV_TYPE, PetContract.PetEntry.NDJSON_TYPE, "text/*"});
+        startActivityForResult(intent, REQUEST_IMPORT);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_EDIT) {
+            if (resultCode == EditorActivity.RESULT_PET_DELETED && data != null && data.getData() != null)
+                offerUndoDelete(data.getData());
+            return;
+        }
+        if (requestCode != REQUEST_IMPORT) {
+            super.onActivityResult(requestCode, resultCode, data);
+            return;
+        }
+        if (resultCode != RESULT_OK || data == null || data.getData() == null)
+            return;
+
+        Uri source = data.getData();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            //Keep the read permission so a redelivered import can still open the file
+            try {
+                getContentResolver().takePersistableUriPermission(source, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            } catch (SecurityException e) {
+                Log.w("CatalogActivity", "No persistable permission for " + source, e);
+            }
+        }
+        PetImportService.start(this, source);
+    }
+
+    /*
+    offerUndoDelete() lets the user bring back the pet just deleted in the editor
+     */
+    private void offerUndoDelete(final Uri petUri) {
+        Snackbar.make(findViewById(R.id.fab), R.string.catalog_pet_deleted, Snackbar.LENGTH_LONG)
+                .setAction(R.string.action_undo, new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        PetWriteQueue.getInstance(CatalogActivity.this).undo(petUri, null);
+                    }
+                })
+                .show();
+    }
+
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        //Define a projection that specifies the columns from the table we care about
+        //Define a projection that specifies the columns from the table we care about.
+        //The breed comes as its id, the adapter names it through the breed dictionary
         String[] projection = {
                 PetContract.PetEntry._ID,
                 PetContract.PetEntry.COLUMN_PET_NAME,
-                PetContract.PetEntry.COLUMN_PET_BREED};
+                PetContract.PetEntry.COLUMN_PET_BREED_ID,
+                PetContract.PetEntry.COLUMN_PET_PHOTO};
+
+        if (id == SEARCH_LOADER) {
+            //This Loader will run the full text search on a background thread,
+            //and run it again once per burst of changes to the pets
+            return new PetListLoader(this,
+                    PetContract.PetEntry.buildSearchUri(args.getString(ARG_SEARCH), SEARCH_LIMIT),
+                    projection,
+                    PetContract.PetEntry.CONTENT_URI,
+                    PetQueryLoader.DEFAULT_WINDOW_MS);
+        }
+
+        //The first page has no key, the following pages start after the last pet of the previous one
+        long afterId = args == null ? -1 : args.getLong(ARG_AFTER_ID, -1);
 
      //This Loader will execute the ContentProvider query() method on background thread
-        return new CursorLoader(this,                //Parent activity context
-                PetContract.PetEntry.CONTENT_URI,    //Provider content uri to query
-                projection,                          //Columns to include in the resulting cursor
-                null,                                //No selection clause
-                null,                                //No selection Arguments
-                null);                               //Default sort order
+        return new PetPageLoader(this,              //Parent activity context
+                afterId,                            //Key of the page
+                PAGE_SIZE,                          //Number of pets in a full page
+                projection);                        //Columns to include in the resulting cursor
 
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        if (loader.getId() == SEARCH_LOADER) {
+            if (mSearchText != null)
+                mCursorAdapter.swapSnapshots(Collections.singletonList(PetListLoader.snapshotOf(data)));
+            return;
+        }
+
+        int page = loader.getId() - PET_LOADER;
+        while (mPages.size() <= page)
+            mPages.add(null);
+        mPages.set(page, data);
+        if (page == mPages.size() - 1)
+            mLoadingPage = false;
+
         //Update adapter with the cursor containing the new data
-        mCursorAdapter.swapCursor(data);
+        swapPages();
+
+        //The list is complete once the first page of the database is shown
+        if (page == 0 && !mFirstPageShown) {
+            mFirstPageShown = true;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+                reportFullyDrawn();
+        }
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         //Callback called when the data needs to be Deleted
-        mCursorAdapter.swapCursor(null);
+        if (loader.getId() == SEARCH_LOADER) {
+            if (mSearchText != null)
+                mCursorAdapter.swapSnapshots(Collections.<PetCursorAdapter.Snapshot>emptyList());
+            return;
+        }
+
+        int page = loader.getId() - PET_LOADER;
+        if (page < mPages.size())
+            mPages.set(page, null);
+        swapPages();
+    }
+
+    /*
+    loadNextPage() starts the loader of the page after the last loaded one,
+    unless it is already loading or the last page was not full
+     */
+    private void loadNextPage() {
+        if (mLoadingPage || mPages.isEmpty())
+            return;
+
+        Cursor lastPage = mPages.get(mPages.size() - 1);
+        if (lastPage == null || lastPage.getCount() < PAGE_SIZE || !lastPage.moveToLast())
+            return;
+
+        //The last page ends where the next one starts, so its reloads keep to its own pets
+        long lastId = lastPage.getLong(lastPage.getColumnIndex(PetContract.PetEntry._ID));
+        getPageLoader(mPages.size() - 1).setThroughId(lastId);
+
+        Bundle args = new Bundle();
+        args.putLong(ARG_AFTER_ID, lastId);
+        mLoadingPage = true;
+        getLoaderManager().initLoader(PET_LOADER + mPages.size(), args, this);
+    }
+
+    /*
+    onPetsChanged() reloads the page holding the changed pet, or all of them when the
+    change is not about a single pet. A pet added after the last full page loads the next page.
+    The pages are bounded by their keys, so adding or removing a pet only changes its own page
+     */
+    private void onPetsChanged(Uri uri) {
+        //pets/<id> is the change of one pet, anything else a change of the table
+        long id = -1;
+        if (uri != null && uri.getPathSegments().size() == 2)
+            id = ContentUris.parseId(uri);
+
+        //Count the page loaders, including a page still loading for the first time
+        int pageCount = 0;
+        while (getPageLoader(pageCount) != null)
+            pageCount++;
+
+        for (int page = 0; page < pageCount; page++) {
+            PetPageLoader loader = getPageLoader(page);
+
+            if (id != -1) {
+                //A page holds the pets after its key, up to its end which is the key of the next page
+                PetPageLoader nextLoader = page + 1 < pageCount ? getPageLoader(page + 1) : null;
+                if (id <= loader.getAfterId() || (loader.getThroughId() != -1 && id > loader.getThroughId()))
+                    continue;
+
+                //Past the end of the last full page, the pet belongs to a page not loaded yet
+                Cursor cursor = page < mPages.size() ? mPages.get(page) : null;
+                if (nextLoader == null && cursor != null && cursor.getCount() >= PAGE_SIZE && cursor.moveToLast()
+                        && id > cursor.getLong(cursor.getColumnIndex(PetContract.PetEntry._ID))) {
+                    loadNextPage();
+                    continue;
+                }
+            }
+            //A burst of changes reloads the page once
+            loader.scheduleReload();
+        }
+    }
+
+    private PetPageLoader getPageLoader(int page) {
+        Loader<Cursor> loader = getLoaderManager().getLoader(PET_LOADER + page);
+        return (PetPageLoader) loader;
+    }
+
+    private void updateEmptyView() {
+        mEmptyView.setVisibility(mCursorAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /*
+    swapPages() hands the rows of the loaded pages to the adapter, copied by the loaders
+     */
+    private void swapPages() {
+        //The search results own the list while searching
+        if (mSearchText != null)
+            return;
+
+        ArrayList<PetCursorAdapter.Snapshot> pages = new ArrayList<>();
+        for (Cursor page : mPages) {
+            //Stop at the first page that is not loaded so the rows stay contiguous
+            if (page == null)
+                break;
+            pages.add(PetListLoader.snapshotOf(page));
+        }
+        mCursorAdapter.swapSnapshots(pages);
     }
 
     private void deleteAllPets(){
-        int rowsDeleted = getContentResolver().delete(PetContract.PetEntry.CONTENT_URI, null, null);
-        Log.v("CatalogActivity",rowsDeleted+ " rows deleted from pet database");
+        PetWriteQueue.getInstance(this).delete(PetContract.PetEntry.CONTENT_URI, new PetWriteQueue.Callback<Integer>() {
+            @Override
+            public void onComplete(Integer rowsDeleted) {
+                Log.v("CatalogActivity",rowsDeleted+ " rows deleted from pet database");
+            }
+        });
     }
 }
\ No newline at end of file
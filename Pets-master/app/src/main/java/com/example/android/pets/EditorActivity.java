@@ -16,13 +16,13 @@
 package com.example.android.pets;
 
 import android.app.LoaderManager;
+import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.NavUtils;
@@ -37,11 +37,12 @@ import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.EditText;
+import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.Toast;
 
 import com.example.android.pets.data.PetContract;
-import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetWriteQueue;
 
 import org.w3c.dom.Text;
 
@@ -53,6 +54,13 @@ import static android.icu.lang.UCharacter.GraphemeClusterBreak.L;
 public class EditorActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor>{
 
     private static final int EXISTING_PET_LOADER = 0;
+
+    /** Request code of the image picker for the photo of the pet */
+    private static final int REQUEST_PHOTO = 1;
+
+    /** Result of the editor when the pet was deleted, the data of the result is the uri of the pet */
+    static final int RESULT_PET_DELETED = RESULT_FIRST_USER;
+
     /** EditText field to enter the pet's name */
     private EditText mNameEditText;
 
@@ -65,6 +73,9 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     /** EditText field to enter the pet's gender */
     private Spinner mGenderSpinner;
 
+    /** ImageView showing the pet's photo, tapped to pick a new one */
+    private ImageView mPhotoImageView;
+
     /** Content Uri for the Existing pet (null if it is a new pet) */
     private Uri mCurrentPetUri;
 
@@ -115,9 +126,24 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mBreedEditText = (EditText) findViewById(R.id.edit_pet_breed);
         mWeightEditText = (EditText) findViewById(R.id.edit_pet_weight);
         mGenderSpinner = (Spinner) findViewById(R.id.spinner_gender);
+        mPhotoImageView = (ImageView) findViewById(R.id.edit_pet_photo);
 
         setupSpinner();
 
+        //Only a saved pet has a row to keep its photo in
+        if (mCurrentPetUri != null) {
+            findViewById(R.id.container_photo).setVisibility(View.VISIBLE);
+            mPhotoImageView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                    intent.setType("image/*");
+                    intent.addCategory(Intent.CATEGORY_OPENABLE);
+                    startActivityForResult(intent, REQUEST_PHOTO);
+                }
+            });
+        }
+
         mNameEditText.setOnTouchListener(mTouchListener);
         mBreedEditText.setOnTouchListener(mTouchListener);
         mWeightEditText.setOnTouchListener(mTouchListener);
@@ -179,11 +205,6 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             return;
 
 
-        PetDbHelper mDbHelper = new PetDbHelper(this);
-
-        //Get the data Repository in Write mode
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
-
         //Create a new map of Values where column names are the key
         ContentValues values = new ContentValues();
         values.put(PetContract.PetEntry.COLUMN_PET_NAME, name);
@@ -195,28 +216,59 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             weight = Integer.parseInt(stringWeight);
         values.put(PetContract.PetEntry.COLUMN_PET_WEIGHT, weight);
 
+        //The write runs on the write queue, the toast uses the application context
+        //because the editor is finished before the write completes
+        final Context appContext = getApplicationContext();
+        PetWriteQueue writeQueue = PetWriteQueue.getInstance(this);
+
         //Determine if this is a new or existing pet
         if (mCurrentPetUri == null) {
-            Uri newUri = getContentResolver().insert(PetContract.PetEntry.CONTENT_URI, values);
-            if (newUri == null) {
-                Toast.makeText(this, "Pet Insertion failed", Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, "Pet Inserted Successfully", Toast.LENGTH_SHORT).show();
-
-            }
+            writeQueue.insert(PetContract.PetEntry.CONTENT_URI, values, new PetWriteQueue.Callback<Uri>() {
+                @Override
+                public void onComplete(Uri newUri) {
+                    if (newUri == null) {
+                        Toast.makeText(appContext, R.string.editor_insert_pet_failed, Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(appContext, R.string.editor_insert_pet_success, Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
         } else {
-            int rowsAffected = getContentResolver().update(mCurrentPetUri, values, null, null);
-            if (rowsAffected == 0) {
-                Toast.makeText(this, "Pet Insertion failed", Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, "Pet Inserted Successfully", Toast.LENGTH_SHORT).show();
-
-            }
+            writeQueue.update(mCurrentPetUri, values, new PetWriteQueue.Callback<Integer>() {
+                @Override
+                public void onComplete(Integer rowsAffected) {
+                    if (rowsAffected == 0) {
+                        Toast.makeText(appContext, R.string.editor_insert_pet_failed, Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(appContext, R.string.editor_insert_pet_success, Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
         }
 
     }
 
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode != REQUEST_PHOTO) {
+            super.onActivityResult(requestCode, resultCode, data);
+            return;
+        }
+        if (resultCode != RESULT_OK || data == null || data.getData() == null)
+            return;
+
+        //The provider keeps its own copy, the loader then shows the new photo
+        final Context appContext = getApplicationContext();
+        PetWriteQueue.getInstance(this).setPhoto(mCurrentPetUri, data.getData(), new PetWriteQueue.Callback<Boolean>() {
+            @Override
+            public void onComplete(Boolean changed) {
+                if (!changed)
+                    Toast.makeText(appContext, R.string.editor_photo_failed, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu options from the res/menu/menu_editor.xml file.
@@ -240,6 +292,13 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 // Pop up the delete dialog box
                 showDeleteConfirmationDialog();
                 return true;
+            // Respond to a click on the "Undo" and "Redo" menu options
+            case R.id.action_undo:
+                revertPet(true);
+                return true;
+            case R.id.action_redo:
+                revertPet(false);
+                return true;
             // Respond to a click on the "Up" arrow button in the app bar
             case android.R.id.home:
                 //if the pet has not changed
@@ -272,15 +331,15 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 PetContract.PetEntry.COLUMN_PET_NAME,
                 PetContract.PetEntry.COLUMN_PET_BREED,
                 PetContract.PetEntry.COLUMN_PET_GENDER,
-                PetContract.PetEntry.COLUMN_PET_WEIGHT};
+                PetContract.PetEntry.COLUMN_PET_WEIGHT,
+                PetContract.PetEntry.COLUMN_PET_PHOTO};
 
         //this Loader will execute the ContentProvider query on a background thread
-        return new CursorLoader(this,                //Parent activity context
-                mCurrentPetUri,                       //Provider content uri to query
+        return new PetQueryLoader(this,              //Parent activity context
+                mCurrentPetUri,                      //Provider content uri to query
                 projection,                          //Columns to include in the resulting cursor
-                null,                                //No selection clause
-                null,                                //No selection Arguments
-                null);                               //Default sort order
+                mCurrentPetUri,                      //Reload when this pet changes
+                PetQueryLoader.DEFAULT_WINDOW_MS);   //Once per burst of changes
 
     }
 
@@ -296,6 +355,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             int breedColumnIndex = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_BREED);
             int genderColumnIndex = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_GENDER);
             int weightColumnIndex = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_WEIGHT);
+            int photoColumnIndex = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_PHOTO);
 
             //Extract the values
             String name = cursor.getString(nameColumnIndex);
@@ -308,6 +368,10 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             mBreedEditText.setText(breed);
             mWeightEditText.setText(Integer.toString(weight));
 
+            //The editor shows the thumbnail too, it is big enough and usually cached already
+            PetThumbnailLoader.getInstance(this).load(mPhotoImageView,
+                    ContentUris.parseId(mCurrentPetUri), cursor.getString(photoColumnIndex));
+
             switch(gender){
                 case PetContract.PetEntry.GENDER_MALE:
                     mGenderSpinner.setSelection(1);
@@ -329,6 +393,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mBreedEditText.setText("");
         mWeightEditText.setText("");
         mGenderSpinner.setSelection(0);
+        mPhotoImageView.setImageDrawable(null);
     }
 
     //Creating the Discard changes Dialogue box
@@ -380,10 +445,11 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     public boolean onPrepareOptionsMenu(Menu menu) {
         super.onPrepareOptionsMenu(menu);
 
-        //if this is a new pet hide the menu item
+        //if this is a new pet hide the menu items
         if(mCurrentPetUri == null){
-            MenuItem menuItem = menu.findItem(R.id.action_delete);
-            menuItem.setVisible(false);
+            menu.findItem(R.id.action_delete).setVisible(false);
+            menu.findItem(R.id.action_undo).setVisible(false);
+            menu.findItem(R.id.action_redo).setVisible(false);
         }
         return  true;
     }
@@ -406,17 +472,46 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         AlertDialog alertDialog = builder.create();
         alertDialog.show();
     }
+    /*
+    revertPet() undoes or redoes the latest saved change of the pet,
+    the loader then shows the pet the way it is now
+     */
+    private void revertPet(final boolean undo) {
+        PetWriteQueue.Callback<Boolean> callback = new PetWriteQueue.Callback<Boolean>() {
+            @Override
+            public void onComplete(Boolean changed) {
+                if (changed) {
+                    mPetHasChanged = false;
+                } else {
+                    Toast.makeText(EditorActivity.this, undo ? R.string.editor_nothing_to_undo
+                            : R.string.editor_nothing_to_redo, Toast.LENGTH_SHORT).show();
+                }
+            }
+        };
+        if (undo)
+            PetWriteQueue.getInstance(this).undo(mCurrentPetUri, callback);
+        else
+            PetWriteQueue.getInstance(this).redo(mCurrentPetUri, callback);
+    }
+
     /* Perform the deletion of the pet in the database.
       */
     private void deletePet() {
         if (mCurrentPetUri != null) {
-            int rowsDeleted = getContentResolver().delete(mCurrentPetUri, null, null);
-            if (rowsDeleted == 0) {
-                Toast.makeText(this, getString(R.string.editor_delete_pet_failed), Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, getString(R.string.editor_delete_pet_success), Toast.LENGTH_SHORT).show();
-            }
+            final Context appContext = getApplicationContext();
+            PetWriteQueue.getInstance(this).delete(mCurrentPetUri, new PetWriteQueue.Callback<Integer>() {
+                @Override
+                public void onComplete(Integer rowsDeleted) {
+                    if (rowsDeleted == 0) {
+                        Toast.makeText(appContext, R.string.editor_delete_pet_failed, Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(appContext, R.string.editor_delete_pet_success, Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
+            //The catalog offers to undo the deletion
+            setResult(RESULT_PET_DELETED, new Intent().setData(mCurrentPetUri));
             finish();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,93 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.example.android.pets.data.PetContract;
+
+/**
+ * The names of the breeds by their _id, so the lists can read the small breed id of each pet instead of
+ * its breed as text. Every name is held once and interned, rows of the same breed share one String.
+ * Breeds keep their id for good, so entries never go stale; an id the dictionary does not know yet
+ * reloads the breeds on the loader thread before the rows reach the list.
+ */
+
+public class PetBreedDictionary {
+
+    private static final String LOG_TAG = PetBreedDictionary.class.getSimpleName();
+
+    private static final String[] PROJECTION = {
+            PetContract.BreedEntry._ID,
+            PetContract.BreedEntry.COLUMN_BREED_NAME};
+
+    //The one dictionary of the process, shared by every list
+    private static PetBreedDictionary sInstance;
+
+    private final ContentResolver mContentResolver;
+
+    //Breed names by _id, guarded by this
+    private final LongSparseArray<String> mNames = new LongSparseArray<>();
+
+    /*
+    getInstance() returns the process wide dictionary, creating it on first use
+     */
+    public static synchronized PetBreedDictionary getInstance(Context context) {
+        if (sInstance == null)
+            sInstance = new PetBreedDictionary(context.getApplicationContext());
+        return sInstance;
+    }
+
+    private PetBreedDictionary(Context context) {
+        mContentResolver = context.getContentResolver();
+    }
+
+    /*
+    nameOf() returns the name of the breed, null for an unknown id. Cheap enough for binding a row
+     */
+    public synchronized String nameOf(long breedId) {
+        return mNames.get(breedId);
+    }
+
+    /*
+    ensure() makes sure every breed id of the cursor has its name, reloading the breeds
+    when one is missing. Reads the provider, so it runs on the loader thread
+     */
+    public void ensure(Cursor cursor) {
+        int breedIdColumnIndex = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_BREED_ID);
+        if (breedIdColumnIndex == -1 || !hasUnknown(cursor, breedIdColumnIndex))
+            return;
+
+        Cursor breeds = mContentResolver.query(PetContract.BreedEntry.CONTENT_URI, PROJECTION, null, null, null);
+        if (breeds == null) {
+            Log.w(LOG_TAG, "No breeds to resolve the pets with");
+            return;
+        }
+        try {
+            synchronized (this) {
+                while (breeds.moveToNext()) {
+                    long id = breeds.getLong(0);
+                    if (mNames.get(id) == null)
+                        mNames.put(id, breeds.getString(1).intern());
+                }
+            }
+        } finally {
+            breeds.close();
+        }
+    }
+
+    private synchronized boolean hasUnknown(Cursor cursor, int breedIdColumnIndex) {
+        cursor.moveToPosition(-1);
+        try {
+            while (cursor.moveToNext()) {
+                if (!cursor.isNull(breedIdColumnIndex) && mNames.get(cursor.getLong(breedIdColumnIndex)) == null)
+                    return true;
+            }
+            return false;
+        } finally {
+            cursor.moveToPosition(-1);
+        }
+    }
+}
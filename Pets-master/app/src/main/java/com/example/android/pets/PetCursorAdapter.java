@@ -2,49 +2,268 @@ package com.example.android.pets;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.os.AsyncTask;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.text.TextUtils;
+import android.util.Pair;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.example.android.pets.data.PetContract;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Created by HP on 26-06-2017.
  */
 
-public class PetCursorAdapter extends CursorAdapter{
-    public PetCursorAdapter(Context context, Cursor c) {
-        super(context, c,0);
+public class PetCursorAdapter extends RecyclerView.Adapter<PetCursorAdapter.ViewHolder>{
+
+    /*
+    Callback for a click on a pet of the list
+     */
+    public interface OnPetClickListener {
+        void onPetClick(long id);
     }
 
-    @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        return LayoutInflater.from(context).inflate(R.layout.list_item,parent,false);
+    //Fallback text for pets without a breed, looked up once
+    private final String mUnknownBreed;
+
+    private final OnPetClickListener mListener;
+
+    //Loads the thumbnails off the main thread
+    private final PetThumbnailLoader mThumbnailLoader;
+
+    //Rows currently shown by the list
+    private Snapshot mSnapshot = Snapshot.EMPTY;
+
+    //Incremented by every swapSnapshots(), a diff that finishes after a newer swap is dropped
+    private int mGeneration = 0;
+
+    public PetCursorAdapter(Context context, OnPetClickListener listener) {
+        mUnknownBreed = context.getString(R.string.unknown_breed);
+        mListener = listener;
+        mThumbnailLoader = PetThumbnailLoader.getInstance(context);
+        setHasStableIds(true);
     }
 
-    @Override
-    public void bindView(View view, Context context, Cursor cursor) {
+    /*
+    Holds the views of a list item
+     */
+    public class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final ImageView photoImageView;
+        final TextView nameTextView;
+        final TextView summaryTextView;
+
+        ViewHolder(View view) {
+            super(view);
+            photoImageView = (ImageView) view.findViewById(R.id.photo);
+            nameTextView = (TextView) view.findViewById(R.id.name);
+            summaryTextView = (TextView) view.findViewById(R.id.summary);
+            view.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            if (getAdapterPosition() != RecyclerView.NO_POSITION)
+                mListener.onPetClick(getItemId());
+        }
+    }
+
+    /*
+    Immutable copy of the _id, name, breed and photo of the rows of a cursor, so the old and
+    the new rows can be compared on a background thread while the list keeps binding.
+    The breed is read as a breed id where the cursor has one, the names come interned from the dictionary.
+    The loaders make it on their thread, see PetListLoader
+     */
+    static class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(0);
+
+        final long[] ids;
+        final String[] names;
+        final String[] breeds;
+        final String[] photos;
+
+        private Snapshot(int count) {
+            ids = new long[count];
+            names = new String[count];
+            breeds = new String[count];
+            photos = new String[count];
+        }
+
+        static Snapshot from(Cursor cursor, PetBreedDictionary breeds) {
+            if (cursor == null || cursor.getCount() == 0)
+                return EMPTY;
+
+            int idColumnIndex = cursor.getColumnIndex(PetContract.PetEntry._ID);
+            int nameColumnIndex = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_NAME);
+            int breedIdColumnIndex = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_BREED_ID);
+            int breedColumnIndex = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_BREED);
+            int photoColumnIndex = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_PHOTO);
+
+            Snapshot snapshot = new Snapshot(cursor.getCount());
+            cursor.moveToPosition(-1);
+            for (int i = 0; cursor.moveToNext(); i++) {
+                snapshot.ids[i] = cursor.getLong(idColumnIndex);
+                snapshot.names[i] = cursor.getString(nameColumnIndex);
+                if (breedIdColumnIndex != -1)
+                    snapshot.breeds[i] = cursor.isNull(breedIdColumnIndex)
+                            ? null : breeds.nameOf(cursor.getLong(breedIdColumnIndex));
+                else
+                    snapshot.breeds[i] = cursor.getString(breedColumnIndex);
+                if (photoColumnIndex != -1)
+                    snapshot.photos[i] = cursor.getString(photoColumnIndex);
+            }
+            return snapshot;
+        }
+
+        /*
+        concat() joins the rows of the snapshots in order
+         */
+        static Snapshot concat(List<Snapshot> snapshots) {
+            if (snapshots.size() == 1)
+                return snapshots.get(0);
+
+            int count = 0;
+            for (Snapshot snapshot : snapshots)
+                count += snapshot.size();
+            if (count == 0)
+                return EMPTY;
+
+            Snapshot concat = new Snapshot(count);
+            int offset = 0;
+            for (Snapshot snapshot : snapshots) {
+                int size = snapshot.size();
+                System.arraycopy(snapshot.ids, 0, concat.ids, offset, size);
+                System.arraycopy(snapshot.names, 0, concat.names, offset, size);
+                System.arraycopy(snapshot.breeds, 0, concat.breeds, offset, size);
+                System.arraycopy(snapshot.photos, 0, concat.photos, offset, size);
+                offset += size;
+            }
+            return concat;
+        }
+
+        int size() {
+            return ids.length;
+        }
+    }
 
-        TextView nameTextView = (TextView)view.findViewById(R.id.name);
-        TextView summaryTextView = (TextView)view.findViewById(R.id.summary);
+    /*
+    Compares two snapshots row by row, rows are the same pet when their _id match
+     */
+    private static class SnapshotDiff extends DiffUtil.Callback {
+        private final Snapshot mOld;
+        private final Snapshot mNew;
 
-        //Extract the name of the pet from the cursor
-        int idColumnName = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_NAME);
-        String currentName = cursor.getString(idColumnName);
+        SnapshotDiff(Snapshot oldSnapshot, Snapshot newSnapshot) {
+            mOld = oldSnapshot;
+            mNew = newSnapshot;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOld.ids[oldItemPosition] == mNew.ids[newItemPosition];
+        }
 
-        //Extract the Breed of the pet from the cursor
-        int idColumnBreed = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_BREED);
-        String currentBreed = cursor.getString(idColumnBreed);
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return TextUtils.equals(mOld.names[oldItemPosition], mNew.names[newItemPosition])
+                    && TextUtils.equals(mOld.breeds[oldItemPosition], mNew.breeds[newItemPosition])
+                    && TextUtils.equals(mOld.photos[oldItemPosition], mNew.photos[newItemPosition]);
+        }
+    }
+
+    /*
+    swapSnapshots() shows the rows of the snapshots one after the other. They are joined and diffed
+    against the shown rows on a background thread, and only the inserted, removed, moved and changed
+    rows are dispatched. When nothing is shown yet the rows are shown right away, there is nothing to diff
+    and joining them is a few array copies
+     */
+    public void swapSnapshots(List<Snapshot> snapshots) {
+        final Snapshot oldSnapshot = mSnapshot;
+        final int generation = ++mGeneration;
+
+        if (oldSnapshot.size() == 0) {
+            Snapshot newSnapshot = Snapshot.concat(snapshots);
+            if (newSnapshot.size() != 0) {
+                mSnapshot = newSnapshot;
+                notifyItemRangeInserted(0, newSnapshot.size());
+            }
+            return;
+        }
+
+        final List<Snapshot> newSnapshots = new ArrayList<>(snapshots);
+        new AsyncTask<Void, Void, Pair<Snapshot, DiffUtil.DiffResult>>() {
+            @Override
+            protected Pair<Snapshot, DiffUtil.DiffResult> doInBackground(Void... params) {
+                Snapshot newSnapshot = Snapshot.concat(newSnapshots);
+                return Pair.create(newSnapshot, DiffUtil.calculateDiff(new SnapshotDiff(oldSnapshot, newSnapshot)));
+            }
+
+            @Override
+            protected void onPostExecute(Pair<Snapshot, DiffUtil.DiffResult> result) {
+                //Newer snapshots were swapped in meanwhile, their diff will be applied instead
+                if (generation != mGeneration)
+                    return;
+                mSnapshot = result.first;
+                result.second.dispatchUpdatesTo(PetCursorAdapter.this);
+            }
+        }.execute();
+    }
 
-        //Populating the list view item with name and breed
-        nameTextView.setText(currentName);
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item,parent,false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+
+        //Extract the name and the Breed of the pet from the snapshot
+        String currentName = mSnapshot.names[position];
+        String currentBreed = mSnapshot.breeds[position];
+
+        //Populating the list item with name and breed
+        holder.nameTextView.setText(currentName);
         if(TextUtils.isEmpty(currentBreed)){
-            currentBreed=context.getString(R.string.unknown_breed);
+            currentBreed = mUnknownBreed;
         }
-        summaryTextView.setText(currentBreed);
+        holder.summaryTextView.setText(currentBreed);
+
+        //The thumbnail comes from the memory cache or is loaded in the background
+        mThumbnailLoader.load(holder.photoImageView, mSnapshot.ids[position], mSnapshot.photos[position]);
+    }
+
+    /*
+    snapshot() is the rows shown by the list
+     */
+    Snapshot snapshot() {
+        return mSnapshot;
+    }
 
+    @Override
+    public long getItemId(int position) {
+        return mSnapshot.ids[position];
+    }
+
+    @Override
+    public int getItemCount() {
+        return mSnapshot.size();
     }
 }
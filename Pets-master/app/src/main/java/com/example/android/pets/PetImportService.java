@@ -0,0 +1,144 @@
+package com.example.android.pets;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.SQLException;
+import android.net.Uri;
+import android.support.v4.content.LocalBroadcastManager;
+import android.util.Log;
+
+import com.example.android.pets.data.PetImporter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Imports the pets of a CSV or NDJSON file in the background. The progress is saved after every
+ * committed chunk and the intent is redelivered if the process dies, so the import picks up
+ * after the last committed chunk instead of starting over. The errors of the rows already committed
+ * are saved with the progress, so the final report has them all.
+ */
+
+public class PetImportService extends IntentService {
+
+    private static final String LOG_TAG = PetImportService.class.getSimpleName();
+
+    /** Broadcast (through LocalBroadcastManager) after every committed chunk and at the end */
+    public static final String ACTION_PROGRESS = "com.example.android.pets.action.IMPORT_PROGRESS";
+    public static final String EXTRA_IMPORTED = "imported";
+    public static final String EXTRA_FAILED = "failed";
+    public static final String EXTRA_ERRORS = "errors";
+    public static final String EXTRA_FINISHED = "finished";
+    public static final String EXTRA_SUCCESS = "success";
+
+    //Saved progress of the current import
+    private static final String PREFS_NAME = "pet_import";
+    private static final String KEY_SOURCE = "source";
+    private static final String KEY_RECORDS = "records";
+    private static final String KEY_IMPORTED = "imported";
+    private static final String KEY_FAILED = "failed";
+    private static final String KEY_ERRORS = "errors";
+
+    /*
+    start() imports the pets of the given file
+     */
+    public static void start(Context context, Uri source) {
+        Intent intent = new Intent(context, PetImportService.class);
+        intent.setData(source);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        context.startService(intent);
+    }
+
+    public PetImportService() {
+        super("PetImportService");
+        //Restart an import cut short by the death of the process
+        setIntentRedelivery(true);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        Uri source = intent.getData();
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+
+        //Pick up the saved progress if this file was being imported, otherwise start over
+        final PetImporter.Progress progress = new PetImporter.Progress();
+        if (source.toString().equals(prefs.getString(KEY_SOURCE, null))) {
+            progress.records = prefs.getLong(KEY_RECORDS, 0);
+            progress.imported = prefs.getLong(KEY_IMPORTED, 0);
+            progress.failed = prefs.getLong(KEY_FAILED, 0);
+            readErrors(prefs.getString(KEY_ERRORS, null), progress.errors);
+        } else {
+            prefs.edit().clear().putString(KEY_SOURCE, source.toString()).commit();
+        }
+
+        final SharedPreferences.Editor editor = prefs.edit();
+        boolean success = false;
+        InputStream input = null;
+        try {
+            input = getContentResolver().openInputStream(source);
+            if (input == null)
+                throw new IOException("Cannot open " + source);
+
+            new PetImporter(getContentResolver()).importPets(input, progress, new PetImporter.Listener() {
+                @Override
+                public void onProgress(PetImporter.Progress progress) {
+                    //Saved synchronously, a chunk that was committed but not saved is imported again
+                    editor.putLong(KEY_RECORDS, progress.records)
+                            .putLong(KEY_IMPORTED, progress.imported)
+                            .putLong(KEY_FAILED, progress.failed)
+                            .putString(KEY_ERRORS, new JSONArray(progress.errors).toString())
+                            .commit();
+                    broadcast(progress, false, false);
+                }
+            });
+            success = true;
+        } catch (IOException | SQLException | SecurityException | IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Failed to import " + source, e);
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Failed to close " + source, e);
+                }
+            }
+        }
+
+        //A finished import has nothing left to resume
+        if (success)
+            prefs.edit().clear().commit();
+        broadcast(progress, true, success);
+    }
+
+    /*
+    readErrors() adds the saved errors, a JSON array of their messages, to the list
+     */
+    private static void readErrors(String saved, List<String> errors) {
+        if (saved == null)
+            return;
+        try {
+            JSONArray array = new JSONArray(saved);
+            for (int i = 0; i < array.length(); i++)
+                errors.add(array.getString(i));
+        } catch (JSONException e) {
+            //The rows are still counted as failed, only their messages are lost
+            Log.w(LOG_TAG, "Invalid saved errors", e);
+        }
+    }
+
+    private void broadcast(PetImporter.Progress progress, boolean finished, boolean success) {
+        Intent intent = new Intent(ACTION_PROGRESS);
+        intent.putExtra(EXTRA_IMPORTED, progress.imported);
+        intent.putExtra(EXTRA_FAILED, progress.failed);
+        intent.putStringArrayListExtra(EXTRA_ERRORS, progress.errors);
+        intent.putExtra(EXTRA_FINISHED, finished);
+        intent.putExtra(EXTRA_SUCCESS, success);
+        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+
+/**
+ * Loads a list of pets for the {@link PetCursorAdapter}. The rows the list shows are copied into a
+ * {@link PetCursorAdapter.Snapshot} on the loader thread, next to the query, so the main thread
+ * only hands the snapshot to the adapter. The snapshot comes with the cursor, see {@link #snapshotOf(Cursor)}.
+ */
+
+public class PetListLoader extends PetQueryLoader {
+
+    public PetListLoader(Context context, Uri uri, String[] projection, Uri observedUri, long windowMs) {
+        super(context, uri, projection, observedUri, windowMs);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null)
+            return null;
+        try {
+            //The breeds of the cursor are in the dictionary by now
+            return new SnapshotCursor(cursor,
+                    PetCursorAdapter.Snapshot.from(cursor, PetBreedDictionary.getInstance(getContext())));
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+    }
+
+    /*
+    snapshotOf() returns the rows of a cursor delivered by the loader, empty for no cursor
+     */
+    static PetCursorAdapter.Snapshot snapshotOf(Cursor cursor) {
+        return cursor == null ? PetCursorAdapter.Snapshot.EMPTY : ((SnapshotCursor) cursor).mSnapshot;
+    }
+
+    /*
+    The cursor of the query with the snapshot of its rows
+     */
+    private static class SnapshotCursor extends CursorWrapper {
+        private final PetCursorAdapter.Snapshot mSnapshot;
+
+        SnapshotCursor(Cursor cursor, PetCursorAdapter.Snapshot snapshot) {
+            super(cursor);
+            mSnapshot = snapshot;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.android.pets;
+
+import android.content.Context;
+
+import com.example.android.pets.data.PetContract;
+
+/**
+ * Loads one page of the catalog without watching the pets for changes. The catalog decides
+ * which pages a change touches and calls scheduleReload() on those loaders only.
+ * <p>
+ * The last page holds up to a page of pets after its key. Once the page after it is loaded it gets an end,
+ * the key of that page, and from then on holds every pet between its two keys. A pet added to or removed
+ * from a page then never moves a pet from one page to the other, so the pages neither repeat nor skip a pet.
+ */
+
+public class PetPageLoader extends PetListLoader {
+
+    //_id of the last pet of the previous page, -1 for the first page
+    private final long mAfterId;
+
+    //_id of the last pet of the page once a page follows it, -1 while it is the last page
+    private long mThroughId = -1;
+
+    public PetPageLoader(Context context, long afterId, int pageSize, String[] projection) {
+        super(context, PetContract.PetEntry.buildPageUri(pageSize, afterId), projection, null, DEFAULT_WINDOW_MS);
+        mAfterId = afterId;
+    }
+
+    public long getAfterId() {
+        return mAfterId;
+    }
+
+    public long getThroughId() {
+        return mThroughId;
+    }
+
+    /*
+    setThroughId() ends the page at the given _id, the key of the page loaded after it
+     */
+    public void setThroughId(long throughId) {
+        mThroughId = throughId;
+        setUri(PetContract.PetEntry.buildBoundedPageUri(mAfterId, throughId));
+    }
+}
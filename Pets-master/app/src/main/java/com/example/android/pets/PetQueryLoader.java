@@ -0,0 +1,209 @@
+package com.example.android.pets;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.OperationCanceledException;
+
+import com.example.android.pets.data.PetContract;
+
+/**
+ * Loads a query of the pets provider like a CursorLoader, but reloads at most once per window however many
+ * changes arrive. Changes of the observed uri (and its descendants) within a window are coalesced into one
+ * reload, a reload asked for while a query runs cancels that query, and the update throttle keeps results
+ * at least a window apart. Being a loader, the last result survives configuration changes.
+ * <p>
+ * Pets read with their {@link PetContract.PetEntry#COLUMN_PET_BREED_ID} get their breeds into the
+ * {@link PetBreedDictionary} before the result is delivered.
+ * <p>
+ * Without an observed uri the loader reloads only when {@link #scheduleReload()} is called.
+ */
+
+public class PetQueryLoader extends AsyncTaskLoader<Cursor> {
+
+    //Coalescing window of the loaders of the app
+    public static final long DEFAULT_WINDOW_MS = 200;
+
+    //Read by the background thread, a page loader moves it when its page gets an end
+    private volatile Uri mUri;
+    private final String[] mProjection;
+    private final Uri mObservedUri;
+    private final long mWindowMs;
+
+    //Loaders are created and driven on the main thread, so is the reload
+    private final Handler mHandler = new Handler();
+
+    private final ContentObserver mObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            scheduleReload();
+        }
+    };
+
+    private final Runnable mReload = new Runnable() {
+        @Override
+        public void run() {
+            mReloadScheduled = false;
+            onContentChanged();
+        }
+    };
+
+    private boolean mObserving = false;
+    private boolean mReloadScheduled = false;
+
+    //Signal of the running query, cancelled when the query is no longer wanted
+    private CancellationSignal mCancellationSignal;
+
+    private Cursor mCursor;
+
+    public PetQueryLoader(Context context, Uri uri, String[] projection, Uri observedUri, long windowMs) {
+        super(context);
+        mUri = uri;
+        mProjection = projection;
+        mObservedUri = observedUri;
+        mWindowMs = windowMs;
+
+        //At most one result per window, a reload asked for sooner waits for the window to end
+        setUpdateThrottle(windowMs);
+    }
+
+    /*
+    setUri() changes the query of the next loads, the current result stays until then
+     */
+    protected void setUri(Uri uri) {
+        mUri = uri;
+    }
+
+    /*
+    scheduleReload() reloads at the end of the window, the changes until then are part of that reload
+     */
+    public void scheduleReload() {
+        if (mReloadScheduled)
+            return;
+        mReloadScheduled = true;
+        mHandler.postDelayed(mReload, mWindowMs);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN)
+            return resolveBreeds(fill(getContext().getContentResolver().query(mUri, mProjection, null, null, null)));
+
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled())
+                throw new OperationCanceledException();
+            mCancellationSignal = new CancellationSignal();
+        }
+        try {
+            return resolveBreeds(fill(getContext().getContentResolver().query(mUri, mProjection, null, null, null,
+                    mCancellationSignal)));
+        } finally {
+            synchronized (this) {
+                mCancellationSignal = null;
+            }
+        }
+    }
+
+    /*
+    fill() fills the cursor window here instead of on the main thread
+     */
+    private static Cursor fill(Cursor cursor) {
+        if (cursor != null) {
+            try {
+                cursor.getCount();
+            } catch (RuntimeException e) {
+                cursor.close();
+                throw e;
+            }
+        }
+        return cursor;
+    }
+
+    /*
+    resolveBreeds() looks up the breeds of the pets the dictionary does not know yet
+     */
+    private Cursor resolveBreeds(Cursor cursor) {
+        if (cursor != null) {
+            try {
+                PetBreedDictionary.getInstance(getContext()).ensure(cursor);
+            } catch (RuntimeException e) {
+                cursor.close();
+                throw e;
+            }
+        }
+        return cursor;
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+        synchronized (this) {
+            if (mCancellationSignal != null)
+                mCancellationSignal.cancel();
+        }
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (isReset()) {
+            if (cursor != null)
+                cursor.close();
+            return;
+        }
+
+        Cursor oldCursor = mCursor;
+        mCursor = cursor;
+
+        if (isStarted())
+            super.deliverResult(cursor);
+
+        if (oldCursor != null && oldCursor != cursor && !oldCursor.isClosed())
+            oldCursor.close();
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mObservedUri != null && !mObserving) {
+            getContext().getContentResolver().registerContentObserver(mObservedUri, true, mObserver);
+            mObserving = true;
+        }
+
+        if (mCursor != null)
+            deliverResult(mCursor);
+        if (takeContentChanged() || mCursor == null)
+            forceLoad();
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    public void onCanceled(Cursor cursor) {
+        if (cursor != null && !cursor.isClosed())
+            cursor.close();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+        mHandler.removeCallbacks(mReload);
+        mReloadScheduled = false;
+
+        if (mCursor != null && !mCursor.isClosed())
+            mCursor.close();
+        mCursor = null;
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.android.pets;
+
+import android.app.ActivityManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.pets.data.PetContract;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Shows the thumbnails of the pets in image views. Thumbnails are read from the provider, which keeps them
+ * downsampled on disk, and decoded on background threads into a memory cache bounded by bytes. Rebinding a view
+ * to another pet cancels the load it was waiting for, so a fast fling only decodes the rows that stay on screen.
+ */
+
+public class PetThumbnailLoader {
+
+    private static final String LOG_TAG = PetThumbnailLoader.class.getSimpleName();
+
+    //Decoding threads, the thumbnails are small so two keep up with a fling
+    private static final int THREADS = 2;
+
+    //Share of the memory class of the app given to the memory cache
+    private static final int MEMORY_CACHE_DIVIDER = 8;
+
+    //The one loader of the process, so every list shares the memory cache
+    private static PetThumbnailLoader sInstance;
+
+    private final ContentResolver mContentResolver;
+
+    //Decoded thumbnails by photo name, a new photo gets a new name so entries never go stale
+    private final LruCache<String, Bitmap> mCache;
+
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(THREADS);
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    //The load each view is waiting for, only used on the main thread
+    private final WeakHashMap<ImageView, Load> mLoads = new WeakHashMap<>();
+
+    /*
+    getInstance() returns the process wide loader, creating it on first use
+     */
+    public static synchronized PetThumbnailLoader getInstance(Context context) {
+        if (sInstance == null)
+            sInstance = new PetThumbnailLoader(context.getApplicationContext());
+        return sInstance;
+    }
+
+    private PetThumbnailLoader(Context context) {
+        mContentResolver = context.getContentResolver();
+        int memoryClass = ((ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE)).getMemoryClass();
+        mCache = new LruCache<String, Bitmap>(memoryClass * 1024 * 1024 / MEMORY_CACHE_DIVIDER) {
+            @Override
+            protected int sizeOf(String photo, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /*
+    load() shows the thumbnail of the pet in the view, nothing while it loads or when the pet has no photo.
+    Must be called on the main thread
+     */
+    public void load(ImageView view, long petId, String photo) {
+        Load pending = mLoads.remove(view);
+        if (pending != null) {
+            //Rebound to the same photo, keep waiting for it
+            if (pending.photo.equals(photo)) {
+                mLoads.put(view, pending);
+                return;
+            }
+            pending.future.cancel(false);
+        }
+
+        Bitmap bitmap = photo == null ? null : mCache.get(photo);
+        view.setImageBitmap(bitmap);
+        if (photo == null || bitmap != null)
+            return;
+
+        Load load = new Load(view, petId, photo);
+        mLoads.put(view, load);
+        load.future = mExecutor.submit(load);
+    }
+
+    /*
+    trimMemory() drops the memory cache when the system runs low on memory
+     */
+    public void trimMemory() {
+        mCache.evictAll();
+    }
+
+    /*
+    decode() reads the thumbnail from the provider, null if the pet has no photo anymore
+     */
+    private Bitmap decode(long petId) {
+        try {
+            InputStream in = mContentResolver.openInputStream(PetContract.PetEntry.buildThumbnailUri(petId));
+            if (in == null)
+                return null;
+            try {
+                //Thumbnails have no alpha, half the bytes of ARGB_8888
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inPreferredConfig = Bitmap.Config.RGB_565;
+                return BitmapFactory.decodeStream(in, null, options);
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to read the thumbnail of pet " + petId, e);
+            return null;
+        }
+    }
+
+    /*
+    Loads one thumbnail and shows it if the view still waits for it
+     */
+    private class Load implements Runnable {
+        final WeakReference<ImageView> view;
+        final long petId;
+        final String photo;
+        Future<?> future;
+
+        Load(ImageView view, long petId, String photo) {
+            this.view = new WeakReference<>(view);
+            this.petId = petId;
+            this.photo = photo;
+        }
+
+        @Override
+        public void run() {
+            final Bitmap bitmap = decode(petId);
+            if (bitmap != null)
+                mCache.put(photo, bitmap);
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    ImageView imageView = view.get();
+                    if (imageView != null && mLoads.get(imageView) == Load.this) {
+                        mLoads.remove(imageView);
+                        if (bitmap != null)
+                            imageView.setImageBitmap(bitmap);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+
+import java.util.HashMap;
+
+/**
+ * Turns the breed of a pet from text into the _id of its row in the breeds table, adding the breeds
+ * seen for the first time. Writers of the pets table go through it, readers get the text back from
+ * the live pets view. An instance remembers the ids it found, so a batch looks up each breed once;
+ * use one per transaction, a rolled back transaction takes its new breeds with it.
+ */
+
+class PetBreeds {
+
+    private static final String SQL_FIND = "SELECT " + PetContract.BreedEntry._ID + " FROM "
+            + PetContract.BreedEntry.TABLE_NAME + " WHERE " + PetContract.BreedEntry.COLUMN_BREED_NAME + " = ?";
+
+    private final SQLiteDatabase mDatabase;
+
+    //Ids by breed name, found or added by this instance
+    private final HashMap<String, Long> mIds = new HashMap<>();
+
+    PetBreeds(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /*
+    idOf() returns the _id of the breed, adding it first if it is new. null for a pet without a breed
+     */
+    Long idOf(String breed) {
+        if (breed == null || breed.isEmpty())
+            return null;
+
+        Long id = mIds.get(breed);
+        if (id == null) {
+            id = find(breed);
+            if (id == null) {
+                ContentValues values = new ContentValues();
+                values.put(PetContract.BreedEntry.COLUMN_BREED_NAME, breed);
+                long newId = mDatabase.insertWithOnConflict(PetContract.BreedEntry.TABLE_NAME, null, values,
+                        SQLiteDatabase.CONFLICT_IGNORE);
+                //Ignored when another thread added the breed in between
+                id = newId == -1 ? find(breed) : Long.valueOf(newId);
+                if (id == null)
+                    throw new IllegalStateException("Failed to add the breed " + breed);
+            }
+            mIds.put(breed, id);
+        }
+        return id;
+    }
+
+    /*
+    withBreedId() returns the values with the breed replaced by its _id, the values themselves
+    when they have no breed. The values of the caller are left alone
+     */
+    ContentValues withBreedId(ContentValues values) {
+        if (!values.containsKey(PetContract.PetEntry.COLUMN_PET_BREED))
+            return values;
+
+        ContentValues converted = new ContentValues(values);
+        converted.remove(PetContract.PetEntry.COLUMN_PET_BREED);
+        Long id = idOf(values.getAsString(PetContract.PetEntry.COLUMN_PET_BREED));
+        if (id == null)
+            converted.putNull(PetContract.PetEntry.COLUMN_PET_BREED_ID);
+        else
+            converted.put(PetContract.PetEntry.COLUMN_PET_BREED_ID, id);
+        return converted;
+    }
+
+    /*
+    find() looks the breed up with a statement, a cursor would fill a whole CursorWindow for one id
+     */
+    private Long find(String breed) {
+        try {
+            return DatabaseUtils.longForQuery(mDatabase, SQL_FIND, new String[] {breed});
+        } catch (SQLiteDoneException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package com.example.android.pets.data;
+
+import android.database.AbstractCursor;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+
+import java.util.Arrays;
+
+/**
+ * Read only cursor holding the rows of a list of pets column by column in primitive arrays: the number
+ * columns in a long[], the text columns as the chars of every row one after the other in a char[] with the
+ * offset of each row in an int[]. The provider copies the result of a query into it in one forward pass and
+ * closes the query, so the list then moves to any position without refilling a CursorWindow, and each
+ * field costs its chars or its 8 bytes instead of a slot in a generic window. A text field becomes a String
+ * the first time it is read as one and is kept, binding it again allocates nothing.
+ * <p>
+ * Only the pet columns listed in {@link #NUMBER_COLUMNS} and {@link #TEXT_COLUMNS} can be held,
+ * see {@link #canHold(String[])}.
+ */
+
+class PetColumnCursor extends AbstractCursor {
+
+    //Columns held as numbers, nullable
+    private static final String[] NUMBER_COLUMNS = {
+            PetContract.PetEntry._ID,
+            PetContract.PetEntry.COLUMN_PET_BREED_ID,
+            PetContract.PetEntry.COLUMN_PET_GENDER,
+            PetContract.PetEntry.COLUMN_PET_WEIGHT,
+            PetContract.PetEntry.COLUMN_PET_VERSION,
+            PetContract.PetEntry.COLUMN_PET_UPDATED_AT};
+
+    //Columns held as text
+    private static final String[] TEXT_COLUMNS = {
+            PetContract.PetEntry.COLUMN_PET_NAME,
+            PetContract.PetEntry.COLUMN_PET_BREED,
+            PetContract.PetEntry.COLUMN_PET_PHOTO};
+
+    //Chars kept per row of a text column at first, the buffer doubles when it runs out
+    private static final int INITIAL_CHARS_PER_ROW = 12;
+
+    //Rows the columns have room for at first when the query has no limit, they double when they run out.
+    //A limit gives the room of the columns up to the most they start with
+    private static final int INITIAL_ROWS = 256;
+    private static final int MAX_INITIAL_ROWS = 4096;
+
+    //Rows copied between two looks at the cancellation signal
+    private static final int CANCEL_CHECK_ROWS = 256;
+
+    private final String[] mColumnNames;
+    private final Column[] mColumns;
+    private final int mCount;
+
+    private PetColumnCursor(String[] columnNames, Column[] columns, int count) {
+        mColumnNames = columnNames;
+        mColumns = columns;
+        mCount = count;
+    }
+
+    /*
+    canHold() tells whether the cursor can hold every column of the projection.
+    A null projection means every column of the view, which it does not
+     */
+    static boolean canHold(String[] projection) {
+        if (projection == null)
+            return false;
+        for (String column : projection) {
+            if (indexOf(NUMBER_COLUMNS, column) == -1 && indexOf(TEXT_COLUMNS, column) == -1)
+                return false;
+        }
+        return true;
+    }
+
+    /*
+    copyOf() copies every row of the source in one pass and closes the source, whose columns must
+    pass canHold(). The limit of the query, 0 for none, sizes the columns, the source is never asked
+    for its count. Stops with an OperationCanceledException when the signal is cancelled
+     */
+    static PetColumnCursor copyOf(Cursor source, long limit, CancellationSignal cancellationSignal) {
+        try {
+            String[] columnNames = source.getColumnNames();
+            int capacity = limit > 0 ? (int) Math.min(limit, MAX_INITIAL_ROWS) : INITIAL_ROWS;
+
+            Column[] columns = new Column[columnNames.length];
+            for (int i = 0; i < columnNames.length; i++) {
+                columns[i] = indexOf(TEXT_COLUMNS, columnNames[i]) != -1
+                        ? new TextColumn(capacity) : new NumberColumn(capacity);
+            }
+
+            //One buffer for every text field, the chars never become a String on the way
+            CharArrayBuffer buffer = new CharArrayBuffer(64);
+            int count = 0;
+            while (source.moveToNext()) {
+                if (cancellationSignal != null && count % CANCEL_CHECK_ROWS == 0)
+                    cancellationSignal.throwIfCanceled();
+                if (count == capacity) {
+                    capacity *= 2;
+                    for (Column column : columns)
+                        column.grow(capacity);
+                }
+                for (int i = 0; i < columns.length; i++)
+                    columns[i].copy(source, i, count, buffer);
+                count++;
+            }
+            for (Column column : columns)
+                column.trim(count);
+            return new PetColumnCursor(columnNames, columns, count);
+        } finally {
+            source.close();
+        }
+    }
+
+    private static int indexOf(String[] columns, String column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equals(column))
+                return i;
+        }
+        return -1;
+    }
+
+    /*
+    row() is the current row, throwing like a CursorWindow before the first or after the last one
+     */
+    private int row() {
+        checkPosition();
+        return getPosition();
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        return mColumns[column].getString(row());
+    }
+
+    @Override
+    public void copyStringToBuffer(int column, CharArrayBuffer buffer) {
+        mColumns[column].copyToBuffer(row(), buffer);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return mColumns[column].getLong(row());
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mColumns[column].isNull(row());
+    }
+
+    @Override
+    public int getType(int column) {
+        return mColumns[column].getType(row());
+    }
+
+    /*
+    The values of one column for every row
+     */
+    private static abstract class Column {
+        //Set for the null rows, created with the first null
+        private boolean[] mNulls;
+
+        //Rows the column has room for
+        int mCapacity;
+
+        Column(int capacity) {
+            mCapacity = capacity;
+        }
+
+        abstract void copy(Cursor source, int column, int row, CharArrayBuffer buffer);
+
+        abstract String getString(int row);
+
+        abstract long getLong(int row);
+
+        abstract int getType(int row);
+
+        //Makes room for the given number of rows
+        void grow(int capacity) {
+            mCapacity = capacity;
+            if (mNulls != null)
+                mNulls = Arrays.copyOf(mNulls, capacity);
+        }
+
+        //Gives back the room left over by the copy of count rows
+        void trim(int count) {
+            mCapacity = count;
+            if (mNulls != null && mNulls.length != count)
+                mNulls = Arrays.copyOf(mNulls, count);
+        }
+
+        void copyToBuffer(int row, CharArrayBuffer buffer) {
+            String value = getString(row);
+            if (value == null) {
+                buffer.sizeCopied = 0;
+                return;
+            }
+            if (buffer.data == null || buffer.data.length < value.length())
+                buffer.data = value.toCharArray();
+            else
+                value.getChars(0, value.length(), buffer.data, 0);
+            buffer.sizeCopied = value.length();
+        }
+
+        void setNull(int row) {
+            if (mNulls == null)
+                mNulls = new boolean[mCapacity];
+            mNulls[row] = true;
+        }
+
+        boolean isNull(int row) {
+            return mNulls != null && mNulls[row];
+        }
+    }
+
+    private static class NumberColumn extends Column {
+        private long[] mValues;
+
+        NumberColumn(int capacity) {
+            super(capacity);
+            mValues = new long[capacity];
+        }
+
+        @Override
+        void copy(Cursor source, int column, int row, CharArrayBuffer buffer) {
+            if (source.isNull(column))
+                setNull(row);
+            else
+                mValues[row] = source.getLong(column);
+        }
+
+        @Override
+        void grow(int capacity) {
+            super.grow(capacity);
+            mValues = Arrays.copyOf(mValues, capacity);
+        }
+
+        @Override
+        void trim(int count) {
+            super.trim(count);
+            if (mValues.length != count)
+                mValues = Arrays.copyOf(mValues, count);
+        }
+
+        @Override
+        String getString(int row) {
+            return isNull(row) ? null : String.valueOf(mValues[row]);
+        }
+
+        @Override
+        long getLong(int row) {
+            return mValues[row];
+        }
+
+        @Override
+        int getType(int row) {
+            return isNull(row) ? FIELD_TYPE_NULL : FIELD_TYPE_INTEGER;
+        }
+    }
+
+    private static class TextColumn extends Column {
+        private char[] mChars;
+
+        //Row i is the chars from mOffsets[i] to mOffsets[i + 1]
+        private int[] mOffsets;
+
+        //The rows read as a String so far, created with the first one
+        private String[] mStrings;
+
+        TextColumn(int capacity) {
+            super(capacity);
+            mChars = new char[Math.max(capacity * INITIAL_CHARS_PER_ROW, 1)];
+            mOffsets = new int[capacity + 1];
+        }
+
+        @Override
+        void copy(Cursor source, int column, int row, CharArrayBuffer buffer) {
+            int start = mOffsets[row];
+            mOffsets[row + 1] = start;
+            if (source.isNull(column)) {
+                setNull(row);
+                return;
+            }
+
+            source.copyStringToBuffer(column, buffer);
+            int length = buffer.sizeCopied;
+            if (start + length > mChars.length)
+                mChars = Arrays.copyOf(mChars, Math.max(mChars.length * 2, start + length));
+            System.arraycopy(buffer.data, 0, mChars, start, length);
+            mOffsets[row + 1] = start + length;
+        }
+
+        @Override
+        void grow(int capacity) {
+            super.grow(capacity);
+            mOffsets = Arrays.copyOf(mOffsets, capacity + 1);
+        }
+
+        @Override
+        void trim(int count) {
+            super.trim(count);
+            if (mOffsets.length != count + 1)
+                mOffsets = Arrays.copyOf(mOffsets, count + 1);
+            int length = mOffsets[count];
+            if (length < mChars.length)
+                mChars = Arrays.copyOf(mChars, length);
+        }
+
+        @Override
+        String getString(int row) {
+            if (isNull(row))
+                return null;
+            if (mStrings == null)
+                mStrings = new String[mCapacity];
+            String value = mStrings[row];
+            if (value == null) {
+                value = new String(mChars, mOffsets[row], mOffsets[row + 1] - mOffsets[row]);
+                mStrings[row] = value;
+            }
+            return value;
+        }
+
+        @Override
+        void copyToBuffer(int row, CharArrayBuffer buffer) {
+            //Straight from the chars, no String in between
+            int length = isNull(row) ? 0 : mOffsets[row + 1] - mOffsets[row];
+            if (buffer.data == null || buffer.data.length < length)
+                buffer.data = new char[length];
+            System.arraycopy(mChars, mOffsets[row], buffer.data, 0, length);
+            buffer.sizeCopied = length;
+        }
+
+        @Override
+        long getLong(int row) {
+            //Like SQLite, text that is not a number reads as 0
+            try {
+                return isNull(row) ? 0 : Long.parseLong(getString(row));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        @Override
+        int getType(int row) {
+            return isNull(row) ? FIELD_TYPE_NULL : FIELD_TYPE_STRING;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.android.pets.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.provider.BaseColumns;
@@ -15,9 +16,49 @@ public class PetContract {
     public static final String CONTENT_AUTHORITY = "com.example.android.pets";
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://"+CONTENT_AUTHORITY);
     public static final String PATH_PETS = "pets";
+    public static final String PATH_SEARCH = "search";
+    public static final String PATH_EXPORT = "export";
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_JOURNAL = "journal";
+    public static final String PATH_CHANGES = "changes";
+    public static final String PATH_PHOTO = "photo";
+    public static final String PATH_THUMBNAIL = "thumbnail";
+    public static final String PATH_BREEDS = "breeds";
+
+    /**
+     * Methods of the provider call(). {@link #METHOD_GET_STATS} returns the latency and row count
+     * stats of every uri and operation, {@link #METHOD_RESET_STATS} clears them and
+     * {@link #METHOD_SET_SLOW_QUERY_THRESHOLD} sets the milliseconds after which a query is logged.
+     */
+    public static final String METHOD_GET_STATS = "get_stats";
+    public static final String METHOD_RESET_STATS = "reset_stats";
+    public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "set_slow_query_threshold";
+
+    /**
+     * Methods of the provider call() undoing and redoing the latest change of the pet whose uri is the arg.
+     * The result holds {@link #KEY_CHANGED}, false when there was nothing to undo or redo.
+     * Undoing the deletion of a pet brings it back under its old uri.
+     */
+    public static final String METHOD_UNDO = "undo";
+    public static final String METHOD_REDO = "redo";
+    public static final String KEY_CHANGED = "changed";
+
+    /**
+     * Method of the provider call() setting the photo of the pet whose uri is the arg. The extras hold the
+     * uri of the image in {@link #KEY_PHOTO_SOURCE}, the provider keeps its own downsampled copy.
+     * Without a source the photo is removed. The result holds {@link #KEY_CHANGED}, false when the pet is gone
+     * or the image could not be read.
+     */
+    public static final String METHOD_SET_PHOTO = "set_photo";
+    public static final String KEY_PHOTO_SOURCE = "photo_source";
 
     public static abstract class PetEntry implements BaseColumns{
 
+        /**
+         * Uri of the pets table. Changes to a single pet are notified on the uri of that pet
+         * (the CONTENT_URI with its id appended), changes to several pets on the CONTENT_URI itself.
+         * Observers of the CONTENT_URI that watch its descendants see both.
+         */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI,PATH_PETS);
 
         /**
@@ -30,6 +71,163 @@ public class PetContract {
          */
         public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +PATH_PETS;
 
+        /**
+         * Query parameters for keyset pagination of the {@link #CONTENT_URI}. A paged query returns at most
+         * {@link #QUERY_PARAMETER_LIMIT} pets in {@link #_ID} order, starting after {@link #QUERY_PARAMETER_AFTER_ID}
+         * and ending with {@link #QUERY_PARAMETER_THROUGH_ID}. A page bounded on both ends keeps its pets
+         * however the pages around it change.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+        public static final String QUERY_PARAMETER_THROUGH_ID = "through_id";
+
+        /**
+         * The {@link #SEARCH_URI} returns the pets whose name or breed contain words starting with the
+         * words of the {@link #QUERY_PARAMETER_SEARCH} parameter, pets matching on the name first.
+         * It also honours {@link #QUERY_PARAMETER_LIMIT}.
+         */
+        public static final Uri SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+        public static final String QUERY_PARAMETER_SEARCH = "q";
+
+        /**
+         * Builds the search uri for the text typed by the user.
+         */
+        public static Uri buildSearchUri(String text, int limit) {
+            return SEARCH_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SEARCH, text)
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * The {@link #EXPORT_URI} is opened as a file (ContentResolver.openInputStream()) and streams every pet
+         * as CSV with a header line, or as one JSON object per line when {@link #QUERY_PARAMETER_FORMAT} is
+         * {@link #FORMAT_NDJSON}.
+         */
+        public static final Uri EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+        public static final String QUERY_PARAMETER_FORMAT = "format";
+        public static final String FORMAT_CSV = "csv";
+        public static final String FORMAT_NDJSON = "ndjson";
+
+        /**
+         * MIME types of the two export formats
+         */
+        public static final String CSV_TYPE = "text/csv";
+        public static final String NDJSON_TYPE = "application/x-ndjson";
+
+        /**
+         * Builds the export uri for the given format.
+         */
+        public static Uri buildExportUri(String format) {
+            return EXPORT_URI.buildUpon().appendQueryParameter(QUERY_PARAMETER_FORMAT, format).build();
+        }
+
+        /**
+         * Aggregates of the pets table for dashboards, read from summary tables so their cost depends on the
+         * number of groups and not on the number of pets. Projection, selection and sort order are ignored.
+         * <ul>
+         * <li>{@link #STATS_GENDER_URI}: one row per gender with its {@link #COLUMN_COUNT} and {@link #COLUMN_AVG_WEIGHT}</li>
+         * <li>{@link #STATS_BREEDS_URI}: {@link #COLUMN_PET_BREED} and {@link #COLUMN_COUNT}, most common breeds first,
+         * honours {@link #QUERY_PARAMETER_LIMIT}. Pets without a breed are counted under a null breed</li>
+         * <li>{@link #STATS_WEIGHT_URI}: one row with the {@link #COLUMN_COUNT}, {@link #COLUMN_MIN_WEIGHT},
+         * {@link #COLUMN_MAX_WEIGHT} and {@link #COLUMN_AVG_WEIGHT} of all pets (null weights when there are none)</li>
+         * </ul>
+         */
+        public static final Uri STATS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_STATS);
+        public static final Uri STATS_GENDER_URI = Uri.withAppendedPath(STATS_URI, "gender");
+        public static final Uri STATS_BREEDS_URI = Uri.withAppendedPath(STATS_URI, "breeds");
+        public static final Uri STATS_WEIGHT_URI = Uri.withAppendedPath(STATS_URI, "weight");
+
+        /**
+         * The MIME type of the stats uris
+         */
+        public static final String CONTENT_STATS_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /**
+         * Columns of the stats
+         */
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_MIN_WEIGHT = "min_weight";
+        public static final String COLUMN_MAX_WEIGHT = "max_weight";
+        public static final String COLUMN_AVG_WEIGHT = "avg_weight";
+
+        /**
+         * Builds the uri of the limit most common breeds.
+         */
+        public static Uri buildTopBreedsUri(int limit) {
+            return STATS_BREEDS_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * The {@link #CHANGES_URI} returns the pets inserted, updated or deleted after the
+         * {@link #QUERY_PARAMETER_SINCE} version in version order, deleted pets with {@link #COLUMN_PET_DELETED} set to 1.
+         * It honours {@link #QUERY_PARAMETER_LIMIT}; reading on from the last version returned gets the next batch.
+         * A mirror starts with the pets of the {@link #CONTENT_URI} and their highest {@link #COLUMN_PET_VERSION}.
+         * <p>
+         * Deleted pets are kept for a while only, and deleting all pets keeps none. When deletions since the version
+         * are gone the extras of the cursor hold {@link #EXTRA_RESYNC} true and the mirror has to start over.
+         */
+        public static final Uri CHANGES_URI = Uri.withAppendedPath(CONTENT_URI, PATH_CHANGES);
+        public static final String QUERY_PARAMETER_SINCE = "since";
+        public static final String EXTRA_RESYNC = "resync";
+
+        /**
+         * Builds the uri of at most limit changes after the given version.
+         */
+        public static Uri buildChangesUri(long since, int limit) {
+            return CHANGES_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(since))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * The photo of a pet and its thumbnail are opened as files (ContentResolver.openInputStream()),
+         * both are JPEGs. Opening them fails with a FileNotFoundException when the pet has no photo.
+         * The thumbnail fits in {@link #THUMBNAIL_SIZE} pixels and is made once, then read from a disk cache.
+         */
+        public static final String PHOTO_TYPE = "image/jpeg";
+        public static final int THUMBNAIL_SIZE = 192;
+
+        /**
+         * Builds the uri of the photo of a pet.
+         */
+        public static Uri buildPhotoUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon().appendPath(PATH_PHOTO).build();
+        }
+
+        /**
+         * Builds the uri of the thumbnail of a pet.
+         */
+        public static Uri buildThumbnailUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon().appendPath(PATH_THUMBNAIL).build();
+        }
+
+        /**
+         * Builds the uri for one page of pets. Pass -1 as afterId for the first page.
+         */
+        public static Uri buildPageUri(int limit, long afterId) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit));
+            if (afterId != -1)
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+            return builder.build();
+        }
+
+        /**
+         * Builds the uri for the page of every pet after afterId up to and including throughId.
+         * Pass -1 as afterId for the first page.
+         */
+        public static Uri buildBoundedPageUri(long afterId, long throughId) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_THROUGH_ID, String.valueOf(throughId));
+            if (afterId != -1)
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+            return builder.build();
+        }
+
         public static final String TABLE_NAME = "pets";
         public static final String _ID = "_id";
         public static final String COLUMN_PET_NAME = "name";
@@ -37,6 +235,30 @@ public class PetContract {
         public static final String COLUMN_PET_GENDER = "gender";
         public static final String COLUMN_PET_WEIGHT = "weight";
 
+        /**
+         * _id of the breed of the pet in the {@link BreedEntry#CONTENT_URI}, null when it has none.
+         * The pets still come with their {@link #COLUMN_PET_BREED} as text, a list can read the id
+         * instead and look the name up once per breed
+         */
+        public static final String COLUMN_PET_BREED_ID = "breed_id";
+
+        /**
+         * Version of the pet, increasing over every change of every pet, and the time of its last change in milliseconds
+         */
+        public static final String COLUMN_PET_VERSION = "version";
+        public static final String COLUMN_PET_UPDATED_AT = "updated_at";
+
+        /**
+         * File name of the photo of the pet, null when it has none. A new photo gets a new name, so the name
+         * tells whether a cached thumbnail is still the right one. Read the photo through {@link #buildPhotoUri}
+         */
+        public static final String COLUMN_PET_PHOTO = "photo";
+
+        /**
+         * 1 for a deleted pet in the {@link #CHANGES_URI}, 0 otherwise
+         */
+        public static final String COLUMN_PET_DELETED = "deleted";
+
         /*
         *Possible Values for the gender of the Dog
          */
@@ -54,4 +276,70 @@ public class PetContract {
 
 
     }
+
+    /**
+     * The journal of the changes to the pets, oldest first. Its {@link #CONTENT_URI} returns the entries after
+     * {@link #QUERY_PARAMETER_SINCE} (a {@link #COLUMN_SEQ}, 0 for all of them), so a consumer can keep the last
+     * seq it saw and read only what changed since. It honours {@link PetEntry#QUERY_PARAMETER_LIMIT}.
+     * Only the latest entries are kept: when the first entry returned is more than one past the since value,
+     * entries were dropped and the consumer has to read the pets again.
+     */
+    public static abstract class JournalEntry {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_JOURNAL);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_JOURNAL;
+
+        public static final String QUERY_PARAMETER_SINCE = "since";
+
+        /**
+         * Builds the uri of at most limit entries after the given seq.
+         */
+        public static Uri buildSinceUri(long since, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(since))
+                    .appendQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Columns of an entry: its increasing sequence number, the _id of the pet, the operation
+         * and the time of the change in milliseconds
+         */
+        public static final String COLUMN_SEQ = "seq";
+        public static final String COLUMN_PET_ID = "pet_id";
+        public static final String COLUMN_OPERATION = "operation";
+        public static final String COLUMN_CHANGED_AT = "changed_at";
+
+        /**
+         * Possible values of the operation. For {@link #OPERATION_DELETE_ALL} the pet id is the
+         * highest _id deleted, every pet up to it is gone.
+         */
+        public static final int OPERATION_INSERT = 1;
+        public static final int OPERATION_UPDATE = 2;
+        public static final int OPERATION_DELETE = 3;
+        public static final int OPERATION_DELETE_ALL = 4;
+    }
+
+    /**
+     * The breeds of the pets, each name stored once. Pets are written with their breed as text and the new
+     * breeds are added on the way, so this table is only read. A breed keeps its _id for good, breeds no pet
+     * has anymore are kept too. Its {@link #CONTENT_URI} returns every breed in _id order.
+     */
+    public static abstract class BreedEntry {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_BREEDS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_BREEDS;
+
+        public static final String TABLE_NAME = "breeds";
+        public static final String _ID = "_id";
+        public static final String COLUMN_BREED_NAME = "name";
+    }
 }
@@ -1,8 +1,18 @@
 package com.example.android.pets.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.lang.reflect.InvocationTargetException;
 
 /**
  * Created by HP on 24-06-2017.
@@ -14,13 +24,189 @@ public class PetDbHelper extends SQLiteOpenHelper {
 
     private  static final String DATA_BASE_NAME = "shelter.db";
 
-    private  static final int DATA_BASE_VERSION = 1;
+    //Version 1 is the original pets table, every later version is one upgrade step in upgradeTo()
+    static final int DATA_BASE_VERSION = 12;
+
+
+    //Secondary indexes on the pets table
+    static final String INDEX_PETS_NAME = "pets_name_idx";
+    static final String INDEX_PETS_BREED = "pets_breed_idx";
+    static final String INDEX_PETS_GENDER = "pets_gender_idx";
+
+    //Full text index over the name and breed of the pets, its docid is the _id of the pet
+    static final String TABLE_PETS_FTS = "pets_fts";
+
+    //Index for the min and max weight of the stats
+    static final String INDEX_PETS_WEIGHT = "pets_weight_idx";
+
+    //Summary tables kept up to date by triggers, so the stats read one row per group instead of every pet.
+    //Pets without a breed are counted under the empty breed, a NULL key would not be unique
+    static final String TABLE_GENDER_STATS = "pets_gender_stats";
+    static final String TABLE_BREED_STATS = "pets_breed_stats";
+    static final String COLUMN_STATS_COUNT = "count";
+    static final String COLUMN_STATS_WEIGHT_SUM = "weight_sum";
+
+    //Time a pet was deleted at, NULL while the pet is live. Deleted pets stay in the table as
+    //tombstones until the purge removes them
+    static final String COLUMN_DELETED_AT = "deleted_at";
+    static final String INDEX_PETS_DELETED = "pets_deleted_idx";
+
+    //One row table holding the _id up to which every pet is deleted, so deleting all pets is a single write
+    static final String TABLE_PURGE = "pets_purge";
+    static final String COLUMN_DELETED_THROUGH = "deleted_through";
+
+    //Selection of the pets that are not deleted. The unary + keeps SQLite from using the deleted
+    //index (a full index before Lollipop) and the primary key for these tests, so the name, breed
+    //and gender indexes stay usable. The _id is qualified by the table, the live pets view joins
+    //the breeds which have an _id too
+    static final String LIVE_PETS_SELECTION = "+" + COLUMN_DELETED_AT + " IS NULL AND +"
+            + PetContract.PetEntry.TABLE_NAME + "." + PetContract.PetEntry._ID
+            + " > (SELECT " + COLUMN_DELETED_THROUGH + " FROM " + TABLE_PURGE + ")";
+
+    //The pets that are not deleted, everything that reads pets goes through this view.
+    //It joins the breeds, so readers still see the breed of a pet as text
+    static final String VIEW_LIVE_PETS = "live_pets";
+
+    //Journal of the changes to the pets, appended by triggers in the transaction of the change.
+    //Updates and deletes keep the pet as it was before (name, breed, gender and weight columns)
+    static final String TABLE_JOURNAL = "pets_journal";
+    static final String INDEX_JOURNAL_PET = "pets_journal_pet_idx";
+    static final String COLUMN_JOURNAL_ORIGIN = "origin";
+    static final String COLUMN_JOURNAL_UNDONE = "undone";
+
+    //Number of journal entries kept, older ones are dropped as new ones come in
+    static final int JOURNAL_SIZE = 1000;
+
+    //One row table with the last version handed out to a pet, and the highest version of a pet removed
+    //from the table for good. A changes feed reading from before the purged version has missed deletions
+    static final String TABLE_SYNC = "pets_sync";
+    static final String COLUMN_SYNC_VERSION = "version";
+    static final String COLUMN_SYNC_PURGED_VERSION = "purged_version";
+    static final String INDEX_PETS_VERSION = "pets_version_idx";
+
+    //Breed of a pet that has none in the breed stats, breed ids start at 1
+    static final int NO_BREED_ID = 0;
+
+    //Current time in milliseconds, as SQL for the triggers and the statements writing pets
+    static final String SQL_NOW_MILLIS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    //The next version of a pet, as SQL for the statements writing a single pet
+    static final String SQL_NEXT_VERSION = "(SELECT " + COLUMN_SYNC_VERSION + " FROM " + TABLE_SYNC + ") + 1";
+
+    //Temporary table numbering from 1 the pets an update of several pets changes, each gets the version
+    //of pets_sync when the update started plus its number, see updatePets()
+    private static final String TABLE_CHANGED_PETS = "temp.pets_changed";
+    private static final String COLUMN_CHANGED_SEQ = "seq";
+    private static final String COLUMN_CHANGED_PET = "pet";
+
+    //Number of compiled statements each connection keeps around for reuse
+    private static final int STATEMENT_CACHE_SIZE = 50;
+
+    //Value of the auto_vacuum pragma in incremental mode
+    static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    //Page cache per connection in KiB (negative value for the cache_size pragma)
+    private static final int CACHE_SIZE_KB = 2048;
+
+    //The one helper of the process, shared by everything that opens the database
+    private static PetDbHelper sInstance;
+
+    /*
+    getInstance() returns the process wide helper, creating it on first use
+     */
+    public static synchronized PetDbHelper getInstance(Context context) {
+        if (sInstance == null)
+            sInstance = new PetDbHelper(context.getApplicationContext());
+        return sInstance;
+    }
 
+    /*
+    closeInstance() closes the process wide helper, the next getInstance() opens the database again.
+    The tests start every case from a new database with it
+     */
+    @VisibleForTesting
+    static synchronized void closeInstance() {
+        if (sInstance != null) {
+            sInstance.close();
+            sInstance = null;
+        }
+    }
 
-    public PetDbHelper(Context context) {
+    private PetDbHelper(Context context) {
         super(context, DATA_BASE_NAME, null, DATA_BASE_VERSION);
     }
 
+    /*
+    Configure the connection before the schema is created or upgraded
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        //Before WAL, which vacuum can not change the file under
+        setAutoVacuum(db);
+        //Write ahead logging lets the loaders read while the provider is writing
+        db.enableWriteAheadLogging();
+        tuneConnection(db);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        //onConfigure() is only called from Jelly Bean onwards
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            setAutoVacuum(db);
+            db.enableWriteAheadLogging();
+            tuneConnection(db);
+        }
+    }
+
+    /*
+    setAutoVacuum() lets the purge give the pages of deleted pets back a few at a time. The mode is database
+    wide and stored in the file, and SQLite only changes it before the first table is created, which the
+    android_metadata table of the framework always is. So a new database is vacuumed once to take it, that
+    costs nothing while it is empty. An older database keeps its free pages for new rows
+     */
+    private static void setAutoVacuum(SQLiteDatabase db) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL)
+            return;
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        boolean empty = DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE name = ?",
+                new String[] {PetContract.PetEntry.TABLE_NAME}) == 0;
+        if (empty)
+            db.execSQL("VACUUM");
+    }
+
+    /*
+    tuneConnection() sets the pragmas and the statement cache of the connection. It runs on the primary
+    connection, the one that writes; the WAL pool opens read connections next to it as the loaders need them
+     */
+    private void tuneConnection(SQLiteDatabase db) {
+        //Per connection, but only the primary connection commits so it is the only one that needs it.
+        //With WAL a NORMAL sync is still safe against corruption and skips an fsync per commit
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        //Per connection, and the read connections are the ones that scan the pets
+        execPerConnection(db, "PRAGMA cache_size = -" + CACHE_SIZE_KB);
+        //Applies to every connection of the pool
+        db.setMaxSqlCacheSize(STATEMENT_CACHE_SIZE);
+    }
+
+    /*
+    execPerConnection() runs the pragma on every connection of the pool, the ones opened later included.
+    SQLiteDatabase only offers that from Android 13 (API 33, newer than the SDK the app compiles against),
+    before it the pragma reaches the primary connection and the read connections keep the SQLite default
+     */
+    private static void execPerConnection(SQLiteDatabase db, String sql) {
+        if (Build.VERSION.SDK_INT >= 33) {
+            try {
+                SQLiteDatabase.class.getMethod("execPerConnectionSQL", String.class, Object[].class)
+                        .invoke(db, sql, null);
+                return;
+            } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+                Log.w(LOG_TAG, "Failed to run " + sql + " on every connection", e);
+            }
+        }
+        db.execSQL(sql);
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
         String SQL_CREATE_PETS_TABLE =  "CREATE TABLE " + PetContract.PetEntry.TABLE_NAME + " ("
@@ -31,10 +217,716 @@ public class PetDbHelper extends SQLiteOpenHelper {
                 + PetContract.PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);";
         db.execSQL(SQL_CREATE_PETS_TABLE);
 
+        //A fresh database starts at version 1 and goes through the same steps as an upgrade
+        onUpgrade(db, 1, DATA_BASE_VERSION);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        //Apply every upgrade step in order, SQLiteOpenHelper runs this inside one transaction
+        for (int version = oldVersion + 1; version <= newVersion; version++)
+            upgradeTo(db, version);
+    }
+
+    /*
+    addToStats() is the trigger SQL counting the pet of the given row ("new" or "old") in its groups,
+    the breed stats keyed by the breed text as they were up to version 8
+     */
+    private static String addToStats(String row) {
+        return addToStats(row, PetContract.PetEntry.COLUMN_PET_BREED,
+                "IFNULL(" + row + "." + PetContract.PetEntry.COLUMN_PET_BREED + ", '')");
+    }
+
+    /*
+    addToStats() with the breed stats keyed by the given column and value
+     */
+    private static String addToStats(String row, String breedColumn, String breed) {
+        String gender = row + "." + PetContract.PetEntry.COLUMN_PET_GENDER;
+        String weight = row + "." + PetContract.PetEntry.COLUMN_PET_WEIGHT;
+        return "INSERT OR IGNORE INTO " + TABLE_GENDER_STATS + " VALUES (" + gender + ", 0, 0); "
+                + "UPDATE " + TABLE_GENDER_STATS + " SET "
+                + COLUMN_STATS_COUNT + " = " + COLUMN_STATS_COUNT + " + 1, "
+                + COLUMN_STATS_WEIGHT_SUM + " = " + COLUMN_STATS_WEIGHT_SUM + " + " + weight
+                + " WHERE " + PetContract.PetEntry.COLUMN_PET_GENDER + " = " + gender + "; "
+                + "INSERT OR IGNORE INTO " + TABLE_BREED_STATS + " VALUES (" + breed + ", 0); "
+                + "UPDATE " + TABLE_BREED_STATS + " SET "
+                + COLUMN_STATS_COUNT + " = " + COLUMN_STATS_COUNT + " + 1"
+                + " WHERE " + breedColumn + " = " + breed + ";";
+    }
+
+    /*
+    removeFromStats() is the trigger SQL taking the pet of the given row out of its groups,
+    dropping the groups left empty
+     */
+    private static String removeFromStats(String row) {
+        return removeFromStats(row, PetContract.PetEntry.COLUMN_PET_BREED,
+                "IFNULL(" + row + "." + PetContract.PetEntry.COLUMN_PET_BREED + ", '')");
+    }
+
+    /*
+    removeFromStats() with the breed stats keyed by the given column and value
+     */
+    private static String removeFromStats(String row, String breedColumn, String breed) {
+        String gender = row + "." + PetContract.PetEntry.COLUMN_PET_GENDER;
+        String weight = row + "." + PetContract.PetEntry.COLUMN_PET_WEIGHT;
+        return "UPDATE " + TABLE_GENDER_STATS + " SET "
+                + COLUMN_STATS_COUNT + " = " + COLUMN_STATS_COUNT + " - 1, "
+                + COLUMN_STATS_WEIGHT_SUM + " = " + COLUMN_STATS_WEIGHT_SUM + " - " + weight
+                + " WHERE " + PetContract.PetEntry.COLUMN_PET_GENDER + " = " + gender + "; "
+                + "DELETE FROM " + TABLE_GENDER_STATS + " WHERE "
+                + PetContract.PetEntry.COLUMN_PET_GENDER + " = " + gender + " AND " + COLUMN_STATS_COUNT + " = 0; "
+                + "UPDATE " + TABLE_BREED_STATS + " SET "
+                + COLUMN_STATS_COUNT + " = " + COLUMN_STATS_COUNT + " - 1"
+                + " WHERE " + breedColumn + " = " + breed + "; "
+                + "DELETE FROM " + TABLE_BREED_STATS + " WHERE "
+                + breedColumn + " = " + breed + " AND " + COLUMN_STATS_COUNT + " = 0;";
+    }
+
+    /*
+    journal() is the trigger SQL appending an entry for the pet of the given row,
+    with the pet itself when withPet is true
+     */
+    private static String journal(String row, int operation, boolean withPet) {
+        return journal(row, operation, withPet, row + "." + PetContract.PetEntry.COLUMN_PET_BREED);
+    }
+
+    /*
+    journal() with the breed of the pet read through the given SQL
+     */
+    private static String journal(String row, int operation, boolean withPet, String breed) {
+        String columns = PetContract.JournalEntry.COLUMN_PET_ID + ", "
+                + PetContract.JournalEntry.COLUMN_OPERATION + ", "
+                + PetContract.JournalEntry.COLUMN_CHANGED_AT;
+        String values = row + "." + PetContract.PetEntry._ID + ", " + operation + ", " + SQL_NOW_MILLIS;
+        if (withPet) {
+            for (String column : new String[] {PetContract.PetEntry.COLUMN_PET_NAME, PetContract.PetEntry.COLUMN_PET_BREED,
+                    PetContract.PetEntry.COLUMN_PET_GENDER, PetContract.PetEntry.COLUMN_PET_WEIGHT}) {
+                columns += ", " + column;
+                values += ", " + (column.equals(PetContract.PetEntry.COLUMN_PET_BREED) ? breed : row + "." + column);
+            }
+        }
+        return "INSERT INTO " + TABLE_JOURNAL + " (" + columns + ") VALUES (" + values + ");";
+    }
+
+    /*
+    breedName() is the trigger SQL reading the breed text of the pet of the given row
+     */
+    private static String breedName(String row) {
+        return "(SELECT " + PetContract.BreedEntry.COLUMN_BREED_NAME + " FROM " + PetContract.BreedEntry.TABLE_NAME
+                + " WHERE " + PetContract.BreedEntry._ID + " = " + row + "." + PetContract.PetEntry.COLUMN_PET_BREED_ID + ")";
+    }
+
+    /*
+    breedKey() is the trigger SQL of the key of the pet of the given row in the breed stats
+     */
+    private static String breedKey(String row) {
+        return "IFNULL(" + row + "." + PetContract.PetEntry.COLUMN_PET_BREED_ID + ", " + NO_BREED_ID + ")";
+    }
+
+    /*
+    createLiveView() creates the view of the live pets with the given columns
+     */
+    private static void createLiveView(SQLiteDatabase db, String... columns) {
+        db.execSQL("CREATE VIEW " + VIEW_LIVE_PETS + " AS SELECT " + TextUtils.join(", ", columns) + " FROM "
+                + PetContract.PetEntry.TABLE_NAME + " WHERE " + LIVE_PETS_SELECTION + ";");
+    }
+
+    /*
+    createBreedLiveView() creates the view of the live pets with the breed of each pet read from the breeds
+     */
+    private static void createBreedLiveView(SQLiteDatabase db) {
+        db.execSQL("CREATE VIEW " + VIEW_LIVE_PETS + " AS SELECT "
+                + PetContract.PetEntry.TABLE_NAME + "." + PetContract.PetEntry._ID + " AS " + PetContract.PetEntry._ID + ", "
+                + PetContract.PetEntry.TABLE_NAME + "." + PetContract.PetEntry.COLUMN_PET_NAME + " AS "
+                + PetContract.PetEntry.COLUMN_PET_NAME + ", "
+                + PetContract.BreedEntry.TABLE_NAME + "." + PetContract.BreedEntry.COLUMN_BREED_NAME + " AS "
+                + PetContract.PetEntry.COLUMN_PET_BREED + ", "
+                + PetContract.PetEntry.COLUMN_PET_BREED_ID + ", "
+                + PetContract.PetEntry.COLUMN_PET_GENDER + ", "
+                + PetContract.PetEntry.COLUMN_PET_WEIGHT + ", "
+                + PetContract.PetEntry.COLUMN_PET_VERSION + ", "
+                + PetContract.PetEntry.COLUMN_PET_UPDATED_AT + ", "
+                + PetContract.PetEntry.COLUMN_PET_PHOTO + " FROM " + PetContract.PetEntry.TABLE_NAME
+                + " LEFT JOIN " + PetContract.BreedEntry.TABLE_NAME + " ON "
+                + PetContract.BreedEntry.TABLE_NAME + "." + PetContract.BreedEntry._ID + " = "
+                + PetContract.PetEntry.COLUMN_PET_BREED_ID + " WHERE " + LIVE_PETS_SELECTION + ";");
+    }
+
+    /*
+    createVersionUpdateTrigger() creates the trigger giving the next version to a pet
+    when one of the given columns changes
+     */
+    private static void createVersionUpdateTrigger(SQLiteDatabase db, String... columns) {
+        String changed = "";
+        for (String column : columns)
+            changed += (changed.isEmpty() ? "" : " OR ") + changed(column);
+        db.execSQL("CREATE TRIGGER pets_version_update AFTER UPDATE OF " + TextUtils.join(", ", columns)
+                + " ON " + PetContract.PetEntry.TABLE_NAME + " WHEN " + changed + " BEGIN " + nextVersion() + " END;");
+    }
+
+    /*
+    nextVersion() is the trigger SQL handing the next version to the new row
+     */
+    private static String nextVersion() {
+        return "UPDATE " + TABLE_SYNC + " SET " + COLUMN_SYNC_VERSION + " = " + COLUMN_SYNC_VERSION + " + 1; "
+                + "UPDATE " + PetContract.PetEntry.TABLE_NAME + " SET "
+                + PetContract.PetEntry.COLUMN_PET_VERSION + " = (SELECT " + COLUMN_SYNC_VERSION + " FROM " + TABLE_SYNC + "), "
+                + PetContract.PetEntry.COLUMN_PET_UPDATED_AT + " = " + SQL_NOW_MILLIS
+                + " WHERE " + PetContract.PetEntry._ID + " = new." + PetContract.PetEntry._ID + ";";
+    }
+
+    /*
+    changed() is the trigger SQL testing whether an update changed the column, NULLs included
+     */
+    private static String changed(String column) {
+        return "old." + column + " IS NOT new." + column;
+    }
+
+    /*
+    insertPet() inserts a pet like SQLiteDatabase.insert() and gives it the next version,
+    returns its _id or -1
+     */
+    static long insertPet(SQLiteDatabase db, ContentValues values) {
+        String columns = "";
+        String arguments = "";
+        for (String column : values.keySet()) {
+            columns += column + ", ";
+            arguments += "?, ";
+        }
+        SQLiteStatement statement = db.compileStatement("INSERT INTO " + PetContract.PetEntry.TABLE_NAME + " ("
+                + columns + PetContract.PetEntry.COLUMN_PET_VERSION + ", " + PetContract.PetEntry.COLUMN_PET_UPDATED_AT
+                + ") VALUES (" + arguments + SQL_NEXT_VERSION + ", " + SQL_NOW_MILLIS + ")");
+        try {
+            bindValues(statement, values);
+            return statement.executeInsert();
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Failed to insert a pet", e);
+            return -1;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /*
+    updatePets() updates the pets matching the where clause like SQLiteDatabase.update() and gives the next
+    versions to the ones whose columns really change, returns the number of pets matched
+     */
+    static int updatePets(SQLiteDatabase db, ContentValues values, String whereClause, String[] whereArgs) {
+        //The values are the numbered arguments ?1 to ?n, so the test for a change reuses them
+        String set = "";
+        String changed = "";
+        int index = 1;
+        for (String column : values.keySet()) {
+            set += column + " = ?" + index + ", ";
+            changed += (changed.isEmpty() ? "" : " OR ") + column + " IS NOT ?" + index;
+            index++;
+        }
+        String where = TextUtils.isEmpty(whereClause) ? "" : " AND (" + whereClause + ")";
+
+        db.beginTransaction();
+        try {
+            //Number the pets that change, they are the only ones getting a new version and time
+            db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_CHANGED_PETS + " ("
+                    + COLUMN_CHANGED_SEQ + " INTEGER PRIMARY KEY, " + COLUMN_CHANGED_PET + " INTEGER);");
+            db.execSQL("DELETE FROM " + TABLE_CHANGED_PETS + ";");
+            SQLiteStatement number = db.compileStatement("INSERT INTO " + TABLE_CHANGED_PETS + " ("
+                    + COLUMN_CHANGED_PET + ") SELECT " + PetContract.PetEntry._ID + " FROM "
+                    + PetContract.PetEntry.TABLE_NAME + " WHERE (" + changed + ")" + where
+                    + " ORDER BY " + PetContract.PetEntry._ID);
+            try {
+                bindValues(number, values);
+                bindWhereArgs(number, whereArgs, index);
+                number.executeUpdateDelete();
+            } finally {
+                number.close();
+            }
+
+            //The last version handed out is the ?n+1 argument, the where arguments follow it
+            String version = "(SELECT " + COLUMN_CHANGED_SEQ + " FROM " + TABLE_CHANGED_PETS + " WHERE "
+                    + COLUMN_CHANGED_PET + " = " + PetContract.PetEntry.TABLE_NAME + "." + PetContract.PetEntry._ID
+                    + ") + ?" + index;
+            SQLiteStatement update = db.compileStatement("UPDATE " + PetContract.PetEntry.TABLE_NAME + " SET " + set
+                    + PetContract.PetEntry.COLUMN_PET_VERSION + " = IFNULL(" + version + ", "
+                    + PetContract.PetEntry.COLUMN_PET_VERSION + "), "
+                    + PetContract.PetEntry.COLUMN_PET_UPDATED_AT + " = CASE WHEN " + changed + " THEN "
+                    + SQL_NOW_MILLIS + " ELSE " + PetContract.PetEntry.COLUMN_PET_UPDATED_AT + " END"
+                    + " WHERE 1" + where);
+            int rowsUpdated;
+            try {
+                bindValues(update, values);
+                update.bindLong(index, DatabaseUtils.longForQuery(db, "SELECT " + COLUMN_SYNC_VERSION
+                        + " FROM " + TABLE_SYNC, null));
+                bindWhereArgs(update, whereArgs, index + 1);
+                rowsUpdated = update.executeUpdateDelete();
+            } finally {
+                update.close();
+            }
+            db.setTransactionSuccessful();
+            return rowsUpdated;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /*
+    bindWhereArgs() binds the where arguments to the arguments of the statement from the given one on
+     */
+    private static void bindWhereArgs(SQLiteStatement statement, String[] whereArgs, int first) {
+        if (whereArgs != null) {
+            for (int i = 0; i < whereArgs.length; i++)
+                statement.bindString(first + i, whereArgs[i]);
+        }
+    }
+
+    /*
+    bindValues() binds the values in the order of their keys to the first arguments of the statement
+     */
+    private static void bindValues(SQLiteStatement statement, ContentValues values) {
+        int index = 1;
+        for (String column : values.keySet()) {
+            Object value = values.get(column);
+            if (value == null)
+                statement.bindNull(index);
+            else if (value instanceof Float || value instanceof Double)
+                statement.bindDouble(index, ((Number) value).doubleValue());
+            else if (value instanceof Number)
+                statement.bindLong(index, ((Number) value).longValue());
+            else if (value instanceof Boolean)
+                statement.bindLong(index, (Boolean) value ? 1 : 0);
+            else if (value instanceof byte[])
+                statement.bindBlob(index, (byte[]) value);
+            else
+                statement.bindString(index, value.toString());
+            index++;
+        }
+    }
+
+    /*
+    upgradeTo() moves the schema from version - 1 to the given version
+     */
+    static void upgradeTo(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 2:
+                //Covering index for the catalog projection (_id, name, breed) sorted by name
+                db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PETS_NAME + " ON "
+                        + PetContract.PetEntry.TABLE_NAME + " ("
+                        + PetContract.PetEntry.COLUMN_PET_NAME + ", "
+                        + PetContract.PetEntry.COLUMN_PET_BREED + ");");
+                //Indexes for the breed and gender filters
+                db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PETS_BREED + " ON "
+                        + PetContract.PetEntry.TABLE_NAME + " ("
+                        + PetContract.PetEntry.COLUMN_PET_BREED + ", "
+                        + PetContract.PetEntry.COLUMN_PET_NAME + ");");
+                db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PETS_GENDER + " ON "
+                        + PetContract.PetEntry.TABLE_NAME + " ("
+                        + PetContract.PetEntry.COLUMN_PET_GENDER + ", "
+                        + PetContract.PetEntry.COLUMN_PET_BREED + ");");
+                break;
+
+            case 3:
+                //FTS4 shadow table for search, prefix indexes need SQLite 3.7.7 (Jelly Bean)
+                String prefix = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? ", prefix=\"2,3\"" : "";
+                db.execSQL("CREATE VIRTUAL TABLE " + TABLE_PETS_FTS + " USING fts4("
+                        + PetContract.PetEntry.COLUMN_PET_NAME + ", "
+                        + PetContract.PetEntry.COLUMN_PET_BREED + prefix + ");");
+                db.execSQL("INSERT INTO " + TABLE_PETS_FTS + " (docid, "
+                        + PetContract.PetEntry.COLUMN_PET_NAME + ", "
+                        + PetContract.PetEntry.COLUMN_PET_BREED + ") SELECT "
+                        + PetContract.PetEntry._ID + ", "
+                        + PetContract.PetEntry.COLUMN_PET_NAME + ", "
+                        + PetContract.PetEntry.COLUMN_PET_BREED + " FROM "
+                        + PetContract.PetEntry.TABLE_NAME + ";");
+                //Triggers keep the shadow table in sync with every write to pets
+                db.execSQL("CREATE TRIGGER pets_fts_insert AFTER INSERT ON "
+                        + PetContract.PetEntry.TABLE_NAME + " BEGIN INSERT INTO " + TABLE_PETS_FTS + " (docid, "
+                        + PetContract.PetEntry.COLUMN_PET_NAME + ", "
+                        + PetContract.PetEntry.COLUMN_PET_BREED + ") VALUES (new."
+                        + PetContract.PetEntry._ID + ", new."
+                        + PetContract.PetEntry.COLUMN_PET_NAME + ", new."
+                        + PetContract.PetEntry.COLUMN_PET_BREED + "); END;");
+                db.execSQL("CREATE TRIGGER pets_fts_update AFTER UPDATE OF "
+                        + PetContract.PetEntry.COLUMN_PET_NAME + ", "
+                        + PetContract.PetEntry.COLUMN_PET_BREED + " ON "
+                        + PetContract.PetEntry.TABLE_NAME + " BEGIN UPDATE " + TABLE_PETS_FTS + " SET "
+                        + PetContract.PetEntry.COLUMN_PET_NAME + " = new." + PetContract.PetEntry.COLUMN_PET_NAME + ", "
+                        + PetContract.PetEntry.COLUMN_PET_BREED + " = new." + PetContract.PetEntry.COLUMN_PET_BREED
+                        + " WHERE docid = new." + PetContract.PetEntry._ID + "; END;");
+                db.execSQL("CREATE TRIGGER pets_fts_delete AFTER DELETE ON "
+                        + PetContract.PetEntry.TABLE_NAME + " BEGIN DELETE FROM " + TABLE_PETS_FTS
+                        + " WHERE docid = old." + PetContract.PetEntry._ID + "; END;");
+                break;
+
+            case 4:
+                db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PETS_WEIGHT + " ON "
+                        + PetContract.PetEntry.TABLE_NAME + " ("
+                        + PetContract.PetEntry.COLUMN_PET_WEIGHT + ");");
+                db.execSQL("CREATE TABLE " + TABLE_GENDER_STATS + " ("
+                        + PetContract.PetEntry.COLUMN_PET_GENDER + " INTEGER PRIMARY KEY, "
+                        + COLUMN_STATS_COUNT + " INTEGER NOT NULL, "
+                        + COLUMN_STATS_WEIGHT_SUM + " INTEGER NOT NULL);");
+                db.execSQL("CREATE TABLE " + TABLE_BREED_STATS + " ("
+                        + PetContract.PetEntry.COLUMN_PET_BREED + " TEXT PRIMARY KEY NOT NULL, "
+                        + COLUMN_STATS_COUNT + " INTEGER NOT NULL);");
+                db.execSQL("INSERT INTO " + TABLE_GENDER_STATS + " SELECT "
+                        + PetContract.PetEntry.COLUMN_PET_GENDER + ", COUNT(*), SUM("
+                        + PetContract.PetEntry.COLUMN_PET_WEIGHT + ") FROM "
+                        + PetContract.PetEntry.TABLE_NAME + " GROUP BY "
+                        + PetContract.PetEntry.COLUMN_PET_GENDER + ";");
+                db.execSQL("INSERT INTO " + TABLE_BREED_STATS + " SELECT IFNULL("
+                        + PetContract.PetEntry.COLUMN_PET_BREED + ", ''), COUNT(*) FROM "
+                        + PetContract.PetEntry.TABLE_NAME + " GROUP BY IFNULL("
+                        + PetContract.PetEntry.COLUMN_PET_BREED + ", '');");
+                //An update moves the pet out of its old groups and into its new ones
+                db.execSQL("CREATE TRIGGER pets_stats_insert AFTER INSERT ON "
+                        + PetContract.PetEntry.TABLE_NAME + " BEGIN " + addToStats("new") + " END;");
+                db.execSQL("CREATE TRIGGER pets_stats_update AFTER UPDATE OF "
+                        + PetContract.PetEntry.COLUMN_PET_BREED + ", "
+                        + PetContract.PetEntry.COLUMN_PET_GENDER + ", "
+                        + PetContract.PetEntry.COLUMN_PET_WEIGHT + " ON "
+                        + PetContract.PetEntry.TABLE_NAME + " BEGIN " + removeFromStats("old")
+                        + " " + addToStats("new") + " END;");
+                db.execSQL("CREATE TRIGGER pets_stats_delete AFTER DELETE ON "
+                        + PetContract.PetEntry.TABLE_NAME + " BEGIN " + removeFromStats("old") + " END;");
+                break;
+
+            case 5:
+                db.execSQL("ALTER TABLE " + PetContract.PetEntry.TABLE_NAME + " ADD COLUMN "
+                        + COLUMN_DELETED_AT + " INTEGER;");
+                db.execSQL("CREATE TABLE " + TABLE_PURGE + " (" + COLUMN_DELETED_THROUGH + " INTEGER NOT NULL);");
+                db.execSQL("INSERT INTO " + TABLE_PURGE + " VALUES (0);");
+                //Only the tombstones are indexed for the purge, partial indexes need SQLite 3.8 (Lollipop)
+                String tombstones = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                        ? " WHERE " + COLUMN_DELETED_AT + " IS NOT NULL" : "";
+                db.execSQL("CREATE INDEX " + INDEX_PETS_DELETED + " ON " + PetContract.PetEntry.TABLE_NAME
+                        + " (" + COLUMN_DELETED_AT + ")" + tombstones + ";");
+                createLiveView(db, PetContract.PetEntry._ID,
+                        PetContract.PetEntry.COLUMN_PET_NAME,
+                        PetContract.PetEntry.COLUMN_PET_BREED,
+                        PetContract.PetEntry.COLUMN_PET_GENDER,
+                        PetContract.PetEntry.COLUMN_PET_WEIGHT);
+                //A deleted pet leaves the stats and the search when it becomes a tombstone,
+                //so purging it later must not count it out a second time
+                db.execSQL("DROP TRIGGER pets_stats_update;");
+                db.execSQL("DROP TRIGGER pets_stats_delete;");
+                db.execSQL("CREATE TRIGGER pets_stats_update AFTER UPDATE OF "
+                        + PetContract.PetEntry.COLUMN_PET_BREED + ", "
+                        + PetContract.PetEntry.COLUMN_PET_GENDER + ", "
+                        + PetContract.PetEntry.COLUMN_PET_WEIGHT + " ON "
+                        + PetContract.PetEntry.TABLE_NAME + " WHEN old." + COLUMN_DELETED_AT + " IS NULL BEGIN "
+                        + removeFromStats("old") + " " + addToStats("new") + " END;");
+                db.execSQL("CREATE TRIGGER pets_stats_delete AFTER DELETE ON "
+                        + PetContract.PetEntry.TABLE_NAME + " WHEN old." + COLUMN_DELETED_AT + " IS NULL AND old."
+                        + PetContract.PetEntry._ID + " > (SELECT " + COLUMN_DELETED_THROUGH + " FROM " + TABLE_PURGE
+                        + ") BEGIN " + removeFromStats("old") + " END;");
+                db.execSQL("CREATE TRIGGER pets_tombstone AFTER UPDATE OF " + COLUMN_DELETED_AT + " ON "
+                        + PetContract.PetEntry.TABLE_NAME + " WHEN old." + COLUMN_DELETED_AT + " IS NULL AND new."
+                        + COLUMN_DELETED_AT + " IS NOT NULL BEGIN " + removeFromStats("old")
+                        + " DELETE FROM " + TABLE_PETS_FTS + " WHERE docid = old." + PetContract.PetEntry._ID + "; END;");
+                break;
+
+            case 6:
+                db.execSQL("CREATE TABLE " + TABLE_JOURNAL + " ("
+                        + PetContract.JournalEntry.COLUMN_SEQ + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + PetContract.JournalEntry.COLUMN_PET_ID + " INTEGER NOT NULL, "
+                        + PetContract.JournalEntry.COLUMN_OPERATION + " INTEGER NOT NULL, "
+                        + PetContract.JournalEntry.COLUMN_CHANGED_AT + " INTEGER NOT NULL, "
+                        + COLUMN_JOURNAL_ORIGIN + " INTEGER NOT NULL DEFAULT " + PetJournal.ORIGIN_EDIT + ", "
+                        + COLUMN_JOURNAL_UNDONE + " INTEGER NOT NULL DEFAULT 0, "
+                        + PetContract.PetEntry.COLUMN_PET_NAME + " TEXT, "
+                        + PetContract.PetEntry.COLUMN_PET_BREED + " TEXT, "
+                        + PetContract.PetEntry.COLUMN_PET_GENDER + " INTEGER, "
+                        + PetContract.PetEntry.COLUMN_PET_WEIGHT + " INTEGER);");
+                //Undo and redo look up the latest entries of one pet
+                db.execSQL("CREATE INDEX " + INDEX_JOURNAL_PET + " ON " + TABLE_JOURNAL + " ("
+                        + PetContract.JournalEntry.COLUMN_PET_ID + ", " + PetContract.JournalEntry.COLUMN_SEQ + ");");
+                db.execSQL("CREATE TRIGGER pets_journal_insert AFTER INSERT ON "
+                        + PetContract.PetEntry.TABLE_NAME + " BEGIN " + journal("new", PetContract.JournalEntry.OPERATION_INSERT, false)
+                        + " END;");
+                //Saving a pet unchanged leaves nothing to undo
+                db.execSQL("CREATE TRIGGER pets_journal_update AFTER UPDATE OF "
+                        + PetContract.PetEntry.COLUMN_PET_NAME + ", "
+                        + PetContract.PetEntry.COLUMN_PET_BREED + ", "
+                        + PetContract.PetEntry.COLUMN_PET_GENDER + ", "
+                        + PetContract.PetEntry.COLUMN_PET_WEIGHT + " ON "
+                        + PetContract.PetEntry.TABLE_NAME + " WHEN old." + COLUMN_DELETED_AT + " IS NULL AND ("
+                        + changed(PetContract.PetEntry.COLUMN_PET_NAME) + " OR "
+                        + changed(PetContract.PetEntry.COLUMN_PET_BREED) + " OR "
+                        + changed(PetContract.PetEntry.COLUMN_PET_GENDER) + " OR "
+                        + changed(PetContract.PetEntry.COLUMN_PET_WEIGHT) + ") BEGIN "
+                        + journal("old", PetContract.JournalEntry.OPERATION_UPDATE, true) + " END;");
+                db.execSQL("CREATE TRIGGER pets_journal_delete AFTER UPDATE OF " + COLUMN_DELETED_AT + " ON "
+                        + PetContract.PetEntry.TABLE_NAME + " WHEN old." + COLUMN_DELETED_AT + " IS NULL AND new."
+                        + COLUMN_DELETED_AT + " IS NOT NULL BEGIN "
+                        + journal("old", PetContract.JournalEntry.OPERATION_DELETE, true) + " END;");
+                //Deleting all pets is one entry, its pet id is the deleted through mark
+                db.execSQL("CREATE TRIGGER pets_journal_delete_all AFTER UPDATE OF " + COLUMN_DELETED_THROUGH + " ON "
+                        + TABLE_PURGE + " BEGIN INSERT INTO " + TABLE_JOURNAL + " ("
+                        + PetContract.JournalEntry.COLUMN_PET_ID + ", "
+                        + PetContract.JournalEntry.COLUMN_OPERATION + ", "
+                        + PetContract.JournalEntry.COLUMN_CHANGED_AT + ") VALUES (new." + COLUMN_DELETED_THROUGH + ", "
+                        + PetContract.JournalEntry.OPERATION_DELETE_ALL + ", " + SQL_NOW_MILLIS + "); END;");
+                //Ring buffer, every new entry drops the one JOURNAL_SIZE entries older through the primary key
+                db.execSQL("CREATE TRIGGER pets_journal_trim AFTER INSERT ON " + TABLE_JOURNAL + " BEGIN DELETE FROM "
+                        + TABLE_JOURNAL + " WHERE " + PetContract.JournalEntry.COLUMN_SEQ + " <= new."
+                        + PetContract.JournalEntry.COLUMN_SEQ + " - " + JOURNAL_SIZE + "; END;");
+                break;
+
+            case 7:
+                db.execSQL("ALTER TABLE " + PetContract.PetEntry.TABLE_NAME + " ADD COLUMN "
+                        + PetContract.PetEntry.COLUMN_PET_VERSION + " INTEGER NOT NULL DEFAULT 0;");
+                db.execSQL("ALTER TABLE " + PetContract.PetEntry.TABLE_NAME + " ADD COLUMN "
+                        + PetContract.PetEntry.COLUMN_PET_UPDATED_AT + " INTEGER;");
+                //The existing pets get versions in _id order
+                db.execSQL("UPDATE " + PetContract.PetEntry.TABLE_NAME + " SET "
+                        + PetContract.PetEntry.COLUMN_PET_VERSION + " = " + PetContract.PetEntry._ID + ", "
+                        + PetContract.PetEntry.COLUMN_PET_UPDATED_AT + " = " + SQL_NOW_MILLIS + ";");
+                db.execSQL("CREATE INDEX " + INDEX_PETS_VERSION + " ON " + PetContract.PetEntry.TABLE_NAME
+                        + " (" + PetContract.PetEntry.COLUMN_PET_VERSION + ");");
+                db.execSQL("CREATE TABLE " + TABLE_SYNC + " ("
+                        + COLUMN_SYNC_VERSION + " INTEGER NOT NULL, "
+                        + COLUMN_SYNC_PURGED_VERSION + " INTEGER NOT NULL);");
+                db.execSQL("INSERT INTO " + TABLE_SYNC + " SELECT IFNULL(MAX(" + PetContract.PetEntry._ID + "), 0), 0 FROM "
+                        + PetContract.PetEntry.TABLE_NAME + ";");
+                //The view shows the version of the pets too
+                db.execSQL("DROP VIEW " + VIEW_LIVE_PETS + ";");
+                createLiveView(db, PetContract.PetEntry._ID,
+                        PetContract.PetEntry.COLUMN_PET_NAME,
+                        PetContract.PetEntry.COLUMN_PET_BREED,
+                        PetContract.PetEntry.COLUMN_PET_GENDER,
+                        PetContract.PetEntry.COLUMN_PET_WEIGHT,
+                        PetContract.PetEntry.COLUMN_PET_VERSION,
+                        PetContract.PetEntry.COLUMN_PET_UPDATED_AT);
+                //Every insert, real update and deletion gives the pet the next version
+                db.execSQL("CREATE TRIGGER pets_version_insert AFTER INSERT ON "
+                        + PetContract.PetEntry.TABLE_NAME + " BEGIN " + nextVersion() + " END;");
+                createVersionUpdateTrigger(db, PetContract.PetEntry.COLUMN_PET_NAME,
+                        PetContract.PetEntry.COLUMN_PET_BREED,
+                        PetContract.PetEntry.COLUMN_PET_GENDER,
+                        PetContract.PetEntry.COLUMN_PET_WEIGHT,
+                        COLUMN_DELETED_AT);
+                //A pet leaving the table takes its tombstone with it
+                db.execSQL("CREATE TRIGGER pets_version_purge AFTER DELETE ON "
+                        + PetContract.PetEntry.TABLE_NAME + " WHEN old." + PetContract.PetEntry.COLUMN_PET_VERSION
+                        + " > (SELECT " + COLUMN_SYNC_PURGED_VERSION + " FROM " + TABLE_SYNC + ") BEGIN UPDATE "
+                        + TABLE_SYNC + " SET " + COLUMN_SYNC_PURGED_VERSION + " = old."
+                        + PetContract.PetEntry.COLUMN_PET_VERSION + "; END;");
+                //Deleting all pets leaves no tombstones, readers from before it have to start over
+                db.execSQL("CREATE TRIGGER pets_version_delete_all AFTER UPDATE OF " + COLUMN_DELETED_THROUGH + " ON "
+                        + TABLE_PURGE + " BEGIN UPDATE " + TABLE_SYNC + " SET "
+                        + COLUMN_SYNC_VERSION + " = " + COLUMN_SYNC_VERSION + " + 1, "
+                        + COLUMN_SYNC_PURGED_VERSION + " = " + COLUMN_SYNC_VERSION + " + 1; END;");
+                break;
+
+            case 8:
+                //File name of the photo of the pet, the photo itself is a file served by the provider
+                db.execSQL("ALTER TABLE " + PetContract.PetEntry.TABLE_NAME + " ADD COLUMN "
+                        + PetContract.PetEntry.COLUMN_PET_PHOTO + " TEXT;");
+                db.execSQL("DROP VIEW " + VIEW_LIVE_PETS + ";");
+                createLiveView(db, PetContract.PetEntry._ID,
+                        PetContract.PetEntry.COLUMN_PET_NAME,
+                        PetContract.PetEntry.COLUMN_PET_BREED,
+                        PetContract.PetEntry.COLUMN_PET_GENDER,
+                        PetContract.PetEntry.COLUMN_PET_WEIGHT,
+                        PetContract.PetEntry.COLUMN_PET_VERSION,
+                        PetContract.PetEntry.COLUMN_PET_UPDATED_AT,
+                        PetContract.PetEntry.COLUMN_PET_PHOTO);
+                //A new photo is a change of the pet for the changes feed
+                db.execSQL("DROP TRIGGER pets_version_update;");
+                createVersionUpdateTrigger(db, PetContract.PetEntry.COLUMN_PET_NAME,
+                        PetContract.PetEntry.COLUMN_PET_BREED,
+                        PetContract.PetEntry.COLUMN_PET_GENDER,
+                        PetContract.PetEntry.COLUMN_PET_WEIGHT,
+                        PetContract.PetEntry.COLUMN_PET_PHOTO,
+                        COLUMN_DELETED_AT);
+                break;
+
+            case 9:
+                //Every breed is stored once in the breeds table and the pets refer to it by id
+                db.execSQL("CREATE TABLE " + PetContract.BreedEntry.TABLE_NAME + " ("
+                        + PetContract.BreedEntry._ID + " INTEGER PRIMARY KEY, "
+                        + PetContract.BreedEntry.COLUMN_BREED_NAME + " TEXT NOT NULL UNIQUE);");
+                db.execSQL("INSERT INTO " + PetContract.BreedEntry.TABLE_NAME + " ("
+                        + PetContract.BreedEntry.COLUMN_BREED_NAME + ") SELECT DISTINCT "
+                        + PetContract.PetEntry.COLUMN_PET_BREED + " FROM " + PetContract.PetEntry.TABLE_NAME
+                        + " WHERE " + PetContract.PetEntry.COLUMN_PET_BREED + " != '' ORDER BY "
+                        + PetContract.PetEntry.COLUMN_PET_BREED + ";");
+
+                //SQLite can not drop the breed column, so the pets move to a new table with the breed id.
+                //Pets up to the deleted through mark are gone already and stay behind
+                long lastId = DatabaseUtils.longForQuery(db, "SELECT IFNULL((SELECT seq FROM sqlite_sequence WHERE name = ?), 0)",
+                        new String[] {PetContract.PetEntry.TABLE_NAME});
+                db.execSQL("DROP VIEW " + VIEW_LIVE_PETS + ";");
+                db.execSQL("CREATE TABLE pets_new ("
+                        + PetContract.PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + PetContract.PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL, "
+                        + PetContract.PetEntry.COLUMN_PET_BREED_ID + " INTEGER REFERENCES "
+                        + PetContract.BreedEntry.TABLE_NAME + " (" + PetContract.BreedEntry._ID + "), "
+                        + PetContract.PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL, "
+                        + PetContract.PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0, "
+                        + COLUMN_DELETED_AT + " INTEGER, "
+                        + PetContract.PetEntry.COLUMN_PET_VERSION + " INTEGER NOT NULL DEFAULT 0, "
+                        + PetContract.PetEntry.COLUMN_PET_UPDATED_AT + " INTEGER, "
+                        + PetContract.PetEntry.COLUMN_PET_PHOTO + " TEXT);");
+                db.execSQL("INSERT INTO pets_new SELECT "
+                        + PetContract.PetEntry.TABLE_NAME + "." + PetContract.PetEntry._ID + ", "
+                        + PetContract.PetEntry.TABLE_NAME + "." + PetContract.PetEntry.COLUMN_PET_NAME + ", "
+                        + PetContract.BreedEntry.TABLE_NAME + "." + PetContract.BreedEntry._ID + ", "
+                        + PetContract.PetEntry.COLUMN_PET_GENDER + ", "
+                        + PetContract.PetEntry.COLUMN_PET_WEIGHT + ", "
+                        + COLUMN_DELETED_AT + ", "
+                        + PetContract.PetEntry.COLUMN_PET_VERSION + ", "
+                        + PetContract.PetEntry.COLUMN_PET_UPDATED_AT + ", "
+                        + PetContract.PetEntry.COLUMN_PET_PHOTO + " FROM " + PetContract.PetEntry.TABLE_NAME
+                        + " LEFT JOIN " + PetContract.BreedEntry.TABLE_NAME + " ON "
+                        + PetContract.BreedEntry.TABLE_NAME + "." + PetContract.BreedEntry.COLUMN_BREED_NAME + " = "
+                        + PetContract.PetEntry.TABLE_NAME + "." + PetContract.PetEntry.COLUMN_PET_BREED
+                        + " WHERE " + PetContract.PetEntry.TABLE_NAME + "." + PetContract.PetEntry._ID
+                        + " > (SELECT " + COLUMN_DELETED_THROUGH + " FROM " + TABLE_PURGE + ");");
+                db.execSQL("DELETE FROM " + TABLE_PETS_FTS + " WHERE docid <= (SELECT "
+                        + COLUMN_DELETED_THROUGH + " FROM " + TABLE_PURGE + ");");
+                //Dropping the table drops its indexes and triggers too, they are made again below
+                db.execSQL("DROP TABLE " + PetContract.PetEntry.TABLE_NAME + ";");
+                db.execSQL("ALTER TABLE pets_new RENAME TO " + PetContract.PetEntry.TABLE_NAME + ";");
+                //AUTOINCREMENT must never hand out the _id of a purged pet, or one below the deleted through mark
+                db.execSQL("DELETE FROM sqlite_sequence WHERE name = ?;", new Object[] {PetContract.PetEntry.TABLE_NAME});
+                db.execSQL("INSERT INTO sqlite_sequence (name, seq) SELECT ?, MAX(?, IFNULL(MAX("
+                        + PetContract.PetEntry._ID + "), 0)) FROM " + PetContract.PetEntry.TABLE_NAME + ";",
+                        new Object[] {PetContract.PetEntry.TABLE_NAME, lastId});
+
+                db.execSQL("CREATE INDEX " + INDEX_PETS_NAME + " ON " + PetContract.PetEntry.TABLE_NAME + " ("
+                        + PetContract.PetEntry.COLUMN_PET_NAME + ", " + PetContract.PetEntry.COLUMN_PET_BREED_ID + ");");
+                db.execSQL("CREATE INDEX " + INDEX_PETS_BREED + " ON " + PetContract.PetEntry.TABLE_NAME + " ("
+                        + PetContract.PetEntry.COLUMN_PET_BREED_ID + ", " + PetContract.PetEntry.COLUMN_PET_NAME + ");");
+                db.execSQL("CREATE INDEX " + INDEX_PETS_GENDER + " ON " + PetContract.PetEntry.TABLE_NAME + " ("
+                        + PetContract.PetEntry.COLUMN_PET_GENDER + ", " + PetContract.PetEntry.COLUMN_PET_BREED_ID + ");");
+                db.execSQL("CREATE INDEX " + INDEX_PETS_WEIGHT + " ON " + PetContract.PetEntry.TABLE_NAME + " ("
+                        + PetContract.PetEntry.COLUMN_PET_WEIGHT + ");");
+                db.execSQL("CREATE INDEX " + INDEX_PETS_DELETED + " ON " + PetContract.PetEntry.TABLE_NAME
+                        + " (" + COLUMN_DELETED_AT + ")" + (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                        ? " WHERE " + COLUMN_DELETED_AT + " IS NOT NULL" : "") + ";");
+                db.execSQL("CREATE INDEX " + INDEX_PETS_VERSION + " ON " + PetContract.PetEntry.TABLE_NAME
+                        + " (" + PetContract.PetEntry.COLUMN_PET_VERSION + ");");
+
+                createBreedLiveView(db);
+
+                //The breed stats are keyed by the breed id now, pets without a breed under NO_BREED_ID
+                db.execSQL("DROP TABLE " + TABLE_BREED_STATS + ";");
+                db.execSQL("CREATE TABLE " + TABLE_BREED_STATS + " ("
+                        + PetContract.PetEntry.COLUMN_PET_BREED_ID + " INTEGER PRIMARY KEY, "
+                        + COLUMN_STATS_COUNT + " INTEGER NOT NULL);");
+                db.execSQL("INSERT INTO " + TABLE_BREED_STATS + " SELECT IFNULL("
+                        + PetContract.PetEntry.COLUMN_PET_BREED_ID + ", " + NO_BREED_ID + "), COUNT(*) FROM "
+                        + PetContract.PetEntry.TABLE_NAME + " WHERE " + COLUMN_DELETED_AT + " IS NULL GROUP BY 1;");
+
+                //The triggers of the earlier versions again, reading the breed through its id
+                db.execSQL("CREATE TRIGGER pets_fts_insert AFTER INSERT ON "
+                        + PetContract.PetEntry.TABLE_NAME + " BEGIN INSERT INTO " + TABLE_PETS_FTS + " (docid, "
+                        + PetContract.PetEntry.COLUMN_PET_NAME + ", "
+                        + PetContract.PetEntry.COLUMN_PET_BREED + ") VALUES (new."
+                        + PetContract.PetEntry._ID + ", new."
+                        + PetContract.PetEntry.COLUMN_PET_NAME + ", " + breedName("new") + "); END;");
+                db.execSQL("CREATE TRIGGER pets_fts_update AFTER UPDATE OF "
+                        + PetContract.PetEntry.COLUMN_PET_NAME + ", "
+                        + PetContract.PetEntry.COLUMN_PET_BREED_ID + " ON "
+                        + PetContract.PetEntry.TABLE_NAME + " BEGIN UPDATE " + TABLE_PETS_FTS + " SET "
+                        + PetContract.PetEntry.COLUMN_PET_NAME + " = new." + PetContract.PetEntry.COLUMN_PET_NAME + ", "
+                        + PetContract.PetEntry.COLUMN_PET_BREED + " = " + breedName("new")
+                        + " WHERE docid = new." + PetContract.PetEntry._ID + "; END;");
+                db.execSQL("CREATE TRIGGER pets_fts_delete AFTER DELETE ON "
+                        + PetContract.PetEntry.TABLE_NAME + " BEGIN DELETE FROM " + TABLE_PETS_FTS
+                        + " WHERE docid = old." + PetContract.PetEntry._ID + "; END;");
+
+                db.execSQL("CREATE TRIGGER pets_stats_insert AFTER INSERT ON " + PetContract.PetEntry.TABLE_NAME
+                        + " BEGIN " + addToStats("new", PetContract.PetEntry.COLUMN_PET_BREED_ID, breedKey("new")) + " END;");
+                db.execSQL("CREATE TRIGGER pets_stats_update AFTER UPDATE OF "
+                        + PetContract.PetEntry.COLUMN_PET_BREED_ID + ", "
+                        + PetContract.PetEntry.COLUMN_PET_GENDER + ", "
+                        + PetContract.PetEntry.COLUMN_PET_WEIGHT + " ON "
+                        + PetContract.PetEntry.TABLE_NAME + " WHEN old." + COLUMN_DELETED_AT + " IS NULL BEGIN "
+                        + removeFromStats("old", PetContract.PetEntry.COLUMN_PET_BREED_ID, breedKey("old")) + " "
+                        + addToStats("new", PetContract.PetEntry.COLUMN_PET_BREED_ID, breedKey("new")) + " END;");
+                db.execSQL("CREATE TRIGGER pets_stats_delete AFTER DELETE ON "
+                        + PetContract.PetEntry.TABLE_NAME + " WHEN old." + COLUMN_DELETED_AT + " IS NULL AND old."
+                        + PetContract.PetEntry._ID + " > (SELECT " + COLUMN_DELETED_THROUGH + " FROM " + TABLE_PURGE
+                        + ") BEGIN " + removeFromStats("old", PetContract.PetEntry.COLUMN_PET_BREED_ID, breedKey("old"))
+                        + " END;");
+                db.execSQL("CREATE TRIGGER pets_tombstone AFTER UPDATE OF " + COLUMN_DELETED_AT + " ON "
+                        + PetContract.PetEntry.TABLE_NAME + " WHEN old." + COLUMN_DELETED_AT + " IS NULL AND new."
+                        + COLUMN_DELETED_AT + " IS NOT NULL BEGIN "
+                        + removeFromStats("old", PetContract.PetEntry.COLUMN_PET_BREED_ID, breedKey("old"))
+                        + " DELETE FROM " + TABLE_PETS_FTS + " WHERE docid = old." + PetContract.PetEntry._ID + "; END;");
+
+                db.execSQL("CREATE TRIGGER pets_journal_insert AFTER INSERT ON " + PetContract.PetEntry.TABLE_NAME
+                        + " BEGIN " + journal("new", PetContract.JournalEntry.OPERATION_INSERT, false) + " END;");
+                db.execSQL("CREATE TRIGGER pets_journal_update AFTER UPDATE OF "
+                        + PetContract.PetEntry.COLUMN_PET_NAME + ", "
+                        + PetContract.PetEntry.COLUMN_PET_BREED_ID + ", "
+                        + PetContract.PetEntry.COLUMN_PET_GENDER + ", "
+                        + PetContract.PetEntry.COLUMN_PET_WEIGHT + " ON "
+                        + PetContract.PetEntry.TABLE_NAME + " WHEN old." + COLUMN_DELETED_AT + " IS NULL AND ("
+                        + changed(PetContract.PetEntry.COLUMN_PET_NAME) + " OR "
+                        + changed(PetContract.PetEntry.COLUMN_PET_BREED_ID) + " OR "
+                        + changed(PetContract.PetEntry.COLUMN_PET_GENDER) + " OR "
+                        + changed(PetContract.PetEntry.COLUMN_PET_WEIGHT) + ") BEGIN "
+                        + journal("old", PetContract.JournalEntry.OPERATION_UPDATE, true, breedName("old")) + " END;");
+                db.execSQL("CREATE TRIGGER pets_journal_delete AFTER UPDATE OF " + COLUMN_DELETED_AT + " ON "
+                        + PetContract.PetEntry.TABLE_NAME + " WHEN old." + COLUMN_DELETED_AT + " IS NULL AND new."
+                        + COLUMN_DELETED_AT + " IS NOT NULL BEGIN "
+                        + journal("old", PetContract.JournalEntry.OPERATION_DELETE, true, breedName("old")) + " END;");
+
+                db.execSQL("CREATE TRIGGER pets_version_insert AFTER INSERT ON "
+                        + PetContract.PetEntry.TABLE_NAME + " BEGIN " + nextVersion() + " END;");
+                createVersionUpdateTrigger(db, PetContract.PetEntry.COLUMN_PET_NAME,
+                        PetContract.PetEntry.COLUMN_PET_BREED_ID,
+                        PetContract.PetEntry.COLUMN_PET_GENDER,
+                        PetContract.PetEntry.COLUMN_PET_WEIGHT,
+                        PetContract.PetEntry.COLUMN_PET_PHOTO,
+                        COLUMN_DELETED_AT);
+                db.execSQL("CREATE TRIGGER pets_version_purge AFTER DELETE ON "
+                        + PetContract.PetEntry.TABLE_NAME + " WHEN old." + PetContract.PetEntry.COLUMN_PET_VERSION
+                        + " > (SELECT " + COLUMN_SYNC_PURGED_VERSION + " FROM " + TABLE_SYNC + ") BEGIN UPDATE "
+                        + TABLE_SYNC + " SET " + COLUMN_SYNC_PURGED_VERSION + " = old."
+                        + PetContract.PetEntry.COLUMN_PET_VERSION + "; END;");
+                break;
+
+            case 10:
+                //The view again with the live pets selection that no longer seeks on the deleted index
+                db.execSQL("DROP VIEW " + VIEW_LIVE_PETS + ";");
+                createBreedLiveView(db);
+                break;
+
+            case 11:
+                //Undoing a delete clears the deleted at of the tombstone, which puts the pet back
+                //in the stats and the search and journals it as inserted again
+                db.execSQL("CREATE TRIGGER pets_restore AFTER UPDATE OF " + COLUMN_DELETED_AT + " ON "
+                        + PetContract.PetEntry.TABLE_NAME + " WHEN old." + COLUMN_DELETED_AT + " IS NOT NULL AND new."
+                        + COLUMN_DELETED_AT + " IS NULL BEGIN "
+                        + addToStats("new", PetContract.PetEntry.COLUMN_PET_BREED_ID, breedKey("new"))
+                        + " INSERT INTO " + TABLE_PETS_FTS + " (docid, "
+                        + PetContract.PetEntry.COLUMN_PET_NAME + ", "
+                        + PetContract.PetEntry.COLUMN_PET_BREED + ") VALUES (new."
+                        + PetContract.PetEntry._ID + ", new."
+                        + PetContract.PetEntry.COLUMN_PET_NAME + ", " + breedName("new") + "); "
+                        + journal("new", PetContract.JournalEntry.OPERATION_INSERT, false) + " END;");
+                break;
+
+            case 12:
+                //The statements writing pets set the version and updated at of the row themselves, instead
+                //of the triggers writing the row a second time. The triggers only move pets_sync on
+                db.execSQL("DROP TRIGGER pets_version_insert;");
+                db.execSQL("DROP TRIGGER pets_version_update;");
+                db.execSQL("CREATE TRIGGER pets_version_insert AFTER INSERT ON " + PetContract.PetEntry.TABLE_NAME
+                        + " WHEN new." + PetContract.PetEntry.COLUMN_PET_VERSION + " > (SELECT " + COLUMN_SYNC_VERSION
+                        + " FROM " + TABLE_SYNC + ") BEGIN UPDATE " + TABLE_SYNC + " SET " + COLUMN_SYNC_VERSION
+                        + " = new." + PetContract.PetEntry.COLUMN_PET_VERSION + "; END;");
+                db.execSQL("CREATE TRIGGER pets_version_update AFTER UPDATE OF " + PetContract.PetEntry.COLUMN_PET_VERSION
+                        + " ON " + PetContract.PetEntry.TABLE_NAME + " WHEN new." + PetContract.PetEntry.COLUMN_PET_VERSION
+                        + " > (SELECT " + COLUMN_SYNC_VERSION + " FROM " + TABLE_SYNC + ") BEGIN UPDATE " + TABLE_SYNC
+                        + " SET " + COLUMN_SYNC_VERSION + " = new." + PetContract.PetEntry.COLUMN_PET_VERSION + "; END;");
+                break;
 
+            default:
+                throw new IllegalStateException("No upgrade step to database version " + version);
+        }
     }
 }
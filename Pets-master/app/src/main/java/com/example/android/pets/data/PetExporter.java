@@ -0,0 +1,137 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the whole pets table as CSV or NDJSON. The rows are read in small keyset chunks,
+ * so memory stays the same whatever the size of the table.
+ */
+
+public class PetExporter {
+
+    //Number of rows read from the database per chunk
+    private static final int CHUNK_SIZE = 500;
+
+    //The exported columns, in order
+    private static final String[] COLUMNS = {
+            PetContract.PetEntry._ID,
+            PetContract.PetEntry.COLUMN_PET_NAME,
+            PetContract.PetEntry.COLUMN_PET_BREED,
+            PetContract.PetEntry.COLUMN_PET_GENDER,
+            PetContract.PetEntry.COLUMN_PET_WEIGHT};
+
+    private final SQLiteDatabase mDatabase;
+    private final boolean mNdjson;
+
+    public PetExporter(SQLiteDatabase database, boolean ndjson) {
+        mDatabase = database;
+        mNdjson = ndjson;
+    }
+
+    /*
+    export() writes every pet to the writer and returns the number of pets written.
+    Each chunk is its own read, so writes that happen during a long export may show up in it
+     */
+    public int export(Writer writer) throws IOException {
+        if (!mNdjson)
+            writeCsvHeader(writer);
+
+        int rowsWritten = 0;
+        long lastId = -1;
+        String[] selectionArgs = new String[1];
+        String limit = String.valueOf(CHUNK_SIZE);
+        while (true) {
+            selectionArgs[0] = String.valueOf(lastId);
+            Cursor cursor = mDatabase.query(PetDbHelper.VIEW_LIVE_PETS, COLUMNS,
+                    PetContract.PetEntry._ID + ">?", selectionArgs, null, null,
+                    PetContract.PetEntry._ID + " ASC", limit);
+            int count;
+            try {
+                count = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    if (mNdjson)
+                        writeJsonRow(writer, cursor);
+                    else
+                        writeCsvRow(writer, cursor);
+                    lastId = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            rowsWritten += count;
+            if (count < CHUNK_SIZE)
+                break;
+        }
+        writer.flush();
+        return rowsWritten;
+    }
+
+    private static void writeCsvHeader(Writer writer) throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0)
+                writer.write(',');
+            writer.write(COLUMNS[i]);
+        }
+        writer.write('\n');
+    }
+
+    private static void writeCsvRow(Writer writer, Cursor cursor) throws IOException {
+        writer.write(Long.toString(cursor.getLong(0)));
+        writer.write(',');
+        writeCsvField(writer, cursor.getString(1));
+        writer.write(',');
+        writeCsvField(writer, cursor.getString(2));
+        writer.write(',');
+        writer.write(Integer.toString(cursor.getInt(3)));
+        writer.write(',');
+        writer.write(Integer.toString(cursor.getInt(4)));
+        writer.write('\n');
+    }
+
+    /*
+    writeCsvField() quotes a text field when it holds a separator, a quote or a line break
+     */
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null)
+            return;
+        if (value.indexOf(',') == -1 && value.indexOf('"') == -1
+                && value.indexOf('\n') == -1 && value.indexOf('\r') == -1) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private static void writeJsonRow(Writer writer, Cursor cursor) throws IOException {
+        writer.write("{\"");
+        writer.write(COLUMNS[0]);
+        writer.write("\":");
+        writer.write(Long.toString(cursor.getLong(0)));
+        writer.write(",\"");
+        writer.write(COLUMNS[1]);
+        writer.write("\":");
+        writer.write(JSONObject.quote(cursor.getString(1)));
+        writer.write(",\"");
+        writer.write(COLUMNS[2]);
+        writer.write("\":");
+        writer.write(cursor.isNull(2) ? "null" : JSONObject.quote(cursor.getString(2)));
+        writer.write(",\"");
+        writer.write(COLUMNS[3]);
+        writer.write("\":");
+        writer.write(Integer.toString(cursor.getInt(3)));
+        writer.write(",\"");
+        writer.write(COLUMNS[4]);
+        writer.write("\":");
+        writer.write(Integer.toString(cursor.getInt(4)));
+        writer.write("}\n");
+    }
+}
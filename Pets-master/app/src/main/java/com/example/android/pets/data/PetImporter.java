@@ -0,0 +1,271 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Imports pets from a CSV stream with a header line (as written by {@link PetExporter}) or from
+ * NDJSON, one JSON object per line. The input is read one record at a time and the valid rows are
+ * inserted in chunks of {@link #CHUNK_SIZE}, each chunk in its own transaction, so files of any
+ * size can be imported. Rows are checked with the same rules as the provider and invalid rows are
+ * skipped and reported.
+ */
+
+public class PetImporter {
+
+    //Number of valid rows inserted per transaction
+    public static final int CHUNK_SIZE = 500;
+
+    //Number of error messages kept for the summary, the rest are only counted
+    private static final int MAX_ERRORS = 20;
+
+    /*
+    Called after every committed chunk
+     */
+    public interface Listener {
+        void onProgress(Progress progress);
+    }
+
+    /*
+    Totals of an import. records counts every record read and committed so far, valid or not,
+    so an import started again with the same progress skips what was already done
+     */
+    public static class Progress {
+        public long records;
+        public long imported;
+        public long failed;
+        public final ArrayList<String> errors = new ArrayList<>();
+    }
+
+    private final ContentResolver mContentResolver;
+
+    public PetImporter(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    /*
+    importPets() reads the whole input, skipping the records already counted by the progress
+     */
+    public void importPets(InputStream input, Progress progress, Listener listener) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, Charset.forName("UTF-8")));
+
+        //NDJSON starts with an object, anything else is read as CSV
+        reader.mark(1);
+        int first = reader.read();
+        reader.reset();
+        RecordReader records = first == '{' ? new JsonRecordReader(reader) : new CsvRecordReader(reader);
+
+        ArrayList<ContentValues> chunk = new ArrayList<>(CHUNK_SIZE);
+        long record = 0;
+        long failed = 0;
+        ContentValues values;
+        while ((values = records.next()) != null) {
+            record++;
+            if (record <= progress.records)
+                continue;
+
+            try {
+                if (values.size() == 0)
+                    throw new IllegalArgumentException(records.error());
+                PetProvider.validatePet(values);
+                chunk.add(values);
+            } catch (IllegalArgumentException e) {
+                failed++;
+                if (progress.errors.size() < MAX_ERRORS)
+                    progress.errors.add("Row " + record + ": " + e.getMessage());
+            }
+
+            if (chunk.size() == CHUNK_SIZE) {
+                commit(chunk, record, failed, progress, listener);
+                failed = 0;
+            }
+        }
+        commit(chunk, record, failed, progress, listener);
+    }
+
+    /*
+    commit() inserts a chunk in one transaction and moves the progress past it
+     */
+    private void commit(ArrayList<ContentValues> chunk, long record, long failed, Progress progress,
+                        Listener listener) {
+        if (record <= progress.records)
+            return;
+
+        if (!chunk.isEmpty())
+            progress.imported += mContentResolver.bulkInsert(PetContract.PetEntry.CONTENT_URI,
+                    chunk.toArray(new ContentValues[chunk.size()]));
+        chunk.clear();
+
+        progress.records = record;
+        progress.failed += failed;
+        listener.onProgress(progress);
+    }
+
+    /*
+    Reads the input one record at a time as the values of a pet
+     */
+    private interface RecordReader {
+        //The next record, an empty ContentValues if it could not be read, null at the end of the input
+        ContentValues next() throws IOException;
+
+        //Why the last empty record could not be read
+        String error();
+    }
+
+    /*
+    Reads CSV records, the first one names the columns. Quoted fields may hold commas, quotes and line breaks
+     */
+    private static class CsvRecordReader implements RecordReader {
+        private final BufferedReader mReader;
+        private final StringBuilder mField = new StringBuilder();
+        private final ArrayList<String> mFields = new ArrayList<>();
+
+        //Column of each pet field in the records, -1 when the file does not have it
+        private int mNameColumn = -1;
+        private int mBreedColumn = -1;
+        private int mGenderColumn = -1;
+        private int mWeightColumn = -1;
+
+        CsvRecordReader(BufferedReader reader) throws IOException {
+            mReader = reader;
+            if (!readRecord())
+                return;
+            for (int i = 0; i < mFields.size(); i++) {
+                String column = mFields.get(i).trim();
+                if (PetContract.PetEntry.COLUMN_PET_NAME.equals(column))
+                    mNameColumn = i;
+                else if (PetContract.PetEntry.COLUMN_PET_BREED.equals(column))
+                    mBreedColumn = i;
+                else if (PetContract.PetEntry.COLUMN_PET_GENDER.equals(column))
+                    mGenderColumn = i;
+                else if (PetContract.PetEntry.COLUMN_PET_WEIGHT.equals(column))
+                    mWeightColumn = i;
+            }
+        }
+
+        @Override
+        public ContentValues next() throws IOException {
+            //Skip blank lines
+            do {
+                if (!readRecord())
+                    return null;
+            } while (mFields.size() == 1 && mFields.get(0).isEmpty());
+
+            ContentValues values = new ContentValues();
+            putField(values, PetContract.PetEntry.COLUMN_PET_NAME, mNameColumn);
+            putField(values, PetContract.PetEntry.COLUMN_PET_BREED, mBreedColumn);
+            putField(values, PetContract.PetEntry.COLUMN_PET_GENDER, mGenderColumn);
+            putField(values, PetContract.PetEntry.COLUMN_PET_WEIGHT, mWeightColumn);
+            return values;
+        }
+
+        @Override
+        public String error() {
+            return "The row has none of the pet columns";
+        }
+
+        //Empty fields are left out, so they count as missing
+        private void putField(ContentValues values, String column, int index) {
+            if (index == -1 || index >= mFields.size())
+                return;
+            String value = mFields.get(index).trim();
+            if (!value.isEmpty())
+                values.put(column, value);
+        }
+
+        //Reads the fields of the next record, false at the end of the input
+        private boolean readRecord() throws IOException {
+            mFields.clear();
+            mField.setLength(0);
+            boolean quoted = false;
+            boolean read = false;
+            int c;
+            while ((c = mReader.read()) != -1) {
+                read = true;
+                if (quoted) {
+                    if (c == '"') {
+                        //A doubled quote is a quote, a single one closes the field
+                        mReader.mark(1);
+                        if (mReader.read() == '"') {
+                            mField.append('"');
+                        } else {
+                            quoted = false;
+                            mReader.reset();
+                        }
+                    } else {
+                        mField.append((char) c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    mFields.add(mField.toString());
+                    mField.setLength(0);
+                } else if (c == '\n') {
+                    break;
+                } else if (c != '\r') {
+                    mField.append((char) c);
+                }
+            }
+            if (!read)
+                return false;
+            mFields.add(mField.toString());
+            return true;
+        }
+    }
+
+    /*
+    Reads one JSON object per line
+     */
+    private static class JsonRecordReader implements RecordReader {
+        private final BufferedReader mReader;
+        private String mError;
+
+        JsonRecordReader(BufferedReader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        public ContentValues next() throws IOException {
+            String line;
+            do {
+                line = mReader.readLine();
+                if (line == null)
+                    return null;
+            } while (line.trim().isEmpty());
+
+            ContentValues values = new ContentValues();
+            try {
+                JSONObject object = new JSONObject(line);
+                putField(values, object, PetContract.PetEntry.COLUMN_PET_NAME);
+                putField(values, object, PetContract.PetEntry.COLUMN_PET_BREED);
+                putField(values, object, PetContract.PetEntry.COLUMN_PET_GENDER);
+                putField(values, object, PetContract.PetEntry.COLUMN_PET_WEIGHT);
+                mError = "The row has none of the pet columns";
+            } catch (JSONException e) {
+                values.clear();
+                mError = "The row is not a JSON object";
+            }
+            return values;
+        }
+
+        @Override
+        public String error() {
+            return mError;
+        }
+
+        private static void putField(ContentValues values, JSONObject object, String column) throws JSONException {
+            if (object.has(column) && !object.isNull(column))
+                values.put(column, object.get(column).toString());
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Undo and redo of the changes to a pet on top of the journal table. Undoing an entry puts the pet back
+ * the way the entry saw it, which journals the pet as it was before the undo, and that entry is the one
+ * a redo puts back. Each step reads one or two entries of the pet through the journal index.
+ */
+
+class PetJournal {
+
+    //Origin of a journal entry, what caused the change it records
+    static final int ORIGIN_EDIT = 0;
+    static final int ORIGIN_UNDO = 1;
+    static final int ORIGIN_REDO = 2;
+
+    //The columns of the pet kept in an entry, in the order they are read
+    private static final String[] PET_COLUMNS = {
+            PetContract.PetEntry.COLUMN_PET_NAME,
+            PetContract.PetEntry.COLUMN_PET_BREED,
+            PetContract.PetEntry.COLUMN_PET_GENDER,
+            PetContract.PetEntry.COLUMN_PET_WEIGHT};
+
+    private static final String[] ENTRY_COLUMNS = {
+            PetContract.JournalEntry.COLUMN_SEQ,
+            PetContract.JournalEntry.COLUMN_OPERATION,
+            PetContract.PetEntry.COLUMN_PET_NAME,
+            PetContract.PetEntry.COLUMN_PET_BREED,
+            PetContract.PetEntry.COLUMN_PET_GENDER,
+            PetContract.PetEntry.COLUMN_PET_WEIGHT};
+
+    //Latest change of the pet that is not an undo and was not undone yet
+    private static final String SELECTION_UNDO = PetContract.JournalEntry.COLUMN_PET_ID + " = ? AND "
+            + PetDbHelper.COLUMN_JOURNAL_ORIGIN + " != " + ORIGIN_UNDO + " AND "
+            + PetDbHelper.COLUMN_JOURNAL_UNDONE + " = 0";
+
+    //Latest undo of the pet not redone yet, as long as the pet was not edited after it
+    private static final String SELECTION_REDO = PetContract.JournalEntry.COLUMN_PET_ID + " = ? AND "
+            + PetDbHelper.COLUMN_JOURNAL_ORIGIN + " = " + ORIGIN_UNDO + " AND "
+            + PetDbHelper.COLUMN_JOURNAL_UNDONE + " = 0 AND "
+            + PetContract.JournalEntry.COLUMN_SEQ + " > (SELECT IFNULL(MAX(" + PetContract.JournalEntry.COLUMN_SEQ
+            + "), 0) FROM " + PetDbHelper.TABLE_JOURNAL + " WHERE " + PetContract.JournalEntry.COLUMN_PET_ID
+            + " = ? AND " + PetDbHelper.COLUMN_JOURNAL_ORIGIN + " = " + ORIGIN_EDIT + ")";
+
+    private PetJournal() {
+    }
+
+    /*
+    undo() reverts the latest change of the pet, returns false if there is none.
+    Must run in a transaction
+     */
+    static boolean undo(SQLiteDatabase database, long petId) {
+        String id = String.valueOf(petId);
+        return revert(database, petId, SELECTION_UNDO, new String[] {id}, ORIGIN_UNDO);
+    }
+
+    /*
+    redo() reverts the latest undo of the pet, returns false if there is none.
+    Must run in a transaction
+     */
+    static boolean redo(SQLiteDatabase database, long petId) {
+        String id = String.valueOf(petId);
+        return revert(database, petId, SELECTION_REDO, new String[] {id, id}, ORIGIN_REDO);
+    }
+
+    /*
+    revert() puts the pet back the way the latest entry matching the selection saw it, marks that entry
+    undone and gives the entry the revert journaled the given origin
+     */
+    private static boolean revert(SQLiteDatabase database, long petId, String selection, String[] selectionArgs,
+                                  int origin) {
+        Cursor entry = database.query(PetDbHelper.TABLE_JOURNAL, ENTRY_COLUMNS, selection, selectionArgs,
+                null, null, PetContract.JournalEntry.COLUMN_SEQ + " DESC", "1");
+        try {
+            if (!entry.moveToFirst())
+                return false;
+
+            long lastSeq = lastSeq(database);
+            if (!apply(database, petId, entry))
+                return false;
+
+            //Mark the entry reverted and the new entry, if the revert changed anything, with its origin
+            ContentValues undone = new ContentValues();
+            undone.put(PetDbHelper.COLUMN_JOURNAL_UNDONE, 1);
+            database.update(PetDbHelper.TABLE_JOURNAL, undone, PetContract.JournalEntry.COLUMN_SEQ + " = ?",
+                    new String[] {String.valueOf(entry.getLong(0))});
+
+            long seq = lastSeq(database);
+            if (seq > lastSeq) {
+                ContentValues values = new ContentValues();
+                values.put(PetDbHelper.COLUMN_JOURNAL_ORIGIN, origin);
+                database.update(PetDbHelper.TABLE_JOURNAL, values, PetContract.JournalEntry.COLUMN_SEQ + " = ?",
+                        new String[] {String.valueOf(seq)});
+            }
+            return true;
+        } finally {
+            entry.close();
+        }
+    }
+
+    /*
+    apply() changes the pet back to the entry: an inserted pet is deleted again, an updated pet gets its
+    old values back and a deleted pet is restored from its tombstone
+     */
+    private static boolean apply(SQLiteDatabase database, long petId, Cursor entry) {
+        String[] whereArgs = new String[] {String.valueOf(petId)};
+        String whereLive = DatabaseUtils.concatenateWhere(PetContract.PetEntry._ID + " = ?",
+                PetDbHelper.LIVE_PETS_SELECTION);
+
+        switch (entry.getInt(1)) {
+            case PetContract.JournalEntry.OPERATION_INSERT:
+                ContentValues deleted = new ContentValues();
+                deleted.put(PetDbHelper.COLUMN_DELETED_AT, System.currentTimeMillis());
+                return PetDbHelper.updatePets(database, deleted, whereLive, whereArgs) != 0;
+
+            case PetContract.JournalEntry.OPERATION_UPDATE:
+                return PetDbHelper.updatePets(database, readPet(database, entry), whereLive,
+                        whereArgs) != 0;
+
+            case PetContract.JournalEntry.OPERATION_DELETE:
+                //Pets up to the deleted through mark are gone for good
+                long deletedThrough = DatabaseUtils.longForQuery(database, "SELECT "
+                        + PetDbHelper.COLUMN_DELETED_THROUGH + " FROM " + PetDbHelper.TABLE_PURGE, null);
+                if (petId <= deletedThrough)
+                    return false;
+
+                //Bring the tombstone back in place, with its photo. The pets_restore trigger puts it back
+                //in the stats and the search, and the changes feed sees a new version of the same row
+                ContentValues pet = readPet(database, entry);
+                pet.putNull(PetDbHelper.COLUMN_DELETED_AT);
+                if (PetDbHelper.updatePets(database, pet, PetContract.PetEntry._ID + " = ? AND "
+                        + PetDbHelper.COLUMN_DELETED_AT + " IS NOT NULL", whereArgs) != 0)
+                    return true;
+
+                //The purge removed the tombstone and its photo already, the pet comes back under its old _id
+                pet.remove(PetDbHelper.COLUMN_DELETED_AT);
+                pet.put(PetContract.PetEntry._ID, petId);
+                return PetDbHelper.insertPet(database, pet) != -1;
+
+            default:
+                return false;
+        }
+    }
+
+    /*
+    readPet() returns the pet of the entry as values of the pets table, the breed as its _id
+     */
+    private static ContentValues readPet(SQLiteDatabase database, Cursor entry) {
+        ContentValues pet = new ContentValues();
+        for (String column : PET_COLUMNS)
+            DatabaseUtils.cursorStringToContentValues(entry, column, pet);
+        return new PetBreeds(database).withBreedId(pet);
+    }
+
+    private static long lastSeq(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX(" + PetContract.JournalEntry.COLUMN_SEQ
+                + "), 0) FROM " + PetDbHelper.TABLE_JOURNAL, null);
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Set;
+
+/**
+ * The photos of the pets as files, out of the pets table so they never go through a CursorWindow.
+ * Photos are kept downsampled in the files directory under the name stored in the row. Their thumbnails
+ * are made on first use and kept in a size bounded disk cache, least recently used ones dropped first.
+ * All methods are thread safe, files are written to a temporary file and renamed into place.
+ */
+
+class PetPhotoStore {
+
+    private static final String LOG_TAG = PetPhotoStore.class.getSimpleName();
+
+    //Largest side of a stored photo in pixels, bigger images are downsampled
+    private static final int MAX_PHOTO_SIZE = 2048;
+
+    private static final int PHOTO_QUALITY = 90;
+    private static final int THUMBNAIL_QUALITY = 85;
+
+    //Size of the thumbnail cache, trimmed to three quarters of it when it grows past
+    private static final long MAX_THUMBNAIL_BYTES = 16 * 1024 * 1024;
+
+    //Photos younger than this are not orphans yet, the row pointing to them may still be written
+    private static final long ORPHAN_AGE_MS = 60 * 60 * 1000;
+
+    private final File mPhotoDir;
+    private final File mThumbnailDir;
+
+    //Bytes in the thumbnail cache, -1 until counted
+    private long mThumbnailBytes = -1;
+
+    PetPhotoStore(Context context) {
+        mPhotoDir = new File(context.getFilesDir(), "photos");
+        mThumbnailDir = new File(context.getCacheDir(), "thumbnails");
+    }
+
+    /*
+    save() reads the image at the source uri, downsamples it and stores it as a photo of the pet,
+    returns the name of the new photo
+     */
+    String save(long petId, ContentResolver resolver, Uri source) throws IOException {
+        //Read the size first, so a huge image is never decoded at full size
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(resolver, source, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            throw new IOException("Not an image " + source);
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize(options, MAX_PHOTO_SIZE);
+        Bitmap bitmap = decode(resolver, source, options);
+        if (bitmap == null)
+            throw new IOException("Failed to decode " + source);
+
+        bitmap = fit(bitmap, MAX_PHOTO_SIZE);
+        try {
+            String name = petId + "_" + System.currentTimeMillis() + ".jpg";
+            write(bitmap, new File(mPhotoDir, name), PHOTO_QUALITY);
+            return name;
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    /*
+    photo() returns the file of the photo with the given name
+     */
+    File photo(String name) {
+        return new File(mPhotoDir, name);
+    }
+
+    /*
+    thumbnail() returns the cached thumbnail of the photo, making it from the photo on a miss
+     */
+    File thumbnail(String name) throws IOException {
+        File thumbnail = new File(mThumbnailDir, name);
+        if (thumbnail.exists()) {
+            //Recently used thumbnails are the last ones trimmed
+            thumbnail.setLastModified(System.currentTimeMillis());
+            return thumbnail;
+        }
+
+        String path = photo(name).getPath();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            throw new IOException("No photo " + name);
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize(options, PetContract.PetEntry.THUMBNAIL_SIZE);
+        Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+        if (bitmap == null)
+            throw new IOException("Failed to decode " + name);
+
+        bitmap = fit(bitmap, PetContract.PetEntry.THUMBNAIL_SIZE);
+        try {
+            write(bitmap, thumbnail, THUMBNAIL_QUALITY);
+        } finally {
+            bitmap.recycle();
+        }
+        trimThumbnails(thumbnail.length());
+        return thumbnail;
+    }
+
+    /*
+    delete() removes a photo and its thumbnail
+     */
+    void delete(String name) {
+        photo(name).delete();
+        deleteThumbnail(name);
+    }
+
+    /*
+    deleteOrphans() removes the photos no pet refers to anymore, returns how many
+     */
+    int deleteOrphans(Set<String> referenced) {
+        File[] photos = mPhotoDir.listFiles();
+        if (photos == null)
+            return 0;
+
+        long orphanedBefore = System.currentTimeMillis() - ORPHAN_AGE_MS;
+        int deleted = 0;
+        for (File photo : photos) {
+            if (!referenced.contains(photo.getName()) && photo.lastModified() < orphanedBefore) {
+                delete(photo.getName());
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private synchronized void deleteThumbnail(String name) {
+        File thumbnail = new File(mThumbnailDir, name);
+        long length = thumbnail.length();
+        if (thumbnail.delete() && mThumbnailBytes != -1)
+            mThumbnailBytes -= length;
+    }
+
+    /*
+    trimThumbnails() accounts for a new thumbnail and drops the least recently used ones
+    once the cache is over its size
+     */
+    private synchronized void trimThumbnails(long added) {
+        File[] thumbnails = null;
+        if (mThumbnailBytes == -1) {
+            thumbnails = mThumbnailDir.listFiles();
+            mThumbnailBytes = 0;
+            if (thumbnails != null) {
+                for (File thumbnail : thumbnails)
+                    mThumbnailBytes += thumbnail.length();
+            }
+        } else {
+            mThumbnailBytes += added;
+        }
+        if (mThumbnailBytes <= MAX_THUMBNAIL_BYTES)
+            return;
+
+        if (thumbnails == null)
+            thumbnails = mThumbnailDir.listFiles();
+        if (thumbnails == null)
+            return;
+        Arrays.sort(thumbnails, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference == 0 ? 0 : 1);
+            }
+        });
+        for (File thumbnail : thumbnails) {
+            if (mThumbnailBytes <= MAX_THUMBNAIL_BYTES * 3 / 4)
+                break;
+            long length = thumbnail.length();
+            if (thumbnail.delete())
+                mThumbnailBytes -= length;
+        }
+        Log.v(LOG_TAG, "Thumbnail cache trimmed to " + mThumbnailBytes + " bytes");
+    }
+
+    private static Bitmap decode(ContentResolver resolver, Uri source, BitmapFactory.Options options)
+            throws IOException {
+        InputStream in = resolver.openInputStream(source);
+        if (in == null)
+            throw new IOException("Cannot open " + source);
+        try {
+            return BitmapFactory.decodeStream(new BufferedInputStream(in), null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+    sampleSize() returns the largest power of two the image can be divided by
+    while its largest side stays at least the given size
+     */
+    private static int sampleSize(BitmapFactory.Options options, int size) {
+        int largest = Math.max(options.outWidth, options.outHeight);
+        int sampleSize = 1;
+        while (largest / (sampleSize * 2) >= size)
+            sampleSize *= 2;
+        return sampleSize;
+    }
+
+    /*
+    fit() scales the bitmap down so its largest side is at most the given size, recycling the original
+     */
+    private static Bitmap fit(Bitmap bitmap, int size) {
+        int largest = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (largest <= size)
+            return bitmap;
+
+        float scale = (float) size / largest;
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+        bitmap.recycle();
+        return scaled;
+    }
+
+    /*
+    write() compresses the bitmap to a temporary file and renames it into place,
+    so a reader never sees half a file
+     */
+    private static void write(Bitmap bitmap, File file, int quality) throws IOException {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create " + dir);
+
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+            try {
+                if (!bitmap.compress(Bitmap.CompressFormat.JPEG, quality, out))
+                    throw new IOException("Failed to compress " + file);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file))
+                throw new IOException("Cannot rename to " + file);
+        } finally {
+            temp.delete();
+        }
+    }
+}
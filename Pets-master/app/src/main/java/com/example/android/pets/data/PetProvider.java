@@ -1,17 +1,41 @@
 package com.example.android.pets.data;
 
 import android.app.LoaderManager;
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+
 import static android.R.attr.id;
 import static android.R.attr.name;
 
@@ -24,6 +48,24 @@ public class PetProvider extends ContentProvider {
     //DataBase helper object
     private PetDbHelper mDbHelper;
 
+    //Number of pets kept in the row cache
+    private static final int ROW_CACHE_SIZE = 256;
+
+    //Cache of single pets in front of the database, invalidated on every write
+    private final PetRowCache mRowCache = new PetRowCache(ROW_CACHE_SIZE);
+
+    //Latency and row counts of every provider call, read through call()
+    private final PetProviderStats mStats = new PetProviderStats();
+
+    //Removes the deleted pets from the table in the background
+    private PetPurger mPurger;
+
+    //The photo files of the pets and their thumbnails
+    private PetPhotoStore mPhotoStore;
+
+    //Copy of the first page of the catalog for a cold start, rewritten after writes
+    private PetSnapshot mSnapshot;
+
     public static final String LOG_TAG = PetProvider.class.getSimpleName();
 
     //Uri matcher code for whole TAble
@@ -32,6 +74,75 @@ public class PetProvider extends ContentProvider {
     //Uri matcher code for a specific row
     private static final int PETS_ID = 101;
 
+    //Uri matcher code for the full text search
+    private static final int PETS_SEARCH = 102;
+
+    //Uri matcher code for the streamed export of the table
+    private static final int PETS_EXPORT = 103;
+
+    //Uri matcher codes for the aggregates of the table
+    private static final int PETS_STATS_GENDER = 104;
+    private static final int PETS_STATS_BREEDS = 105;
+    private static final int PETS_STATS_WEIGHT = 106;
+
+    //Uri matcher code for the journal of the changes
+    private static final int PETS_JOURNAL = 107;
+
+    //Uri matcher code for the changes feed
+    private static final int PETS_CHANGES = 108;
+
+    //Uri matcher codes for the photo of a pet and its thumbnail
+    private static final int PETS_PHOTO = 109;
+    private static final int PETS_THUMBNAIL = 110;
+
+    //Uri matcher code for the breeds
+    private static final int PETS_BREEDS = 111;
+
+    //Insert statement compiled once and bound for every new pet. Every statement writing pets
+    //stamps them with the next version and the time, see PetDbHelper.insertPet() and updatePets()
+    private static final String SQL_INSERT_PET = "INSERT INTO " + PetContract.PetEntry.TABLE_NAME + " ("
+            + PetContract.PetEntry.COLUMN_PET_NAME + ", "
+            + PetContract.PetEntry.COLUMN_PET_BREED_ID + ", "
+            + PetContract.PetEntry.COLUMN_PET_GENDER + ", "
+            + PetContract.PetEntry.COLUMN_PET_WEIGHT + ", "
+            + PetContract.PetEntry.COLUMN_PET_VERSION + ", "
+            + PetContract.PetEntry.COLUMN_PET_UPDATED_AT + ") VALUES (?, ?, ?, ?, "
+            + PetDbHelper.SQL_NEXT_VERSION + ", " + PetDbHelper.SQL_NOW_MILLIS + ")";
+
+    //Whether the update statement below changes a column of the pet, a save without changes keeps its version
+    private static final String SQL_PET_CHANGED = PetContract.PetEntry.COLUMN_PET_NAME + " IS NOT ?1 OR "
+            + PetContract.PetEntry.COLUMN_PET_BREED_ID + " IS NOT ?2 OR "
+            + PetContract.PetEntry.COLUMN_PET_GENDER + " IS NOT ?3 OR "
+            + PetContract.PetEntry.COLUMN_PET_WEIGHT + " IS NOT ?4";
+
+    //Update statement for the editor, which always writes every column of a single pet
+    private static final String SQL_UPDATE_PET = "UPDATE " + PetContract.PetEntry.TABLE_NAME + " SET "
+            + PetContract.PetEntry.COLUMN_PET_NAME + " = ?1, "
+            + PetContract.PetEntry.COLUMN_PET_BREED_ID + " = ?2, "
+            + PetContract.PetEntry.COLUMN_PET_GENDER + " = ?3, "
+            + PetContract.PetEntry.COLUMN_PET_WEIGHT + " = ?4, "
+            + PetContract.PetEntry.COLUMN_PET_VERSION + " = CASE WHEN " + SQL_PET_CHANGED + " THEN "
+            + PetDbHelper.SQL_NEXT_VERSION + " ELSE " + PetContract.PetEntry.COLUMN_PET_VERSION + " END, "
+            + PetContract.PetEntry.COLUMN_PET_UPDATED_AT + " = CASE WHEN " + SQL_PET_CHANGED + " THEN "
+            + PetDbHelper.SQL_NOW_MILLIS + " ELSE " + PetContract.PetEntry.COLUMN_PET_UPDATED_AT + " END WHERE "
+            + PetContract.PetEntry._ID + " = ?5 AND " + PetDbHelper.LIVE_PETS_SELECTION;
+
+    //Marks an int value without a default, so a missing value is an error
+    private static final int NO_DEFAULT = Integer.MIN_VALUE;
+
+    //Compiled statements, created on first use by each thread. A statement holds its bound
+    //arguments, so threads do not share them and no lock is taken around the database
+    private final ThreadLocal<SQLiteStatement> mInsertStatement = new ThreadLocal<>();
+    private final ThreadLocal<SQLiteStatement> mUpdateStatement = new ThreadLocal<>();
+
+    //Cancellation signal of the query running on the current thread, null when the caller has none
+    private final ThreadLocal<CancellationSignal> mCancellationSignal = new ThreadLocal<>();
+
+    //The pets written so far by the applyBatch() running on the current thread, null when none is.
+    //The operations then neither notify the listeners one by one nor touch the row cache, the batch
+    //invalidates them once its transaction has committed
+    private final ThreadLocal<BatchWrites> mBatchWrites = new ThreadLocal<>();
+
     //Setup UriMatcher Object
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
@@ -39,6 +150,28 @@ public class PetProvider extends ContentProvider {
     static{
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,PetContract.PATH_PETS,PETS);
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,PetContract.PATH_PETS + "/#",PETS_ID);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH,PETS_SEARCH);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,PetContract.PATH_PETS + "/" + PetContract.PATH_EXPORT,PETS_EXPORT);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,PetContract.PATH_PETS + "/" + PetContract.PATH_STATS + "/gender",PETS_STATS_GENDER);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,PetContract.PATH_PETS + "/" + PetContract.PATH_STATS + "/breeds",PETS_STATS_BREEDS);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,PetContract.PATH_PETS + "/" + PetContract.PATH_STATS + "/weight",PETS_STATS_WEIGHT);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,PetContract.PATH_PETS + "/" + PetContract.PATH_JOURNAL,PETS_JOURNAL);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,PetContract.PATH_PETS + "/" + PetContract.PATH_CHANGES,PETS_CHANGES);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,PetContract.PATH_PETS + "/#/" + PetContract.PATH_PHOTO,PETS_PHOTO);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,PetContract.PATH_PETS + "/#/" + PetContract.PATH_THUMBNAIL,PETS_THUMBNAIL);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,PetContract.PATH_PETS + "/" + PetContract.PATH_BREEDS,PETS_BREEDS);
+    }
+
+    //Maps the pet columns of a search to the pets table, since the search table has a name and breed too
+    private static final HashMap<String, String> sSearchProjectionMap = new HashMap<>();
+
+    static{
+        for (String column : new String[] {PetContract.PetEntry._ID, PetContract.PetEntry.COLUMN_PET_NAME,
+                PetContract.PetEntry.COLUMN_PET_BREED, PetContract.PetEntry.COLUMN_PET_BREED_ID,
+                PetContract.PetEntry.COLUMN_PET_GENDER,
+                PetContract.PetEntry.COLUMN_PET_WEIGHT, PetContract.PetEntry.COLUMN_PET_VERSION,
+                PetContract.PetEntry.COLUMN_PET_UPDATED_AT, PetContract.PetEntry.COLUMN_PET_PHOTO})
+            sSearchProjectionMap.put(column, PetDbHelper.VIEW_LIVE_PETS + "." + column + " AS " + column);
     }
 
     /*
@@ -46,10 +179,31 @@ public class PetProvider extends ContentProvider {
      */
     @Override
     public boolean onCreate() {
-        mDbHelper = new PetDbHelper(getContext());
+        mDbHelper = PetDbHelper.getInstance(getContext());
+
+        //Finish a purge cut short by the end of the last process
+        mPhotoStore = new PetPhotoStore(getContext());
+        mPurger = new PetPurger(mDbHelper, mPhotoStore);
+        mPurger.schedule();
+
+        mSnapshot = new PetSnapshot(getContext(), mDbHelper);
+        mSnapshot.scheduleIfMissing();
         return false;
     }
 
+    /*
+    Stops the background work of the provider, for the tests that create one per case
+     */
+    @Override
+    public void shutdown() {
+        try {
+            mPurger.shutdown();
+            mSnapshot.shutdown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /*
     Perform the query for the given Uri Use the given projection, selection, se;ection arguments and sort order
      */
@@ -57,30 +211,99 @@ public class PetProvider extends ContentProvider {
     @Override
     public Cursor query( Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
 
+        long start = System.nanoTime();
+
         //Get Readable DataBase
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
         //This cursor will hold the result of the Query
         Cursor cursor = null;
 
+        //The SQL that ran, explained if the query turns out slow (null for cached single pets)
+        SqlQuery sqlQuery = null;
+
         //Figure out if the given Uri matches with the coded Integer values
         int match = sUriMatcher.match(uri);
 
         //Performing the specific task depending on the value of match
         switch (match){
             case PETS:
-                //for PETS query the whole table Directly
-                cursor = database.query(PetContract.PetEntry.TABLE_NAME,projection,selection,selectionArgs,
-                        null,null,sortOrder);
+                //for PETS query the whole table Directly, or one page of it if a limit or a key is given
+                String limit = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_LIMIT);
+                String afterId = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_AFTER_ID);
+                String throughId = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_THROUGH_ID);
+                if (limit != null || afterId != null || throughId != null) {
+                    //Keyset pagination: the page starts after the last _id of the previous page
+                    //so SQLite seeks on the primary key instead of skipping an OFFSET
+                    if (limit != null)
+                        limit = String.valueOf(Long.parseLong(limit));
+                    if (afterId != null) {
+                        selection = DatabaseUtils.concatenateWhere(selection, PetContract.PetEntry._ID + ">?");
+                        selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                                new String[] {String.valueOf(Long.parseLong(afterId))});
+                    }
+                    //and a page followed by another one ends where the next one starts
+                    if (throughId != null) {
+                        selection = DatabaseUtils.concatenateWhere(selection, PetContract.PetEntry._ID + "<=?");
+                        selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                                new String[] {String.valueOf(Long.parseLong(throughId))});
+                    }
+                    sortOrder = PetContract.PetEntry._ID + " ASC";
+                }
+                sqlQuery = new SqlQuery(SQLiteQueryBuilder.buildQueryString(false, PetDbHelper.VIEW_LIVE_PETS,
+                        projection, selection, null, null, sortOrder, limit), selectionArgs);
+                cursor = sqlQuery.run(database, mCancellationSignal.get());
+                //A list of pets is copied into primitive columns in one pass, so the list
+                //scrolls without refilling a cursor window
+                if (PetColumnCursor.canHold(projection))
+                    cursor = PetColumnCursor.copyOf(cursor, limit == null ? 0 : Long.parseLong(limit),
+                            mCancellationSignal.get());
                 break;
 
             case PETS_ID:
-                //for specific columns of the table
-                selection = PetContract.PetEntry._ID+"=?";
-                selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))};
+                //for a single pet look in the row cache first
+                long id = ContentUris.parseId(uri);
+                cursor = mRowCache.query(id, projection);
+                if (cursor == null)
+                    cursor = queryPet(database, id, projection);
+                break;
+
+            case PETS_SEARCH:
+                //for the search go through the full text index
+                sqlQuery = buildSearchQuery(uri, projection);
+                cursor = sqlQuery.run(database, mCancellationSignal.get());
+                break;
+
+            case PETS_STATS_GENDER:
+            case PETS_STATS_BREEDS:
+            case PETS_STATS_WEIGHT:
+                //for the stats read the summary tables the triggers maintain
+                sqlQuery = buildStatsQuery(match, uri);
+                cursor = sqlQuery.run(database, mCancellationSignal.get());
+                break;
 
-                cursor = database.query(PetContract.PetEntry.TABLE_NAME,projection,selection,selectionArgs,
-                        null,null,sortOrder);
+            case PETS_JOURNAL:
+                //for the journal seek to the first entry after the since seq
+                sqlQuery = buildJournalQuery(uri, projection);
+                cursor = sqlQuery.run(database, mCancellationSignal.get());
+                break;
+
+            case PETS_BREEDS:
+                //for the breeds read the whole table, it holds one row per breed
+                sqlQuery = new SqlQuery(SQLiteQueryBuilder.buildQueryString(false, PetContract.BreedEntry.TABLE_NAME,
+                        projection, selection, null, null, PetContract.BreedEntry._ID + " ASC", null), selectionArgs);
+                cursor = sqlQuery.run(database, mCancellationSignal.get());
+                break;
+
+            case PETS_CHANGES:
+                //for the changes seek on the version index, deleted pets included
+                String sinceParameter = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_SINCE);
+                long since = sinceParameter == null ? 0 : Long.parseLong(sinceParameter);
+                sqlQuery = buildChangesQuery(uri, since);
+                cursor = sqlQuery.run(database, mCancellationSignal.get());
+                //Fill the cursor before reading the purged version, so a purge in between asks for a resync
+                fill(cursor);
+                cursor = new ChangesCursor(cursor, since < purgedVersion(database));
                 break;
 
             default:
@@ -90,11 +313,317 @@ public class PetProvider extends ContentProvider {
 
         //Set notification uri on the cursor
         //so we know what content uri the cursor was created for
-        //If the data at this uri changes then we knoe that we need to reload the cursor
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        //If the data at this uri changes then we knoe that we need to reload the cursor.
+        //A single pet watches only its own row, lists watch the table and every row below it
+        Uri notificationUri = match == PETS_ID ? petUri(ContentUris.parseId(uri)) : PetContract.PetEntry.CONTENT_URI;
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+
+        //Fill the cursor window here so its cost and size are part of the measurement
+        int rows = fill(cursor);
+        long elapsedNanos = System.nanoTime() - start;
+        mStats.record(matchName(match), PetProviderStats.OPERATION_QUERY, elapsedNanos, rows);
+        if (mStats.isSlow(elapsedNanos))
+            logSlowQuery(database, uri, selection, sortOrder, sqlQuery, elapsedNanos);
+
+        return cursor;
+    }
+
+    /*
+    Runs the query with the signal of the caller, so a loader that no longer wants the result
+    stops the query, the filling of the cursor window included
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder,
+                        CancellationSignal cancellationSignal) {
+        mCancellationSignal.set(cancellationSignal);
+        try {
+            return query(uri, projection, selection, selectionArgs, sortOrder);
+        } finally {
+            mCancellationSignal.remove();
+        }
+    }
+
+    /*
+    fill() fills the cursor window and returns the row count, closing the cursor if the query is cancelled
+     */
+    private static int fill(Cursor cursor) {
+        try {
+            return cursor.getCount();
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+    }
+
+    /*
+    A query as SQL text with its arguments
+     */
+    private static class SqlQuery {
+        final String sql;
+        final String[] args;
+
+        SqlQuery(String sql, String[] args) {
+            this.sql = sql;
+            this.args = args;
+        }
+
+        Cursor run(SQLiteDatabase database, CancellationSignal cancellationSignal) {
+            if (cancellationSignal == null)
+                return database.rawQuery(sql, args);
+            return database.rawQuery(sql, args, cancellationSignal);
+        }
+    }
+
+    /*
+    logSlowQuery() logs a query that took longer than the slow query threshold,
+    with the plan SQLite picked for it
+     */
+    private void logSlowQuery(SQLiteDatabase database, Uri uri, String selection, String sortOrder,
+                              SqlQuery sqlQuery, long elapsedNanos) {
+        StringBuilder message = new StringBuilder();
+        message.append("Slow query on ").append(uri)
+                .append(" took ").append(elapsedNanos / 1000000).append(" ms")
+                .append(", selection: ").append(selection)
+                .append(", sort order: ").append(sortOrder);
+
+        if (sqlQuery != null) {
+            message.append(", plan:");
+            Cursor plan = database.rawQuery("EXPLAIN QUERY PLAN " + sqlQuery.sql, sqlQuery.args);
+            try {
+                //The last column of each plan row is its detail, e.g. "SCAN TABLE pets"
+                while (plan.moveToNext())
+                    message.append(' ').append(plan.getString(plan.getColumnCount() - 1)).append(';');
+            } finally {
+                plan.close();
+            }
+        }
+        Log.w(LOG_TAG, message.toString());
+    }
+
+
+    /*
+    queryPet() reads a single pet from the database and puts the whole row in the row cache
+     */
+    private Cursor queryPet(SQLiteDatabase database, long id, String[] projection) {
+        String selection = PetContract.PetEntry._ID+"=?";
+        String[] selectionArgs = new String[] {String.valueOf(id)};
+
+        long generation = mRowCache.generation();
+        Object[] values = null;
+        Cursor row = database.query(PetDbHelper.VIEW_LIVE_PETS,PetRowCache.COLUMNS,selection,selectionArgs,
+                null,null,null);
+        try {
+            if (row.moveToFirst()) {
+                values = PetRowCache.read(row);
+                mRowCache.put(values, generation);
+            }
+        } finally {
+            row.close();
+        }
+
+        //Served from the row just read unless it is gone, or the projection has columns the cache does not hold
+        Cursor cursor = values == null ? null : PetRowCache.project(values, projection);
+        if (cursor == null)
+            cursor = database.query(PetDbHelper.VIEW_LIVE_PETS,projection,selection,selectionArgs,
+                    null,null,null);
         return cursor;
     }
 
+    /*
+    buildSearchQuery() looks up the pets matching the search text in the full text index,
+    pets whose name matches come before pets matching only on the breed
+     */
+    private SqlQuery buildSearchQuery(Uri uri, String[] projection) {
+
+        String match = buildMatchQuery(uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_SEARCH));
+
+        String limit = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_LIMIT);
+        if (limit != null)
+            limit = String.valueOf(Long.parseLong(limit));
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(PetDbHelper.VIEW_LIVE_PETS + " JOIN " + PetDbHelper.TABLE_PETS_FTS + " ON "
+                + PetDbHelper.VIEW_LIVE_PETS + "." + PetContract.PetEntry._ID + " = "
+                + PetDbHelper.TABLE_PETS_FTS + ".docid");
+        builder.setProjectionMap(sSearchProjectionMap);
+
+        //Nothing searchable in the text, so nothing matches
+        if (match == null)
+            return new SqlQuery(builder.buildQuery(projection, "0", null, null, null, "0"), null);
+
+        //offsets() starts with the column of the first hit, 0 for the name and 1 for the breed
+        String sortOrder = "substr(offsets(" + PetDbHelper.TABLE_PETS_FTS + "), 1, 1), "
+                + PetDbHelper.VIEW_LIVE_PETS + "." + PetContract.PetEntry.COLUMN_PET_NAME;
+
+        return new SqlQuery(builder.buildQuery(projection, PetDbHelper.TABLE_PETS_FTS + " MATCH ?",
+                null, null, sortOrder, limit), new String[] {match});
+    }
+
+    /*
+    buildStatsQuery() reads an aggregate from the summary tables. Only the min and max weight
+    come from the pets table, as two seeks on the weight index
+     */
+    private static SqlQuery buildStatsQuery(int match, Uri uri) {
+        String count = PetDbHelper.COLUMN_STATS_COUNT;
+        String avgWeight = "CAST(SUM(" + PetDbHelper.COLUMN_STATS_WEIGHT_SUM + ") AS REAL) / SUM(" + count + ")";
+
+        switch (match) {
+            case PETS_STATS_GENDER:
+                return new SqlQuery("SELECT " + PetContract.PetEntry.COLUMN_PET_GENDER + ", "
+                        + count + " AS " + PetContract.PetEntry.COLUMN_COUNT + ", "
+                        + "CAST(" + PetDbHelper.COLUMN_STATS_WEIGHT_SUM + " AS REAL) / " + count
+                        + " AS " + PetContract.PetEntry.COLUMN_AVG_WEIGHT
+                        + " FROM " + PetDbHelper.TABLE_GENDER_STATS
+                        + " ORDER BY " + PetContract.PetEntry.COLUMN_PET_GENDER, null);
+
+            case PETS_STATS_BREEDS:
+                String limit = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_LIMIT);
+                //Pets without a breed are counted under an id no breed has, so they get a null name
+                return new SqlQuery("SELECT " + PetContract.BreedEntry.TABLE_NAME + "."
+                        + PetContract.BreedEntry.COLUMN_BREED_NAME + " AS " + PetContract.PetEntry.COLUMN_PET_BREED + ", "
+                        + count + " AS " + PetContract.PetEntry.COLUMN_COUNT
+                        + " FROM " + PetDbHelper.TABLE_BREED_STATS + " LEFT JOIN " + PetContract.BreedEntry.TABLE_NAME
+                        + " ON " + PetContract.BreedEntry.TABLE_NAME + "." + PetContract.BreedEntry._ID + " = "
+                        + PetDbHelper.TABLE_BREED_STATS + "." + PetContract.PetEntry.COLUMN_PET_BREED_ID
+                        + " ORDER BY " + count + " DESC, " + PetContract.PetEntry.COLUMN_PET_BREED
+                        + (limit == null ? "" : " LIMIT " + Long.parseLong(limit)), null);
+
+            default:
+                //The weights are read from the pets table, the view would join the breeds for nothing
+                String livePets = PetContract.PetEntry.TABLE_NAME + " WHERE " + PetDbHelper.LIVE_PETS_SELECTION;
+                return new SqlQuery("SELECT "
+                        + "IFNULL((SELECT SUM(" + count + ") FROM " + PetDbHelper.TABLE_GENDER_STATS + "), 0) AS "
+                        + PetContract.PetEntry.COLUMN_COUNT + ", "
+                        + "(SELECT MIN(" + PetContract.PetEntry.COLUMN_PET_WEIGHT + ") FROM "
+                        + livePets + ") AS " + PetContract.PetEntry.COLUMN_MIN_WEIGHT + ", "
+                        + "(SELECT MAX(" + PetContract.PetEntry.COLUMN_PET_WEIGHT + ") FROM "
+                        + livePets + ") AS " + PetContract.PetEntry.COLUMN_MAX_WEIGHT + ", "
+                        + "(SELECT " + avgWeight + " FROM " + PetDbHelper.TABLE_GENDER_STATS + ") AS "
+                        + PetContract.PetEntry.COLUMN_AVG_WEIGHT, null);
+        }
+    }
+
+    /*
+    buildJournalQuery() reads the journal entries after the since seq in order
+     */
+    private static SqlQuery buildJournalQuery(Uri uri, String[] projection) {
+        String since = uri.getQueryParameter(PetContract.JournalEntry.QUERY_PARAMETER_SINCE);
+        String limit = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_LIMIT);
+        if (limit != null)
+            limit = String.valueOf(Long.parseLong(limit));
+
+        if (projection == null)
+            projection = new String[] {PetContract.JournalEntry.COLUMN_SEQ, PetContract.JournalEntry.COLUMN_PET_ID,
+                    PetContract.JournalEntry.COLUMN_OPERATION, PetContract.JournalEntry.COLUMN_CHANGED_AT};
+
+        return new SqlQuery(SQLiteQueryBuilder.buildQueryString(false, PetDbHelper.TABLE_JOURNAL, projection,
+                PetContract.JournalEntry.COLUMN_SEQ + " > ?", null, null,
+                PetContract.JournalEntry.COLUMN_SEQ + " ASC", limit),
+                new String[] {String.valueOf(since == null ? 0 : Long.parseLong(since))});
+    }
+
+    /*
+    buildChangesQuery() reads the pets changed after the since version in version order.
+    Pets below the deleted through mark are left out, their deletion forces a resync anyway
+     */
+    private static SqlQuery buildChangesQuery(Uri uri, long since) {
+        String limit = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_LIMIT);
+
+        return new SqlQuery("SELECT "
+                + PetContract.PetEntry._ID + ", "
+                + PetContract.PetEntry.COLUMN_PET_NAME + ", "
+                + "(SELECT " + PetContract.BreedEntry.COLUMN_BREED_NAME + " FROM " + PetContract.BreedEntry.TABLE_NAME
+                + " WHERE " + PetContract.BreedEntry.TABLE_NAME + "." + PetContract.BreedEntry._ID + " = "
+                + PetContract.PetEntry.COLUMN_PET_BREED_ID + ") AS " + PetContract.PetEntry.COLUMN_PET_BREED + ", "
+                + PetContract.PetEntry.COLUMN_PET_BREED_ID + ", "
+                + PetContract.PetEntry.COLUMN_PET_GENDER + ", "
+                + PetContract.PetEntry.COLUMN_PET_WEIGHT + ", "
+                + PetContract.PetEntry.COLUMN_PET_VERSION + ", "
+                + PetContract.PetEntry.COLUMN_PET_UPDATED_AT + ", "
+                + PetDbHelper.COLUMN_DELETED_AT + " IS NOT NULL AS " + PetContract.PetEntry.COLUMN_PET_DELETED
+                + " FROM " + PetContract.PetEntry.TABLE_NAME
+                + " WHERE " + PetContract.PetEntry.COLUMN_PET_VERSION + " > ? AND +" + PetContract.PetEntry._ID
+                + " > (SELECT " + PetDbHelper.COLUMN_DELETED_THROUGH + " FROM " + PetDbHelper.TABLE_PURGE + ")"
+                + " ORDER BY " + PetContract.PetEntry.COLUMN_PET_VERSION
+                + (limit == null ? "" : " LIMIT " + Long.parseLong(limit)),
+                new String[] {String.valueOf(since)});
+    }
+
+    /*
+    purgedVersion() is the highest version whose deletion is no longer in the table
+     */
+    private static long purgedVersion(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database, "SELECT " + PetDbHelper.COLUMN_SYNC_PURGED_VERSION
+                + " FROM " + PetDbHelper.TABLE_SYNC, null);
+    }
+
+    /*
+    The changes cursor, telling through its extras whether the reader has to start over
+     */
+    private static class ChangesCursor extends CursorWrapper {
+        private final Bundle mExtras = new Bundle();
+
+        ChangesCursor(Cursor cursor, boolean resync) {
+            super(cursor);
+            mExtras.putBoolean(PetContract.PetEntry.EXTRA_RESYNC, resync);
+        }
+
+        @Override
+        public Bundle getExtras() {
+            return mExtras;
+        }
+    }
+
+    /*
+    deletePets() turns the live pets matching the selection into tombstones
+     */
+    private static int deletePets(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        ContentValues values = new ContentValues();
+        values.put(PetDbHelper.COLUMN_DELETED_AT, System.currentTimeMillis());
+        return PetDbHelper.updatePets(database, values,
+                DatabaseUtils.concatenateWhere(selection, PetDbHelper.LIVE_PETS_SELECTION), selectionArgs);
+    }
+
+    /*
+    deleteAllPets() deletes every pet by moving the deleted through mark past the last _id, so it
+    costs the same whatever the size of the table. AUTOINCREMENT never hands out an _id below the mark again
+     */
+    private static int deleteAllPets(SQLiteDatabase database) {
+        database.beginTransaction();
+        try {
+            //The summary tables count the live pets
+            int rowsDeleted = (int) DatabaseUtils.longForQuery(database, "SELECT IFNULL(SUM("
+                    + PetDbHelper.COLUMN_STATS_COUNT + "), 0) FROM " + PetDbHelper.TABLE_GENDER_STATS, null);
+            database.execSQL("UPDATE " + PetDbHelper.TABLE_PURGE + " SET " + PetDbHelper.COLUMN_DELETED_THROUGH
+                    + " = (SELECT IFNULL(MAX(" + PetContract.PetEntry._ID + "), 0) FROM "
+                    + PetContract.PetEntry.TABLE_NAME + ")");
+            database.delete(PetDbHelper.TABLE_GENDER_STATS, null, null);
+            database.delete(PetDbHelper.TABLE_BREED_STATS, null, null);
+            database.setTransactionSuccessful();
+            return rowsDeleted;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /*
+    buildMatchQuery() turns the typed text into a prefix query, "gold ret" becomes "gold* ret*".
+    Everything but letters and digits is dropped so the text can not form FTS operators
+     */
+    static String buildMatchQuery(String text) {
+        if (text == null)
+            return null;
+
+        StringBuilder match = new StringBuilder();
+        for (String token : text.toLowerCase(Locale.US).split("[^\\p{L}\\p{Nd}]+")) {
+            if (token.isEmpty())
+                continue;
+            if (match.length() > 0)
+                match.append(' ');
+            match.append(token).append('*');
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
 
     /*
     Inserts new data into the provider with the given Content values
@@ -105,7 +634,11 @@ public class PetProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match){
             case PETS:
-                return insertPet(uri, contentValues);
+                long start = System.nanoTime();
+                Uri newUri = insertPet(uri, contentValues);
+                mStats.record(matchName(match), PetProviderStats.OPERATION_INSERT, System.nanoTime() - start,
+                        newUri == null ? 0 : 1);
+                return newUri;
             default:
                 throw new IllegalArgumentException("Insertion is not supported for "+uri);
         }
@@ -117,69 +650,440 @@ public class PetProvider extends ContentProvider {
 
     private Uri insertPet(Uri uri, ContentValues values) {
 
+        validatePet(values);
+
+        //Get a writable DataBase
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        //Insert the database, with the compiled statement when the values are only pet columns.
+        //A new breed is only kept when the pet is inserted
+        long id;
+        database.beginTransaction();
+        try {
+            PetBreeds breeds = new PetBreeds(database);
+            if (countPetColumns(values) == values.size()) {
+                SQLiteStatement statement = getInsertStatement(database);
+                bindPet(statement, values, breeds);
+                id = statement.executeInsert();
+            } else {
+                id = PetDbHelper.insertPet(database, breeds.withBreedId(values));
+            }
+            if (id != -1)
+                database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (id == -1){
+            Log.e(LOG_TAG, "Failed to Insert the Data " + uri);
+        return null;
+    }
+
+    //Write through the row cache
+        invalidate(id);
+
+    //Notify the listeners of the new row, list listeners get it as a descendant of the table
+        Uri newUri = petUri(id);
+        notifyChange(newUri);
+
+        return newUri;
+    }
+
+    /*
+    validatePet() checks the values of a new pet before it is inserted, the importer checks its rows with it too
+     */
+    static void validatePet(ContentValues values) {
+
         //Check if the name is not null
-        String name = values.getAsString(PetContract.PetEntry.COLUMN_PET_NAME);
-        if (name == null)
+        if (values.get(PetContract.PetEntry.COLUMN_PET_NAME) == null)
             throw new IllegalArgumentException("Pet requires a Name");
 
-        //Check if weight is not negetive
-        Integer weight = values.getAsInteger(PetContract.PetEntry.COLUMN_PET_WEIGHT);
-        if (weight < 0 && weight != null)
+        //Check if weight is not negetive, a missing weight is 0
+        int weight = getInt(values, PetContract.PetEntry.COLUMN_PET_WEIGHT, 0,
+                "The weight should be positive");
+        if (weight < 0)
             throw new IllegalArgumentException("The weight should be positive");
 
         //Check if gender is not null
-        Integer gender = values.getAsInteger(PetContract.PetEntry.COLUMN_PET_GENDER);
-        if ((gender == null) || !(PetContract.PetEntry.isValidGender(gender)))
+        int gender = getInt(values, PetContract.PetEntry.COLUMN_PET_GENDER, NO_DEFAULT,
+                "The gender is reqiured to be entered");
+        if (!PetContract.PetEntry.isValidGender(gender))
             throw new IllegalArgumentException("The gender is reqiured to be entered");
+    }
 
-        //Get a writable DataBase
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-        //Insert the database
-        long id = database.insert(PetContract.PetEntry.TABLE_NAME, null, values);
+    /*
+    getInt() reads an int value without boxing it again. A missing or null value returns the
+    default, or throws with the given message when there is no default
+     */
+    private static int getInt(ContentValues values, String key, int defaultValue, String message) {
+        Object value = values.get(key);
+        if (value == null) {
+            if (defaultValue == NO_DEFAULT)
+                throw new IllegalArgumentException(message);
+            return defaultValue;
+        }
 
-        if (id == -1){
-            Log.e(LOG_TAG, "Failed to Insert the Data " + uri);
-        return null;
+        if (value instanceof Number)
+            return ((Number) value).intValue();
+        try {
+            return Integer.parseInt(value.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(message);
+        }
     }
 
-    //Notify all the listeners that the data has changed
-        getContext().getContentResolver().notifyChange(uri, null);
+    /*
+    countPetColumns() returns how many of the four pet columns the values hold
+     */
+    private static int countPetColumns(ContentValues values) {
+        int count = 0;
+        if (values.containsKey(PetContract.PetEntry.COLUMN_PET_NAME))
+            count++;
+        if (values.containsKey(PetContract.PetEntry.COLUMN_PET_BREED))
+            count++;
+        if (values.containsKey(PetContract.PetEntry.COLUMN_PET_GENDER))
+            count++;
+        if (values.containsKey(PetContract.PetEntry.COLUMN_PET_WEIGHT))
+            count++;
+        return count;
+    }
 
-        return ContentUris.withAppendedId(uri,id);
+    private SQLiteStatement getInsertStatement(SQLiteDatabase database) {
+        SQLiteStatement statement = mInsertStatement.get();
+        if (statement == null) {
+            statement = database.compileStatement(SQL_INSERT_PET);
+            mInsertStatement.set(statement);
+        }
+        return statement;
     }
 
+    private SQLiteStatement getUpdateStatement(SQLiteDatabase database) {
+        SQLiteStatement statement = mUpdateStatement.get();
+        if (statement == null) {
+            statement = database.compileStatement(SQL_UPDATE_PET);
+            mUpdateStatement.set(statement);
+        }
+        return statement;
+    }
 
     /*
-    Delete the Data at the given selection and selection arguments
+    Inserts a batch of pets inside a single transaction using one compiled statement,
+    and notifies the listeners only once at the end
      */
     @Override
-    public int delete( Uri uri,String selection, String[] selectionArgs) {
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+
         final int match = sUriMatcher.match(uri);
+        if (match != PETS)
+            throw new IllegalArgumentException("Insertion is not supported for "+uri);
 
-        //Perform the delete on the database and get the number of rows affected
-        int rowsDeleted = database.delete(PetContract.PetEntry.TABLE_NAME,selection,selectionArgs);
+        long start = System.nanoTime();
 
-        //if one or more rows have been updated then notify all the Listeners that the uri has changed
-        if(rowsDeleted != 0)
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteStatement statement = getInsertStatement(database);
+
+        ArrayList<Long> ids = new ArrayList<>(values.length);
+        database.beginTransaction();
+        try {
+            //Each breed of the batch is looked up once
+            PetBreeds breeds = new PetBreeds(database);
+            for (ContentValues value : values) {
+                //An invalid row throws and rolls back the whole batch
+                validatePet(value);
+                bindPet(statement, value, breeds);
+                long id = statement.executeInsert();
+                if (id != -1)
+                    ids.add(id);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        int rowsInserted = ids.size();
+
+        //Write through the row cache once the pets are committed, a reader in between could cache them stale
+        if (rowsInserted != 0)
+            mRowCache.invalidate(ids);
+
+        //Notify all the listeners once for the whole batch
+        if (rowsInserted != 0)
+            notifyChange(PetContract.PetEntry.CONTENT_URI);
+
+        mStats.record(matchName(match), PetProviderStats.OPERATION_BULK_INSERT, System.nanoTime() - start,
+                rowsInserted);
+        return rowsInserted;
+    }
+
+    /*
+    bindPet() binds the values of a validated pet to the first four arguments of
+    the compiled insert or update statement, the breed as its _id
+     */
+    private void bindPet(SQLiteStatement statement, ContentValues values, PetBreeds breeds) {
+        statement.clearBindings();
+        statement.bindString(1, values.getAsString(PetContract.PetEntry.COLUMN_PET_NAME));
+
+        Long breedId = breeds.idOf(values.getAsString(PetContract.PetEntry.COLUMN_PET_BREED));
+        if (breedId == null)
+            statement.bindNull(2);
+        else
+            statement.bindLong(2, breedId);
+
+        statement.bindLong(3, getInt(values, PetContract.PetEntry.COLUMN_PET_GENDER, NO_DEFAULT,
+                "The gender is reqiured to be entered"));
+
+        //Missing weight falls back to the column default of 0
+        statement.bindLong(4, getInt(values, PetContract.PetEntry.COLUMN_PET_WEIGHT, 0,
+                "The weight should be positive"));
+    }
+
+    /*
+    Applies all the operations inside one transaction and notifies the listeners once
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ContentProviderResult[] results;
+
+        BatchWrites writes = new BatchWrites();
+        mBatchWrites.set(writes);
+        database.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mBatchWrites.set(null);
+        }
+
+        //Write through the row cache once the batch is committed. Invalidated inside the transaction,
+        //a reader could still read the old rows and cache them after the invalidation
+        if (writes.all)
+            mRowCache.invalidateAll();
+        else if (!writes.ids.isEmpty())
+            mRowCache.invalidate(writes.ids);
+
+        notifyChange(PetContract.PetEntry.CONTENT_URI);
+        return results;
+    }
+
+    /*
+    The pets written by a running applyBatch()
+     */
+    private static class BatchWrites {
+        final HashSet<Long> ids = new HashSet<>();
+
+        //Set by a write that may have touched any pet
+        boolean all;
+    }
+
+    /*
+    notifyChange() tells the listeners that the data at the uri has changed,
+    unless a batch is running in which case the batch notifies once at the end.
+    Single row changes notify pets/<id>, which reaches the observers of that pet and the
+    observers of the table, changes of several rows notify the table which reaches everyone.
+    Every change also refreshes the startup snapshot of the catalog
+     */
+    private void notifyChange(Uri uri) {
+        if (mBatchWrites.get() == null) {
             getContext().getContentResolver().notifyChange(uri, null);
+            mSnapshot.schedule();
+        }
+    }
+
+    /*
+    invalidate() drops a written pet from the row cache, or leaves it to the end of the running batch
+     */
+    private void invalidate(long id) {
+        BatchWrites writes = mBatchWrites.get();
+        if (writes == null)
+            mRowCache.invalidate(id);
+        else
+            writes.ids.add(id);
+    }
+
+    /*
+    invalidateAll() drops every pet from the row cache, or leaves it to the end of the running batch
+     */
+    private void invalidateAll() {
+        BatchWrites writes = mBatchWrites.get();
+        if (writes == null)
+            mRowCache.invalidateAll();
+        else
+            writes.all = true;
+    }
+
+    /*
+    revertPet() undoes or redoes the latest change of the pet through the journal
+     */
+    private boolean revertPet(Uri uri, boolean undo) {
+        if (sUriMatcher.match(uri) != PETS_ID)
+            throw new IllegalArgumentException("Cannot undo or redo " + uri);
+        long id = ContentUris.parseId(uri);
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        boolean changed;
+        database.beginTransaction();
+        try {
+            changed = undo ? PetJournal.undo(database, id) : PetJournal.redo(database, id);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (changed) {
+            mRowCache.invalidate(id);
+            notifyChange(petUri(id));
+            //Undoing an insert leaves a tombstone
+            mPurger.schedule();
+        }
+        return changed;
+    }
+
+    /*
+    setPhoto() stores a downsampled copy of the image at the source uri as the photo of the pet,
+    or removes the photo without a source. The photo it replaces is deleted right away
+     */
+    private boolean setPhoto(Uri uri, Uri source) {
+        if (sUriMatcher.match(uri) != PETS_ID)
+            throw new IllegalArgumentException("Cannot set the photo of " + uri);
+        long id = ContentUris.parseId(uri);
+
+        //Decode and write the file before the transaction, it can take a while
+        String name = null;
+        if (source != null) {
+            try {
+                name = mPhotoStore.save(id, getContext().getContentResolver(), source);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to read the photo " + source, e);
+                return false;
+            }
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        String selection = DatabaseUtils.concatenateWhere(PetContract.PetEntry._ID + "=?", PetDbHelper.LIVE_PETS_SELECTION);
+        String[] selectionArgs = new String[] {String.valueOf(id)};
+        String oldName = null;
+        boolean changed;
+        database.beginTransaction();
+        try {
+            Cursor cursor = database.query(PetContract.PetEntry.TABLE_NAME,
+                    new String[] {PetContract.PetEntry.COLUMN_PET_PHOTO}, selection, selectionArgs, null, null, null);
+            try {
+                if (cursor.moveToFirst())
+                    oldName = cursor.getString(0);
+            } finally {
+                cursor.close();
+            }
+
+            ContentValues values = new ContentValues();
+            values.put(PetContract.PetEntry.COLUMN_PET_PHOTO, name);
+            changed = PetDbHelper.updatePets(database, values, selection, selectionArgs) != 0;
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (!changed) {
+            //The pet is gone, so is its new photo
+            if (name != null)
+                mPhotoStore.delete(name);
+            return false;
+        }
+        if (oldName != null)
+            mPhotoStore.delete(oldName);
+
+        mRowCache.invalidate(id);
+        notifyChange(petUri(id));
+        return true;
+    }
 
+    /*
+    openPhoto() opens the photo of the pet or its thumbnail, made on the calling thread if it is not cached yet
+     */
+    private ParcelFileDescriptor openPhoto(Uri uri, boolean thumbnail) throws FileNotFoundException {
+        long start = System.nanoTime();
+        long id = Long.parseLong(uri.getPathSegments().get(1));
+
+        //The name of the photo usually comes from the row cache
+        String[] projection = new String[] {PetContract.PetEntry.COLUMN_PET_PHOTO};
+        Cursor cursor = mRowCache.query(id, projection);
+        if (cursor == null)
+            cursor = queryPet(mDbHelper.getReadableDatabase(), id, projection);
+        String name = null;
+        try {
+            if (cursor.moveToFirst())
+                name = cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+        if (name == null)
+            throw new FileNotFoundException("No photo for " + uri);
 
+        File file;
+        try {
+            file = thumbnail ? mPhotoStore.thumbnail(name) : mPhotoStore.photo(name);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to make the thumbnail of " + uri, e);
+            throw new FileNotFoundException("No thumbnail for " + uri);
+        }
+        ParcelFileDescriptor descriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        mStats.record(matchName(thumbnail ? PETS_THUMBNAIL : PETS_PHOTO), PetProviderStats.OPERATION_OPEN,
+                System.nanoTime() - start, 1);
+        return descriptor;
+    }
+
+    /*
+    petUri() returns the uri of a single pet without any query parameters
+     */
+    private static Uri petUri(long id) {
+        return ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, id);
+    }
+
+
+    /*
+    Delete the Data at the given selection and selection arguments
+     */
+    @Override
+    public int delete( Uri uri,String selection, String[] selectionArgs) {
+        long start = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
         switch(match){
 
             case PETS:
                 //Delete all the rows that match the selection and selectionArgs
-                return database.delete(PetContract.PetEntry.TABLE_NAME,selection,selectionArgs);
+                break;
 
             case PETS_ID:
                 //Delete a single row by the ID given in the URI
                 selection = PetContract.PetEntry._ID + "=?";
                 selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))};
-                return database.delete(PetContract.PetEntry.TABLE_NAME,selection,selectionArgs);
+                break;
 
             default:
                 throw new IllegalArgumentException("Deletion nt Supported for"+uri);
         }
+
+        //Mark the pets deleted and leave removing them to the purge
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsDeleted = match == PETS && selection == null
+                ? deleteAllPets(database)
+                : deletePets(database, selection, selectionArgs);
+        if (rowsDeleted != 0)
+            mPurger.schedule();
+
+        //Write through the row cache
+        if (match == PETS_ID)
+            invalidate(ContentUris.parseId(uri));
+        else
+            invalidateAll();
+
+        //if one or more rows have been deleted then notify all the Listeners that the uri has changed
+        if(rowsDeleted != 0)
+            notifyChange(match == PETS_ID ? petUri(ContentUris.parseId(uri)) : PetContract.PetEntry.CONTENT_URI);
+
+        mStats.record(matchName(match), PetProviderStats.OPERATION_DELETE, System.nanoTime() - start, rowsDeleted);
+        return rowsDeleted;
     }
 
     /*
@@ -188,10 +1092,14 @@ public class PetProvider extends ContentProvider {
     @Override
     public int update( Uri uri, ContentValues contentValues, String selection,String[] selectionArgs) {
 
+        long start = System.nanoTime();
+        int rowsUpdated;
+
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
-                return updatePets(uri, contentValues, selection, selectionArgs);
+                rowsUpdated = updatePets(PetContract.PetEntry.CONTENT_URI, contentValues, selection, selectionArgs);
+                break;
 
             case PETS_ID:
                 //For the PETS_ID case code, extract out the id from the uri
@@ -200,43 +1108,38 @@ public class PetProvider extends ContentProvider {
 
                 selection = PetContract.PetEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                return updatePets(uri, contentValues, selection, selectionArgs);
+                rowsUpdated = updatePets(petUri(ContentUris.parseId(uri)), contentValues, selection, selectionArgs);
+                break;
             default:
                 throw new IllegalArgumentException("Update not supported for "+uri );
         }
+
+        mStats.record(matchName(match), PetProviderStats.OPERATION_UPDATE, System.nanoTime() - start, rowsUpdated);
+        return rowsUpdated;
     }
 
     private int updatePets(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
-        //Get Readable DataBase
-        SQLiteDatabase database = mDbHelper.getReadableDatabase();
-
-        //This cursor will hold the result of the Query
-        Cursor cursor = null;
-
-        //Figure out if the given Uri matches with the coded Integer values
-        int match = sUriMatcher.match(uri);
 
         //Sanity check for valid name
         if(contentValues.containsKey(PetContract.PetEntry.COLUMN_PET_NAME))
         {
-            String name = contentValues.getAsString(PetContract.PetEntry.COLUMN_PET_NAME);
-                    if (name == null)
-                        throw new IllegalArgumentException("Enter a Pet Name");
+            if (contentValues.get(PetContract.PetEntry.COLUMN_PET_NAME) == null)
+                throw new IllegalArgumentException("Enter a Pet Name");
         }
 
         //Sanity Check for valid weight
         if(contentValues.containsKey(PetContract.PetEntry.COLUMN_PET_WEIGHT))
         {
-            Integer weight = contentValues.getAsInteger(PetContract.PetEntry.COLUMN_PET_WEIGHT);
-            if (weight != null && weight<0)
+            int weight = getInt(contentValues, PetContract.PetEntry.COLUMN_PET_WEIGHT, 0, "Enter a Pet Weight");
+            if (weight<0)
                 throw new IllegalArgumentException("Enter a Pet Weight");
         }
 
         //Sanity Check for valid gender
         if(contentValues.containsKey(PetContract.PetEntry.COLUMN_PET_GENDER))
         {
-            Integer gender = contentValues.getAsInteger(PetContract.PetEntry.COLUMN_PET_GENDER);
-            if((gender == null)||!(PetContract.PetEntry.isValidGender(gender)))
+            int gender = getInt(contentValues, PetContract.PetEntry.COLUMN_PET_GENDER, NO_DEFAULT, "Enter a Pet Gender");
+            if(!(PetContract.PetEntry.isValidGender(gender)))
                 throw new IllegalArgumentException("Enter a Pet Gender");
         }
 
@@ -245,18 +1148,190 @@ public class PetProvider extends ContentProvider {
             return 0;
 
         //Get the database to writing mode
-        database = mDbHelper.getWritableDatabase();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        //Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(PetContract.PetEntry.TABLE_NAME,contentValues,selection,selectionArgs);
+        //Perform the update on the database once and get the number of rows affected.
+        //A single pet with every column set goes through the compiled statement.
+        //A new breed is only kept when a pet is updated
+        boolean singlePet = sUriMatcher.match(uri) == PETS_ID;
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            if (singlePet && contentValues.size() == 4 && countPetColumns(contentValues) == 4) {
+                SQLiteStatement statement = getUpdateStatement(database);
+                bindPet(statement, contentValues, new PetBreeds(database));
+                statement.bindLong(5, ContentUris.parseId(uri));
+                rowsUpdated = statement.executeUpdateDelete();
+            } else {
+                rowsUpdated = PetDbHelper.updatePets(database, new PetBreeds(database).withBreedId(contentValues),
+                        DatabaseUtils.concatenateWhere(selection, PetDbHelper.LIVE_PETS_SELECTION), selectionArgs);
+            }
+            if (rowsUpdated != 0)
+                database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        //Write through the row cache
+        if (singlePet)
+            invalidate(ContentUris.parseId(uri));
+        else
+            invalidateAll();
 
         //if one or more rows have been updated then notify all the Listeners that the uri has changed
         if(rowsUpdated != 0)
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
+
+        return rowsUpdated;
+    }
+
+    /*
+    Opens the photo or thumbnail of a pet, or the export uri as the read end of a pipe. The rows are written
+    to the other end on a background thread while the caller reads, so the table is never held in memory
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        int match = sUriMatcher.match(uri);
+        if (match != PETS_EXPORT && match != PETS_PHOTO && match != PETS_THUMBNAIL)
+            throw new FileNotFoundException("No file for " + uri);
+        if (!"r".equals(mode))
+            throw new FileNotFoundException("The file can only be read " + uri);
+        if (match != PETS_EXPORT)
+            return openPhoto(uri, match == PETS_THUMBNAIL);
+
+        return openPipeHelper(uri, getType(uri), null, exportFormat(uri), new PipeDataWriter<String>() {
+            @Override
+            public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType, Bundle opts,
+                                        String format) {
+                long start = System.nanoTime();
+                int rowsWritten = 0;
+                Writer writer = new BufferedWriter(new OutputStreamWriter(
+                        new ParcelFileDescriptor.AutoCloseOutputStream(output), Charset.forName("UTF-8")));
+                try {
+                    PetExporter exporter = new PetExporter(mDbHelper.getReadableDatabase(),
+                            PetContract.PetEntry.FORMAT_NDJSON.equals(format));
+                    rowsWritten = exporter.export(writer);
+                } catch (IOException e) {
+                    //The reader went away before the end of the export
+                    Log.w(LOG_TAG, "Export of " + uri + " stopped", e);
+                } finally {
+                    try {
+                        writer.close();
+                    } catch (IOException e) {
+                        Log.w(LOG_TAG, "Failed to close the export of " + uri, e);
+                    }
+                }
+                mStats.record(matchName(PETS_EXPORT), PetProviderStats.OPERATION_EXPORT,
+                        System.nanoTime() - start, rowsWritten);
+            }
+        });
+    }
+
+    /*
+    Opens the export in the format matching the requested MIME type
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        if (sUriMatcher.match(uri) == PETS_EXPORT && uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_FORMAT) == null) {
+            String format = ClipDescription.compareMimeTypes(PetContract.PetEntry.NDJSON_TYPE, mimeTypeFilter)
+                    ? PetContract.PetEntry.FORMAT_NDJSON : PetContract.PetEntry.FORMAT_CSV;
+            uri = PetContract.PetEntry.buildExportUri(format);
+        }
+        return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+    }
+
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        int match = sUriMatcher.match(uri);
+        if (match == PETS_PHOTO || match == PETS_THUMBNAIL)
+            return ClipDescription.compareMimeTypes(PetContract.PetEntry.PHOTO_TYPE, mimeTypeFilter)
+                    ? new String[] {PetContract.PetEntry.PHOTO_TYPE} : null;
+        if (match != PETS_EXPORT)
+            return null;
 
-        return database.update(PetContract.PetEntry.TABLE_NAME,contentValues,selection,selectionArgs);
+        ArrayList<String> types = new ArrayList<>();
+        for (String type : new String[] {PetContract.PetEntry.CSV_TYPE, PetContract.PetEntry.NDJSON_TYPE}) {
+            if (ClipDescription.compareMimeTypes(type, mimeTypeFilter))
+                types.add(type);
+        }
+        return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+    }
+
+    /*
+    exportFormat() returns the format asked for by the export uri, CSV by default
+     */
+    private static String exportFormat(Uri uri) {
+        String format = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_FORMAT);
+        if (format == null || PetContract.PetEntry.FORMAT_CSV.equals(format))
+            return PetContract.PetEntry.FORMAT_CSV;
+        if (PetContract.PetEntry.FORMAT_NDJSON.equals(format))
+            return PetContract.PetEntry.FORMAT_NDJSON;
+        throw new IllegalArgumentException("Unknown export format " + format);
+    }
 
+    /*
+    Serves the provider stats to debug tooling, see the METHOD_ constants of PetContract
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (PetContract.METHOD_GET_STATS.equals(method)) {
+            Bundle stats = mStats.toBundle();
+            stats.putInt(PetProviderStats.KEY_ROW_CACHE_HITS, mRowCache.hitCount());
+            stats.putInt(PetProviderStats.KEY_ROW_CACHE_MISSES, mRowCache.missCount());
+            stats.putInt(PetProviderStats.KEY_ROW_CACHE_EVICTIONS, mRowCache.evictionCount());
+            return stats;
+        } else if (PetContract.METHOD_RESET_STATS.equals(method)) {
+            mStats.reset();
+            return null;
+        } else if (PetContract.METHOD_SET_SLOW_QUERY_THRESHOLD.equals(method)) {
+            mStats.setSlowQueryThresholdMs(Long.parseLong(arg));
+            return null;
+        } else if (PetContract.METHOD_UNDO.equals(method) || PetContract.METHOD_REDO.equals(method)) {
+            Bundle result = new Bundle();
+            result.putBoolean(PetContract.KEY_CHANGED, revertPet(Uri.parse(arg), PetContract.METHOD_UNDO.equals(method)));
+            return result;
+        } else if (PetContract.METHOD_SET_PHOTO.equals(method)) {
+            Uri source = extras == null ? null : (Uri) extras.getParcelable(PetContract.KEY_PHOTO_SOURCE);
+            Bundle result = new Bundle();
+            result.putBoolean(PetContract.KEY_CHANGED, setPhoto(Uri.parse(arg), source));
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
 
+    /*
+    matchName() names a uri matcher code for the stats
+     */
+    private static String matchName(int match) {
+        switch (match) {
+            case PETS:
+                return "PETS";
+            case PETS_ID:
+                return "PETS_ID";
+            case PETS_SEARCH:
+                return "PETS_SEARCH";
+            case PETS_EXPORT:
+                return "PETS_EXPORT";
+            case PETS_STATS_GENDER:
+                return "PETS_STATS_GENDER";
+            case PETS_STATS_BREEDS:
+                return "PETS_STATS_BREEDS";
+            case PETS_STATS_WEIGHT:
+                return "PETS_STATS_WEIGHT";
+            case PETS_JOURNAL:
+                return "PETS_JOURNAL";
+            case PETS_CHANGES:
+                return "PETS_CHANGES";
+            case PETS_PHOTO:
+                return "PETS_PHOTO";
+            case PETS_THUMBNAIL:
+                return "PETS_THUMBNAIL";
+            case PETS_BREEDS:
+                return "PETS_BREEDS";
+            default:
+                return "UNKNOWN";
+        }
     }
 
     /*
@@ -271,6 +1346,24 @@ public class PetProvider extends ContentProvider {
                 return PetContract.PetEntry.CONTENT_LIST_TYPE;
             case PETS_ID:
                 return PetContract.PetEntry.CONTENT_ITEM_TYPE;
+            case PETS_SEARCH:
+                return PetContract.PetEntry.CONTENT_LIST_TYPE;
+            case PETS_EXPORT:
+                return PetContract.PetEntry.FORMAT_NDJSON.equals(exportFormat(uri))
+                        ? PetContract.PetEntry.NDJSON_TYPE : PetContract.PetEntry.CSV_TYPE;
+            case PETS_STATS_GENDER:
+            case PETS_STATS_BREEDS:
+            case PETS_STATS_WEIGHT:
+                return PetContract.PetEntry.CONTENT_STATS_TYPE;
+            case PETS_JOURNAL:
+                return PetContract.JournalEntry.CONTENT_LIST_TYPE;
+            case PETS_CHANGES:
+                return PetContract.PetEntry.CONTENT_LIST_TYPE;
+            case PETS_PHOTO:
+            case PETS_THUMBNAIL:
+                return PetContract.PetEntry.PHOTO_TYPE;
+            case PETS_BREEDS:
+                return PetContract.BreedEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalArgumentException("Unknown uri " + uri + "with match " +match);
         }
@@ -0,0 +1,103 @@
+package com.example.android.pets.data;
+
+import android.os.Bundle;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Latency histograms and row counts of the {@link PetProvider} calls, per uri and operation.
+ * All methods are thread safe.
+ *
+ * The bundle from {@link #toBundle()} holds, for every "URI.operation" that ran (e.g. "PETS_ID.query"),
+ * the keys "URI.operation.count", ".total_us", ".max_us", ".rows" and ".histogram". The histogram is a
+ * long[] of call counts per bucket of {@link #BUCKET_BOUNDS_US}, the last bucket counting the slower calls.
+ */
+
+public class PetProviderStats {
+
+    public static final String OPERATION_QUERY = "query";
+    public static final String OPERATION_INSERT = "insert";
+    public static final String OPERATION_BULK_INSERT = "bulk_insert";
+    public static final String OPERATION_UPDATE = "update";
+    public static final String OPERATION_DELETE = "delete";
+    public static final String OPERATION_EXPORT = "export";
+    public static final String OPERATION_OPEN = "open";
+
+    public static final String KEY_ROW_CACHE_HITS = "row_cache.hits";
+    public static final String KEY_ROW_CACHE_MISSES = "row_cache.misses";
+    public static final String KEY_ROW_CACHE_EVICTIONS = "row_cache.evictions";
+    public static final String KEY_SLOW_QUERY_THRESHOLD_MS = "slow_query_threshold_ms";
+
+    //Upper bounds of the latency buckets in microseconds
+    public static final long[] BUCKET_BOUNDS_US = {
+            250, 500, 1000, 2000, 4000, 8000, 16000, 32000, 64000, 128000, 256000, 512000, 1024000};
+
+    //Queries slower than this are logged with their plan, a frame at 60 fps by default
+    private static final long DEFAULT_SLOW_QUERY_THRESHOLD_MS = 16;
+
+    private volatile long mSlowQueryThresholdMs = DEFAULT_SLOW_QUERY_THRESHOLD_MS;
+
+    private final HashMap<String, Entry> mEntries = new HashMap<>();
+
+    /*
+    The stats of one uri and operation
+     */
+    private static class Entry {
+        long count;
+        long totalUs;
+        long maxUs;
+        long rows;
+        final long[] histogram = new long[BUCKET_BOUNDS_US.length + 1];
+    }
+
+    /*
+    record() adds a call that took elapsedNanos and touched the given number of rows
+     */
+    public synchronized void record(String uri, String operation, long elapsedNanos, int rows) {
+        String key = uri + "." + operation;
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(key, entry);
+        }
+
+        long elapsedUs = elapsedNanos / 1000;
+        entry.count++;
+        entry.totalUs += elapsedUs;
+        entry.maxUs = Math.max(entry.maxUs, elapsedUs);
+        entry.rows += rows;
+
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_US.length && elapsedUs > BUCKET_BOUNDS_US[bucket])
+            bucket++;
+        entry.histogram[bucket]++;
+    }
+
+    public boolean isSlow(long elapsedNanos) {
+        return elapsedNanos / 1000000 >= mSlowQueryThresholdMs;
+    }
+
+    public void setSlowQueryThresholdMs(long thresholdMs) {
+        mSlowQueryThresholdMs = thresholdMs;
+    }
+
+    public synchronized void reset() {
+        mEntries.clear();
+    }
+
+    public synchronized Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        for (Map.Entry<String, Entry> mapEntry : mEntries.entrySet()) {
+            String key = mapEntry.getKey();
+            Entry entry = mapEntry.getValue();
+            bundle.putLong(key + ".count", entry.count);
+            bundle.putLong(key + ".total_us", entry.totalUs);
+            bundle.putLong(key + ".max_us", entry.maxUs);
+            bundle.putLong(key + ".rows", entry.rows);
+            bundle.putLongArray(key + ".histogram", entry.histogram.clone());
+        }
+        bundle.putLong(KEY_SLOW_QUERY_THRESHOLD_MS, mSlowQueryThresholdMs);
+        return bundle;
+    }
+}
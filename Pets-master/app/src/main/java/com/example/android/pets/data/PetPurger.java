@@ -0,0 +1,193 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Removes deleted pets from the pets table in the background. Every batch is its own short
+ * transaction, so writers get the database in between and readers are never held up. A run
+ * waits for the oldest tombstone left, which goes when its retention is over.
+ */
+
+class PetPurger implements Runnable {
+
+    private static final String LOG_TAG = PetPurger.class.getSimpleName();
+
+    //Number of pets removed per transaction
+    private static final int BATCH_SIZE = 500;
+
+    //Deleted pets are kept this long, so a changes feed reading in the meantime sees the deletion
+    private static final long TOMBSTONE_RETENTION_MS = 24 * 60 * 60 * 1000;
+
+    //Number of free pages given back to the file system after each batch
+    private static final int VACUUM_PAGES = 64;
+
+    //Pets below the deleted through mark, found through the primary key
+    private static final String SQL_PURGE_DELETED_THROUGH = "DELETE FROM " + PetContract.PetEntry.TABLE_NAME
+            + " WHERE " + PetContract.PetEntry._ID + " IN (SELECT " + PetContract.PetEntry._ID + " FROM "
+            + PetContract.PetEntry.TABLE_NAME + " WHERE " + PetContract.PetEntry._ID + " <= (SELECT "
+            + PetDbHelper.COLUMN_DELETED_THROUGH + " FROM " + PetDbHelper.TABLE_PURGE + ") LIMIT " + BATCH_SIZE + ")";
+
+    //Tombstones past their retention, found through the index of the deleted pets
+    private static final String SQL_PURGE_TOMBSTONES = "DELETE FROM " + PetContract.PetEntry.TABLE_NAME
+            + " WHERE " + PetContract.PetEntry._ID + " IN (SELECT " + PetContract.PetEntry._ID + " FROM "
+            + PetContract.PetEntry.TABLE_NAME + " WHERE " + PetDbHelper.COLUMN_DELETED_AT + " IS NOT NULL AND "
+            + PetDbHelper.COLUMN_DELETED_AT + " < ? LIMIT " + BATCH_SIZE + ")";
+
+    //Deleted at of the oldest tombstone, 0 when there is none
+    private static final String SQL_OLDEST_TOMBSTONE = "SELECT IFNULL(MIN(" + PetDbHelper.COLUMN_DELETED_AT
+            + "), 0) FROM " + PetContract.PetEntry.TABLE_NAME + " WHERE " + PetDbHelper.COLUMN_DELETED_AT
+            + " IS NOT NULL";
+
+    //Photos of every pet still in the table, tombstones included since undo brings them back
+    private static final String SQL_PHOTOS = "SELECT " + PetContract.PetEntry.COLUMN_PET_PHOTO + " FROM "
+            + PetContract.PetEntry.TABLE_NAME + " WHERE " + PetContract.PetEntry.COLUMN_PET_PHOTO + " IS NOT NULL";
+
+    //Longest wait for a running purge on shutdown
+    private static final long SHUTDOWN_TIMEOUT_MS = 10000;
+
+    private final PetDbHelper mDbHelper;
+
+    private final PetPhotoStore mPhotoStore;
+
+    private final long mRetentionMs;
+
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    //True while a purge is waiting to run, so a burst of deletes runs it once
+    private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+
+    //The run when the oldest tombstone expires, only used on the purge thread
+    private ScheduledFuture<?> mExpiryRun;
+
+    PetPurger(PetDbHelper dbHelper, PetPhotoStore photoStore) {
+        this(dbHelper, photoStore, TOMBSTONE_RETENTION_MS);
+    }
+
+    @VisibleForTesting
+    PetPurger(PetDbHelper dbHelper, PetPhotoStore photoStore, long retentionMs) {
+        mDbHelper = dbHelper;
+        mPhotoStore = photoStore;
+        mRetentionMs = retentionMs;
+    }
+
+    /*
+    schedule() runs the purge in the background, unless it is already waiting to run
+     */
+    void schedule() {
+        if (mScheduled.compareAndSet(false, true))
+            mExecutor.execute(this);
+    }
+
+    /*
+    shutdown() drops a purge waiting to run and waits for a running one to finish
+     */
+    void shutdown() throws InterruptedException {
+        mExecutor.shutdownNow();
+        mExecutor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run() {
+        //Pets deleted from here on need another run
+        mScheduled.set(false);
+
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            boolean vacuum = DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null)
+                    == PetDbHelper.AUTO_VACUUM_INCREMENTAL;
+
+            SQLiteStatement purgeDeletedThrough = database.compileStatement(SQL_PURGE_DELETED_THROUGH);
+            SQLiteStatement purgeTombstones = database.compileStatement(SQL_PURGE_TOMBSTONES);
+            purgeTombstones.bindLong(1, System.currentTimeMillis() - mRetentionMs);
+            try {
+                int purged = 0;
+                while (true) {
+                    int rows = purgeBatch(database, purgeDeletedThrough);
+                    if (rows < BATCH_SIZE)
+                        rows += purgeBatch(database, purgeTombstones);
+                    purged += rows;
+                    if (rows == 0)
+                        break;
+
+                    if (vacuum)
+                        database.execSQL("PRAGMA incremental_vacuum(" + VACUUM_PAGES + ")");
+                }
+                Log.v(LOG_TAG, purged + " deleted pets purged");
+
+                if (purged != 0)
+                    Log.v(LOG_TAG, deleteOrphanedPhotos(database) + " orphaned photos deleted");
+
+                scheduleExpiry(database);
+            } finally {
+                purgeDeletedThrough.close();
+                purgeTombstones.close();
+            }
+        } catch (SQLException e) {
+            //The tombstones stay hidden, the next purge picks them up
+            Log.e(LOG_TAG, "Failed to purge deleted pets", e);
+        }
+    }
+
+    /*
+    scheduleExpiry() runs the purge again once the oldest tombstone left is past its retention,
+    so it and its photo go without waiting for another delete
+     */
+    private void scheduleExpiry(SQLiteDatabase database) {
+        if (mExpiryRun != null)
+            mExpiryRun.cancel(false);
+        mExpiryRun = null;
+
+        long oldest = DatabaseUtils.longForQuery(database, SQL_OLDEST_TOMBSTONE, null);
+        if (oldest == 0)
+            return;
+        long delay = Math.max(oldest + mRetentionMs + 1 - System.currentTimeMillis(), 0);
+        try {
+            mExpiryRun = mExecutor.schedule(this, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //Shut down while purging, the next process picks the tombstones up
+        }
+    }
+
+    /*
+    deleteOrphanedPhotos() removes the photos of the purged pets, returns how many
+     */
+    private int deleteOrphanedPhotos(SQLiteDatabase database) {
+        HashSet<String> referenced = new HashSet<>();
+        Cursor cursor = database.rawQuery(SQL_PHOTOS, null);
+        try {
+            while (cursor.moveToNext())
+                referenced.add(cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+        return mPhotoStore.deleteOrphans(referenced);
+    }
+
+    /*
+    purgeBatch() runs one batch of the purge in its own transaction
+     */
+    private int purgeBatch(SQLiteDatabase database, SQLiteStatement statement) {
+        database.beginTransactionNonExclusive();
+        try {
+            int rows = statement.executeUpdateDelete();
+            database.setTransactionSuccessful();
+            return rows;
+        } finally {
+            database.endTransaction();
+        }
+    }
+}
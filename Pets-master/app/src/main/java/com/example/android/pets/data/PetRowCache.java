@@ -0,0 +1,164 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import java.util.Collection;
+
+/**
+ * Bounded cache of whole pets rows by _id, so looking up a single pet does not go to the database.
+ * The provider invalidates it after every write has committed. All methods are thread safe.
+ */
+
+public class PetRowCache {
+
+    //The columns of a cached row, in the order they are stored
+    static final String[] COLUMNS = {
+            PetContract.PetEntry._ID,
+            PetContract.PetEntry.COLUMN_PET_NAME,
+            PetContract.PetEntry.COLUMN_PET_BREED,
+            PetContract.PetEntry.COLUMN_PET_GENDER,
+            PetContract.PetEntry.COLUMN_PET_WEIGHT,
+            PetContract.PetEntry.COLUMN_PET_VERSION,
+            PetContract.PetEntry.COLUMN_PET_UPDATED_AT,
+            PetContract.PetEntry.COLUMN_PET_PHOTO,
+            PetContract.PetEntry.COLUMN_PET_BREED_ID};
+
+    private final LruCache<Long, Object[]> mRows;
+
+    //Incremented by every invalidation, a row read from the database before an invalidation
+    //may already be stale and is not cached
+    private long mGeneration = 0;
+
+    public PetRowCache(int maxRows) {
+        mRows = new LruCache<>(maxRows);
+    }
+
+    /*
+    query() returns the cached row as a cursor with the given projection, or null if the pet
+    is not cached or the projection asks for a column the cache does not hold
+     */
+    public Cursor query(long id, String[] projection) {
+        int[] columnIndexes = columnIndexes(projection);
+        if (columnIndexes == null)
+            return null;
+
+        Object[] row = mRows.get(id);
+        if (row == null)
+            return null;
+        return cursorOf(row, projection, columnIndexes);
+    }
+
+    /*
+    project() returns a row read with read() as a cursor with the given projection, or null if the
+    projection asks for a column the cache does not hold. It does not count as a hit or a miss
+     */
+    static Cursor project(Object[] row, String[] projection) {
+        int[] columnIndexes = columnIndexes(projection);
+        return columnIndexes == null ? null : cursorOf(row, projection, columnIndexes);
+    }
+
+    /*
+    read() copies the current row of a cursor with the COLUMNS projection
+     */
+    static Object[] read(Cursor cursor) {
+        Object[] row = new Object[COLUMNS.length];
+        row[0] = cursor.getLong(0);
+        row[1] = cursor.getString(1);
+        row[2] = cursor.getString(2);
+        row[3] = cursor.getInt(3);
+        row[4] = cursor.getInt(4);
+        row[5] = cursor.getLong(5);
+        row[6] = cursor.getLong(6);
+        row[7] = cursor.getString(7);
+        row[8] = cursor.isNull(8) ? null : cursor.getLong(8);
+        return row;
+    }
+
+    private static int[] columnIndexes(String[] projection) {
+        if (projection == null)
+            projection = COLUMNS;
+
+        int[] columnIndexes = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columnIndexes[i] = indexOf(projection[i]);
+            if (columnIndexes[i] == -1)
+                return null;
+        }
+        return columnIndexes;
+    }
+
+    private static Cursor cursorOf(Object[] row, String[] projection, int[] columnIndexes) {
+        if (projection == null)
+            projection = COLUMNS;
+
+        Object[] values = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++)
+            values[i] = row[columnIndexes[i]];
+
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(values);
+        return cursor;
+    }
+
+    /*
+    generation() is read before loading a row from the database and handed to put()
+     */
+    public synchronized long generation() {
+        return mGeneration;
+    }
+
+    /*
+    put() caches a row read with read(), unless the cache was invalidated since the generation was read
+     */
+    public synchronized void put(Object[] row, long generation) {
+        if (generation == mGeneration)
+            mRows.put((Long) row[0], row);
+    }
+
+    /*
+    invalidate() drops a single pet after it was written
+     */
+    public synchronized void invalidate(long id) {
+        mGeneration++;
+        mRows.remove(id);
+    }
+
+    /*
+    invalidate() drops the pets written by a batch once it has committed
+     */
+    public synchronized void invalidate(Collection<Long> ids) {
+        mGeneration++;
+        for (Long id : ids)
+            mRows.remove(id);
+    }
+
+    /*
+    invalidateAll() drops every pet after a write that may have touched several of them
+     */
+    public synchronized void invalidateAll() {
+        mGeneration++;
+        mRows.evictAll();
+    }
+
+    public int hitCount() {
+        return mRows.hitCount();
+    }
+
+    public int missCount() {
+        return mRows.missCount();
+    }
+
+    public int evictionCount() {
+        return mRows.evictionCount();
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column))
+                return i;
+        }
+        return -1;
+    }
+}
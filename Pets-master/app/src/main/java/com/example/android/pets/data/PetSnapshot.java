@@ -0,0 +1,215 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A compact copy of the first page of the catalog in a file, so a cold start can show the pets before the
+ * database is even opened. The provider rewrites it in the background after writes, a burst of writes once,
+ * and the catalog maps it with {@link #read(Context)} on a background thread and swaps in the real page
+ * when it arrives.
+ * <p>
+ * The file is a header (magic, format version, row count) followed by the rows: the _id as a long and the
+ * name, breed and photo as an int byte length (-1 for null) and their UTF-8 bytes. It is written to a
+ * temporary file and renamed into place, so a reader sees the old snapshot or the new one.
+ */
+
+public class PetSnapshot implements Runnable {
+
+    private static final String LOG_TAG = PetSnapshot.class.getSimpleName();
+
+    /**
+     * Columns of the snapshot cursor, the rows are the first {@link #MAX_ROWS} pets in _id order
+     * like the first page of the catalog
+     */
+    public static final String[] COLUMNS = {
+            PetContract.PetEntry._ID,
+            PetContract.PetEntry.COLUMN_PET_NAME,
+            PetContract.PetEntry.COLUMN_PET_BREED,
+            PetContract.PetEntry.COLUMN_PET_PHOTO};
+    public static final int MAX_ROWS = 50;
+
+    private static final String FILE_NAME = "catalog.snapshot";
+
+    //"PETS" and the version of the layout of the file
+    private static final int MAGIC = 0x50455453;
+    private static final int FORMAT_VERSION = 1;
+
+    //Writes within this window after the first one are written together
+    private static final long WRITE_DELAY_MS = 500;
+
+    //Longest wait for a running rewrite on shutdown
+    private static final long SHUTDOWN_TIMEOUT_MS = 10000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+
+    private final PetDbHelper mDbHelper;
+
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    //True while a rewrite is waiting to run, so a burst of writes rewrites once
+    private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+
+    PetSnapshot(Context context, PetDbHelper dbHelper) {
+        mFile = fileOf(context);
+        mDbHelper = dbHelper;
+    }
+
+    /*
+    read() maps the snapshot and returns its rows, null if there is none or it cannot be read.
+    It decodes every row, call it off the main thread
+     */
+    public static Cursor read(Context context) {
+        File file = fileOf(context);
+        if (!file.exists())
+            return null;
+
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                //The mapping stays valid after the file is closed
+                MappedByteBuffer buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+                return parse(buffer);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to read the snapshot", e);
+        } catch (RuntimeException e) {
+            //Truncated or corrupt, the catalog waits for the database instead
+            Log.w(LOG_TAG, "Invalid snapshot", e);
+        }
+        return null;
+    }
+
+    /*
+    fileOf() is the file of the snapshot
+     */
+    static File fileOf(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    private static Cursor parse(MappedByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION)
+            return null;
+        int count = buffer.getInt();
+        if (count < 0 || count > MAX_ROWS)
+            return null;
+
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, count);
+        for (int i = 0; i < count; i++)
+            cursor.addRow(new Object[] {buffer.getLong(), readString(buffer), readString(buffer), readString(buffer)});
+        return cursor;
+    }
+
+    private static String readString(MappedByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == -1)
+            return null;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /*
+    schedule() rewrites the snapshot in the background shortly, unless a rewrite is already waiting
+     */
+    void schedule() {
+        if (mScheduled.compareAndSet(false, true))
+            mExecutor.schedule(this, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+    scheduleIfMissing() writes the first snapshot, for a database that predates them
+     */
+    void scheduleIfMissing() {
+        if (!mFile.exists())
+            schedule();
+    }
+
+    /*
+    shutdown() drops a rewrite waiting to run and waits for a running one to finish
+     */
+    void shutdown() throws InterruptedException {
+        mExecutor.shutdownNow();
+        mExecutor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run() {
+        //Writes from here on need another rewrite
+        mScheduled.set(false);
+
+        try {
+            write(mDbHelper.getReadableDatabase());
+        } catch (SQLException | IOException e) {
+            //The next write tries again, until then the catalog starts from the old snapshot
+            Log.e(LOG_TAG, "Failed to write the snapshot", e);
+        }
+    }
+
+    private void write(SQLiteDatabase database) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        Cursor cursor = database.query(PetDbHelper.VIEW_LIVE_PETS, COLUMNS, null, null, null, null,
+                PetContract.PetEntry._ID + " ASC", String.valueOf(MAX_ROWS));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(cursor.getCount());
+            while (cursor.moveToNext()) {
+                out.writeLong(cursor.getLong(0));
+                writeString(out, cursor.getString(1));
+                writeString(out, cursor.getString(2));
+                writeString(out, cursor.getString(3));
+            }
+        } finally {
+            cursor.close();
+        }
+        out.flush();
+
+        File temp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream output = new FileOutputStream(temp);
+        try {
+            bytes.writeTo(output);
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        if (!temp.renameTo(mFile)) {
+            temp.delete();
+            throw new IOException("Cannot rename to " + mFile);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
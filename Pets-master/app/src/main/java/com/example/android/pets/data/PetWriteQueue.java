@@ -0,0 +1,234 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the writes to the {@link PetProvider} one at a time on a background thread
+ * and posts their results back to the main thread.
+ */
+
+public class PetWriteQueue {
+
+    private static final String LOG_TAG = PetWriteQueue.class.getSimpleName();
+
+    /*
+    Called on the main thread once a write has finished
+     */
+    public interface Callback<T> {
+        void onComplete(T result);
+    }
+
+    //The one queue of the process, so all writes are serialized
+    private static PetWriteQueue sInstance;
+
+    private final ContentResolver mContentResolver;
+
+    //Single writer thread, writes run in the order they were queued
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    //Guards mTailUpdate and the order in which writes reach the executor
+    private final Object mLock = new Object();
+
+    //The last write queued when it is an update that has not started yet, null otherwise.
+    //Only this one can take in a new update of the same pet, an update queued after another
+    //write of the pet must run after that write
+    private PendingUpdate mTailUpdate;
+
+    /*
+    getInstance() returns the process wide queue, creating it on first use
+     */
+    public static synchronized PetWriteQueue getInstance(Context context) {
+        if (sInstance == null)
+            sInstance = new PetWriteQueue(context.getApplicationContext().getContentResolver());
+        return sInstance;
+    }
+
+    private PetWriteQueue(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    /*
+    Queues the insertion of a pet, the callback gets the uri of the new pet or null if it failed
+     */
+    public void insert(final Uri uri, final ContentValues values, final Callback<Uri> callback) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                Uri newUri = null;
+                try {
+                    newUri = mContentResolver.insert(uri, values);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to insert into " + uri, e);
+                }
+                postResult(callback, newUri);
+            }
+        });
+    }
+
+    /*
+    Queues an update, the callback gets the number of rows updated, 0 if it failed. An update of the
+    same uri as the update queued right before it is merged into it, later values winning, and every
+    callback gets its result
+     */
+    public void update(final Uri uri, ContentValues values, Callback<Integer> callback) {
+        synchronized (mLock) {
+            if (mTailUpdate != null && mTailUpdate.uri.equals(uri)) {
+                mTailUpdate.values.putAll(values);
+                mTailUpdate.callbacks.add(callback);
+                return;
+            }
+
+            final PendingUpdate pending = new PendingUpdate(uri, new ContentValues(values));
+            pending.callbacks.add(callback);
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    //From here on a new update of this uri is queued as a new write
+                    synchronized (mLock) {
+                        if (mTailUpdate == pending)
+                            mTailUpdate = null;
+                    }
+
+                    int rowsUpdated = 0;
+                    try {
+                        rowsUpdated = mContentResolver.update(uri, pending.values, null, null);
+                    } catch (RuntimeException e) {
+                        Log.e(LOG_TAG, "Failed to update " + uri, e);
+                    }
+                    for (Callback<Integer> callback : pending.callbacks)
+                        postResult(callback, rowsUpdated);
+                }
+            });
+            mTailUpdate = pending;
+        }
+    }
+
+    /*
+    Queues a delete, the callback gets the number of rows deleted, 0 if it failed
+     */
+    public void delete(final Uri uri, final Callback<Integer> callback) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                int rowsDeleted = 0;
+                try {
+                    rowsDeleted = mContentResolver.delete(uri, null, null);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to delete " + uri, e);
+                }
+                postResult(callback, rowsDeleted);
+            }
+        });
+    }
+
+    /*
+    Queues the undo of the latest change of a pet, the callback gets whether there was one to undo
+     */
+    public void undo(Uri uri, Callback<Boolean> callback) {
+        revert(PetContract.METHOD_UNDO, uri, callback);
+    }
+
+    /*
+    Queues the redo of the latest undone change of a pet, the callback gets whether there was one to redo
+     */
+    public void redo(Uri uri, Callback<Boolean> callback) {
+        revert(PetContract.METHOD_REDO, uri, callback);
+    }
+
+    private void revert(final String method, final Uri uri, final Callback<Boolean> callback) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean changed = false;
+                try {
+                    Bundle result = mContentResolver.call(PetContract.PetEntry.CONTENT_URI, method, uri.toString(), null);
+                    changed = result != null && result.getBoolean(PetContract.KEY_CHANGED);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to " + method + " " + uri, e);
+                }
+                postResult(callback, changed);
+            }
+        });
+    }
+
+    /*
+    Queues setting the photo of a pet to a copy of the image at the source uri, or removing it when the
+    source is null. The callback gets whether the photo changed
+     */
+    public void setPhoto(final Uri uri, Uri source, final Callback<Boolean> callback) {
+        final Bundle extras = new Bundle();
+        extras.putParcelable(PetContract.KEY_PHOTO_SOURCE, source);
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean changed = false;
+                try {
+                    Bundle result = mContentResolver.call(PetContract.PetEntry.CONTENT_URI,
+                            PetContract.METHOD_SET_PHOTO, uri.toString(), extras);
+                    changed = result != null && result.getBoolean(PetContract.KEY_CHANGED);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to set the photo of " + uri, e);
+                }
+                postResult(callback, changed);
+            }
+        });
+    }
+
+    /*
+    execute() queues a write that is not an update, no later update can join the one queued before it
+     */
+    private void execute(Runnable write) {
+        synchronized (mLock) {
+            mExecutor.execute(write);
+            mTailUpdate = null;
+        }
+    }
+
+    /*
+    runOnWriter() queues a task on the writer thread like a write, so a test can hold the writer
+    while it queues the writes behind it
+     */
+    @VisibleForTesting
+    void runOnWriter(Runnable task) {
+        execute(task);
+    }
+
+    private <T> void postResult(final Callback<T> callback, final T result) {
+        if (callback == null)
+            return;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onComplete(result);
+            }
+        });
+    }
+
+    /*
+    An update waiting in the queue and everyone waiting for its result
+     */
+    private static class PendingUpdate {
+        final Uri uri;
+        final ContentValues values;
+        final ArrayList<Callback<Integer>> callbacks = new ArrayList<>();
+
+        PendingUpdate(Uri uri, ContentValues values) {
+            this.uri = uri;
+            this.values = values;
+        }
+    }
+}
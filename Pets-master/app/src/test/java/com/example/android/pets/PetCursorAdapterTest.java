@@ -0,0 +1,97 @@
+package com.example.android.pets;
+
+import android.database.MatrixCursor;
+import android.widget.FrameLayout;
+
+import com.example.android.pets.data.PetContract;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Binding a row sets the Strings the loader copied once per cursor, so scrolling back to a row decodes
+ * no text again. The thumbnail and the TextView itself are not covered
+ */
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, manifest = Config.DEFAULT_MANIFEST_NAME)
+public class PetCursorAdapterTest {
+
+    private PetCursorAdapter mAdapter;
+    private PetCursorAdapter.ViewHolder mHolder;
+
+    @Before
+    public void setUp() {
+        mAdapter = new PetCursorAdapter(RuntimeEnvironment.application, new PetCursorAdapter.OnPetClickListener() {
+            @Override
+            public void onPetClick(long id) {
+            }
+        });
+        MatrixCursor cursor = new MatrixCursor(new String[] {PetContract.PetEntry._ID, PetContract.PetEntry.COLUMN_PET_NAME,
+                PetContract.PetEntry.COLUMN_PET_BREED, PetContract.PetEntry.COLUMN_PET_PHOTO});
+        cursor.addRow(new Object[] {1L, "Toto", "Terrier", null});
+        cursor.addRow(new Object[] {2L, "Rex", null, null});
+        //The list is empty, so the rows are shown without a diff
+        mAdapter.swapSnapshots(Collections.singletonList(
+                PetCursorAdapter.Snapshot.from(cursor, PetBreedDictionary.getInstance(RuntimeEnvironment.application))));
+        mHolder = mAdapter.onCreateViewHolder(new FrameLayout(RuntimeEnvironment.application), 0);
+    }
+
+    @Test
+    public void pagesAreShownOneAfterTheOther() {
+        MatrixCursor page = new MatrixCursor(new String[] {PetContract.PetEntry._ID, PetContract.PetEntry.COLUMN_PET_NAME,
+                PetContract.PetEntry.COLUMN_PET_BREED});
+        page.addRow(new Object[] {3L, "Bella", "Beagle"});
+        PetCursorAdapter.Snapshot first = mAdapter.snapshot();
+        PetCursorAdapter.Snapshot joined = PetCursorAdapter.Snapshot.concat(Arrays.asList(first,
+                PetCursorAdapter.Snapshot.from(page, PetBreedDictionary.getInstance(RuntimeEnvironment.application))));
+
+        assertEquals(3, joined.size());
+        assertEquals(1L, joined.ids[0]);
+        assertEquals(3L, joined.ids[2]);
+        assertSame(first.names[1], joined.names[1]);
+        assertEquals("Beagle", joined.breeds[2]);
+    }
+
+    @Test
+    public void bindShowsTheRow() {
+        mAdapter.onBindViewHolder(mHolder, 0);
+        assertEquals("Toto", mHolder.nameTextView.getText().toString());
+        assertEquals("Terrier", mHolder.summaryTextView.getText().toString());
+
+        mAdapter.onBindViewHolder(mHolder, 1);
+        assertEquals("Rex", mHolder.nameTextView.getText().toString());
+        assertEquals(RuntimeEnvironment.application.getString(R.string.unknown_breed),
+                mHolder.summaryTextView.getText().toString());
+    }
+
+    @Test
+    public void bindSetsTheSnapshotStrings() {
+        mAdapter.onBindViewHolder(mHolder, 0);
+        CharSequence name = mHolder.nameTextView.getText();
+        CharSequence breed = mHolder.summaryTextView.getText();
+
+        //Rebinding the row, as scrolling back to it does, sets the very same Strings again
+        mAdapter.onBindViewHolder(mHolder, 1);
+        mAdapter.onBindViewHolder(mHolder, 0);
+        assertSame(name, mHolder.nameTextView.getText());
+        assertSame(breed, mHolder.summaryTextView.getText());
+
+        //and so does the fallback of the pets without a breed
+        mAdapter.onBindViewHolder(mHolder, 1);
+        CharSequence unknownBreed = mHolder.summaryTextView.getText();
+        mAdapter.onBindViewHolder(mHolder, 0);
+        mAdapter.onBindViewHolder(mHolder, 1);
+        assertSame(unknownBreed, mHolder.summaryTextView.getText());
+    }
+}
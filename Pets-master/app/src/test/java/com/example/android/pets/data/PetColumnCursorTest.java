@@ -0,0 +1,86 @@
+package com.example.android.pets.data;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A list of pets comes back copied into a PetColumnCursor that holds every row, whatever room its
+ * columns started with, and keeps the Strings it decoded
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class PetColumnCursorTest {
+
+    private static final String[] PROJECTION = {
+            PetContract.PetEntry._ID,
+            PetContract.PetEntry.COLUMN_PET_NAME,
+            PetContract.PetEntry.COLUMN_PET_PHOTO};
+
+    @Rule
+    public final PetProviderRule mPets = new PetProviderRule();
+
+    @Test
+    public void everyRowIsCopiedPastTheFirstRoom() {
+        //More than the columns have room for without a limit
+        mPets.insertPets(1000);
+
+        Cursor cursor = mPets.resolver().query(PetContract.PetEntry.CONTENT_URI, PROJECTION, null, null,
+                PetContract.PetEntry._ID + " ASC");
+        try {
+            assertTrue(cursor instanceof PetColumnCursor);
+            assertEquals(1000, cursor.getCount());
+            CharArrayBuffer buffer = new CharArrayBuffer(4);
+            for (int i = 0; cursor.moveToNext(); i++) {
+                assertEquals("Pet " + i, cursor.getString(1));
+                cursor.copyStringToBuffer(1, buffer);
+                assertEquals("Pet " + i, new String(buffer.data, 0, buffer.sizeCopied));
+                //No photo
+                assertTrue(cursor.isNull(2));
+                assertEquals(null, cursor.getString(2));
+                cursor.copyStringToBuffer(2, buffer);
+                assertEquals(0, buffer.sizeCopied);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void aLimitedListHoldsItsRows() {
+        mPets.insertPets(30);
+
+        Cursor cursor = mPets.resolver().query(PetContract.PetEntry.buildPageUri(10, -1), PROJECTION, null, null, null);
+        try {
+            assertEquals(10, cursor.getCount());
+            assertTrue(cursor.moveToLast());
+            assertEquals("Pet 9", cursor.getString(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void aNameIsDecodedOnce() {
+        mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7);
+
+        Cursor cursor = mPets.resolver().query(PetContract.PetEntry.CONTENT_URI, PROJECTION, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            String name = cursor.getString(1);
+            assertEquals("Toto", name);
+            assertTrue(cursor.moveToFirst());
+            assertSame(name, cursor.getString(1));
+        } finally {
+            cursor.close();
+        }
+    }
+}
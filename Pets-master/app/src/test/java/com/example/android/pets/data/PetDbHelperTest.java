@@ -0,0 +1,188 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The upgrade steps of PetDbHelper keep the pets of an old database, and the queries
+ * of the provider seek on the indexes the steps create
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class PetDbHelperTest {
+
+    @Rule
+    public final PetProviderRule mPets = new PetProviderRule();
+
+    //A database of the first version, upgraded step by step in the tests
+    private SQLiteDatabase mOldDatabase;
+
+    @Before
+    public void createOldDatabase() {
+        mOldDatabase = SQLiteDatabase.create(null);
+        mOldDatabase.execSQL("CREATE TABLE pets (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, "
+                + "breed TEXT, gender INTEGER NOT NULL, weight INTEGER NOT NULL DEFAULT 0);");
+        for (String values : new String[] {"'Toto', 'Terrier', 1, 7", "'Rex', 'Boxer', 1, 20",
+                "'Bella', 'Terrier', 2, 9", "'Max', NULL, 0, 4"})
+            mOldDatabase.execSQL("INSERT INTO pets (name, breed, gender, weight) VALUES (" + values + ");");
+    }
+
+    @After
+    public void closeOldDatabase() {
+        mOldDatabase.close();
+    }
+
+    @Test
+    public void upgradeStepsKeepThePets() {
+        upgradeOldDatabase();
+
+        Cursor cursor = mOldDatabase.rawQuery("SELECT name, breed, gender, weight FROM " + PetDbHelper.VIEW_LIVE_PETS
+                + " ORDER BY _id", null);
+        try {
+            assertEquals(4, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Toto", cursor.getString(0));
+            assertEquals("Terrier", cursor.getString(1));
+            assertEquals(1, cursor.getInt(2));
+            assertEquals(7, cursor.getInt(3));
+            cursor.moveToLast();
+            assertEquals("Max", cursor.getString(0));
+            assertTrue(cursor.isNull(1));
+        } finally {
+            cursor.close();
+        }
+
+        //Both terriers share one breed row
+        assertEquals(2, DatabaseUtils.longForQuery(mOldDatabase,
+                "SELECT COUNT(*) FROM " + PetContract.BreedEntry.TABLE_NAME, null));
+    }
+
+    @Test
+    public void upgradeStepsFillTheSearchAndTheStats() {
+        upgradeOldDatabase();
+
+        assertEquals(2, DatabaseUtils.longForQuery(mOldDatabase, "SELECT COUNT(*) FROM " + PetDbHelper.TABLE_PETS_FTS
+                + " WHERE " + PetDbHelper.TABLE_PETS_FTS + " MATCH 'terr*'", null));
+        assertEquals(4, DatabaseUtils.longForQuery(mOldDatabase, "SELECT SUM(" + PetDbHelper.COLUMN_STATS_COUNT
+                + ") FROM " + PetDbHelper.TABLE_GENDER_STATS, null));
+        assertEquals(40, DatabaseUtils.longForQuery(mOldDatabase, "SELECT SUM(" + PetDbHelper.COLUMN_STATS_WEIGHT_SUM
+                + ") FROM " + PetDbHelper.TABLE_GENDER_STATS, null));
+        assertEquals(4, DatabaseUtils.longForQuery(mOldDatabase, "SELECT SUM(" + PetDbHelper.COLUMN_STATS_COUNT
+                + ") FROM " + PetDbHelper.TABLE_BREED_STATS, null));
+
+        //The triggers of the last version keep them up to date
+        ContentValues values = new ContentValues();
+        values.put(PetContract.PetEntry.COLUMN_PET_NAME, "Terry");
+        values.put(PetContract.PetEntry.COLUMN_PET_GENDER, PetContract.PetEntry.GENDER_FEMALE);
+        values.put(PetContract.PetEntry.COLUMN_PET_WEIGHT, 3);
+        mOldDatabase.insert(PetContract.PetEntry.TABLE_NAME, null, values);
+        assertEquals(3, DatabaseUtils.longForQuery(mOldDatabase, "SELECT COUNT(*) FROM " + PetDbHelper.TABLE_PETS_FTS
+                + " WHERE " + PetDbHelper.TABLE_PETS_FTS + " MATCH 'terr*'", null));
+        assertEquals(43, DatabaseUtils.longForQuery(mOldDatabase, "SELECT SUM(" + PetDbHelper.COLUMN_STATS_WEIGHT_SUM
+                + ") FROM " + PetDbHelper.TABLE_GENDER_STATS, null));
+    }
+
+    @Test
+    public void statsTriggersFollowEveryWrite() {
+        long totoId = mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7);
+        long rexId = mPets.insert("Rex", "Boxer", PetContract.PetEntry.GENDER_MALE, 20);
+        mPets.insert("Bella", "Beagle", PetContract.PetEntry.GENDER_FEMALE, 9);
+        ContentValues values = new ContentValues();
+        values.put(PetContract.PetEntry.COLUMN_PET_WEIGHT, 8);
+        values.put(PetContract.PetEntry.COLUMN_PET_BREED, "Beagle");
+        mPets.resolver().update(ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, totoId), values, null, null);
+        mPets.resolver().delete(ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, rexId), null, null);
+
+        //The summary tables add up to what a scan of the live pets counts
+        assertEquals(mPets.longForQuery("SELECT SUM(weight) FROM " + PetDbHelper.VIEW_LIVE_PETS),
+                mPets.longForQuery("SELECT SUM(" + PetDbHelper.COLUMN_STATS_WEIGHT_SUM + ") FROM "
+                        + PetDbHelper.TABLE_GENDER_STATS));
+        assertEquals(2, mPets.longForQuery("SELECT " + PetDbHelper.COLUMN_STATS_COUNT + " FROM "
+                + PetDbHelper.TABLE_BREED_STATS + " WHERE breed_id = (SELECT _id FROM "
+                + PetContract.BreedEntry.TABLE_NAME + " WHERE name = 'Beagle')"));
+        assertEquals(0, mPets.longForQuery("SELECT COUNT(*) FROM " + PetDbHelper.TABLE_BREED_STATS
+                + " WHERE breed_id = (SELECT _id FROM " + PetContract.BreedEntry.TABLE_NAME + " WHERE name = 'Boxer')"));
+
+        Cursor search = mPets.resolver().query(PetContract.PetEntry.buildSearchUri("beag", 10),
+                new String[] {PetContract.PetEntry._ID}, null, null, null);
+        try {
+            assertEquals(2, search.getCount());
+        } finally {
+            search.close();
+        }
+    }
+
+    @Test
+    public void sortByNameUsesTheNameIndex() {
+        assertPlanUses(PetDbHelper.INDEX_PETS_NAME, "SELECT _id, name, breed FROM " + PetDbHelper.VIEW_LIVE_PETS
+                + " ORDER BY name");
+    }
+
+    @Test
+    public void filtersUseTheirIndexes() {
+        assertPlanUses(PetDbHelper.INDEX_PETS_GENDER, "SELECT _id, name FROM " + PetDbHelper.VIEW_LIVE_PETS
+                + " WHERE gender = ?", "1");
+        assertPlanUses(PetDbHelper.INDEX_PETS_BREED, "SELECT _id, name FROM " + PetDbHelper.VIEW_LIVE_PETS
+                + " WHERE breed_id = ? ORDER BY name", "1");
+        assertPlanUses(PetDbHelper.INDEX_PETS_VERSION, "SELECT _id FROM " + PetContract.PetEntry.TABLE_NAME
+                + " WHERE version > ? ORDER BY version LIMIT 100", "0");
+    }
+
+    @Test
+    public void pagesSeekOnThePrimaryKey() {
+        assertPlanUses("PRIMARY KEY", "SELECT _id, name, breed FROM " + PetDbHelper.VIEW_LIVE_PETS
+                + " WHERE _id > ? ORDER BY _id ASC LIMIT 50", "100");
+    }
+
+    @Test
+    public void connectionIsTuned() {
+        SQLiteDatabase database = mPets.database();
+        assertTrue(database.isWriteAheadLoggingEnabled());
+        //Database wide, any connection reads them
+        assertEquals("wal", DatabaseUtils.stringForQuery(database, "PRAGMA journal_mode", null));
+        assertEquals(2, DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null));
+
+        //Per connection, read on the primary connection inside a transaction
+        database.beginTransaction();
+        try {
+            assertEquals(1, DatabaseUtils.longForQuery(database, "PRAGMA synchronous", null));
+            assertEquals(-2048, DatabaseUtils.longForQuery(database, "PRAGMA cache_size", null));
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private void upgradeOldDatabase() {
+        for (int version = 2; version <= PetDbHelper.DATA_BASE_VERSION; version++)
+            PetDbHelper.upgradeTo(mOldDatabase, version);
+    }
+
+    /*
+    assertPlanUses() checks that the plan SQLite picks for the query on the database of the provider names the index
+     */
+    private void assertPlanUses(String index, String sql, String... args) {
+        mPets.insertPets(200);
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = mPets.database().rawQuery("EXPLAIN QUERY PLAN " + sql, args.length == 0 ? null : args);
+        try {
+            while (cursor.moveToNext())
+                plan.append(cursor.getString(cursor.getColumnCount() - 1)).append("; ");
+        } finally {
+            cursor.close();
+        }
+        assertTrue(plan.toString(), plan.indexOf(index) != -1);
+    }
+}
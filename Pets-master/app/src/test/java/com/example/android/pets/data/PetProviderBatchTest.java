@@ -0,0 +1,136 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * bulkInsert() and applyBatch() write in one transaction and notify once
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderBatchTest {
+
+    @Rule
+    public final PetProviderRule mPets = new PetProviderRule();
+
+    @Test
+    public void bulkInsertAddsEveryPetWithOneNotification() {
+        mPets.insertPets(100);
+
+        assertEquals(100, mPets.countPets());
+        assertNotifiedOnce(PetContract.PetEntry.CONTENT_URI);
+    }
+
+    @Test
+    public void bulkInsertRollsBackOnAnInvalidPet() {
+        mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7);
+        mPets.shadowResolver().getNotifiedUris().clear();
+
+        ContentValues nameless = PetProviderRule.pet(null, "Poodle", PetContract.PetEntry.GENDER_FEMALE, 3);
+        ContentValues[] values = {
+                PetProviderRule.pet("Rex", "Boxer", PetContract.PetEntry.GENDER_MALE, 20),
+                nameless,
+                PetProviderRule.pet("Bella", "Beagle", PetContract.PetEntry.GENDER_FEMALE, 9)};
+        try {
+            mPets.resolver().bulkInsert(PetContract.PetEntry.CONTENT_URI, values);
+            fail("A pet without a name was inserted");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        //Nothing of the batch is left, not even the breeds it added
+        assertEquals(1, mPets.countPets());
+        assertEquals(1, mPets.longForQuery("SELECT COUNT(*) FROM " + PetContract.BreedEntry.TABLE_NAME));
+        assertEquals(1, mPets.longForQuery("SELECT SUM(" + PetDbHelper.COLUMN_STATS_COUNT + ") FROM "
+                + PetDbHelper.TABLE_GENDER_STATS));
+        assertEquals(0, mPets.shadowResolver().getNotifiedUris().size());
+    }
+
+    @Test
+    public void anUpdateOfNoPetAddsNoBreed() {
+        long totoId = mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7);
+        mPets.resolver().delete(petUri(totoId), null, null);
+
+        //Every column through the compiled statement, then the breed alone
+        assertEquals(0, mPets.resolver().update(petUri(totoId),
+                PetProviderRule.pet("Toto", "Poodle", PetContract.PetEntry.GENDER_MALE, 7), null, null));
+        ContentValues values = new ContentValues();
+        values.put(PetContract.PetEntry.COLUMN_PET_BREED, "Boxer");
+        assertEquals(0, mPets.resolver().update(petUri(totoId + 1), values, null, null));
+
+        //The breed lookup rolled back with the pet write
+        assertEquals(1, mPets.longForQuery("SELECT COUNT(*) FROM " + PetContract.BreedEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void applyBatchRunsEveryOperationWithOneNotification() throws Exception {
+        long totoId = mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7);
+        long rexId = mPets.insert("Rex", "Boxer", PetContract.PetEntry.GENDER_MALE, 20);
+        mPets.shadowResolver().getNotifiedUris().clear();
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(PetContract.PetEntry.CONTENT_URI)
+                .withValues(PetProviderRule.pet("Bella", "Beagle", PetContract.PetEntry.GENDER_FEMALE, 9)).build());
+        operations.add(ContentProviderOperation.newUpdate(petUri(totoId))
+                .withValue(PetContract.PetEntry.COLUMN_PET_WEIGHT, 8).build());
+        operations.add(ContentProviderOperation.newDelete(petUri(rexId)).build());
+        ContentProviderResult[] results = mPets.resolver().applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+
+        assertEquals(3, results.length);
+        assertEquals(Integer.valueOf(1), results[1].count);
+        assertEquals(Integer.valueOf(1), results[2].count);
+        assertEquals(2, mPets.countPets());
+        assertEquals(8, mPets.longForQuery("SELECT " + PetContract.PetEntry.COLUMN_PET_WEIGHT + " FROM "
+                + PetDbHelper.VIEW_LIVE_PETS + " WHERE " + PetContract.PetEntry._ID + " = ?", String.valueOf(totoId)));
+        assertNotifiedOnce(PetContract.PetEntry.CONTENT_URI);
+    }
+
+    @Test
+    public void applyBatchRollsBackOnAFailedOperation() throws Exception {
+        long totoId = mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7);
+        mPets.shadowResolver().getNotifiedUris().clear();
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(PetContract.PetEntry.CONTENT_URI)
+                .withValues(PetProviderRule.pet("Bella", "Beagle", PetContract.PetEntry.GENDER_FEMALE, 9)).build());
+        operations.add(ContentProviderOperation.newDelete(petUri(totoId)).build());
+        //The pet is gone by now, so the expected count fails the batch
+        operations.add(ContentProviderOperation.newUpdate(petUri(totoId))
+                .withValue(PetContract.PetEntry.COLUMN_PET_WEIGHT, 8).withExpectedCount(1).build());
+        try {
+            mPets.resolver().applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+            fail("The batch did not fail");
+        } catch (OperationApplicationException expected) {
+        }
+
+        assertEquals(1, mPets.countPets());
+        assertEquals(7, mPets.longForQuery("SELECT " + PetContract.PetEntry.COLUMN_PET_WEIGHT + " FROM "
+                + PetDbHelper.VIEW_LIVE_PETS + " WHERE " + PetContract.PetEntry._ID + " = ?", String.valueOf(totoId)));
+        assertEquals(0, mPets.shadowResolver().getNotifiedUris().size());
+    }
+
+    private static Uri petUri(long id) {
+        return ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, id);
+    }
+
+    private void assertNotifiedOnce(Uri uri) {
+        List<ShadowContentResolver.NotifiedUri> notified = mPets.shadowResolver().getNotifiedUris();
+        assertEquals(1, notified.size());
+        assertEquals(uri, notified.get(0).uri);
+    }
+}
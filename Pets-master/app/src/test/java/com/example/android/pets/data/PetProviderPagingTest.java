@@ -0,0 +1,105 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Keyset pages start after their key and end at the key of the next page, so together
+ * they hold every pet once, whatever changes in the pages before them
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderPagingTest {
+
+    private static final int PAGE_SIZE = 50;
+
+    private static final String[] PROJECTION = {PetContract.PetEntry._ID, PetContract.PetEntry.COLUMN_PET_NAME};
+
+    @Rule
+    public final PetProviderRule mPets = new PetProviderRule();
+
+    @Test
+    public void pagesFollowEachOther() {
+        mPets.insertPets(120);
+
+        List<Long> first = ids(PetContract.PetEntry.buildPageUri(PAGE_SIZE, -1));
+        List<Long> second = ids(PetContract.PetEntry.buildPageUri(PAGE_SIZE, last(first)));
+        List<Long> third = ids(PetContract.PetEntry.buildPageUri(PAGE_SIZE, last(second)));
+
+        assertEquals(PAGE_SIZE, first.size());
+        assertEquals(PAGE_SIZE, second.size());
+        assertEquals(20, third.size());
+        assertEquals(first.get(first.size() - 1) + 1, (long) second.get(0));
+        assertEquals(second.get(second.size() - 1) + 1, (long) third.get(0));
+    }
+
+    @Test
+    public void boundedPageKeepsToItsKeys() {
+        mPets.insertPets(120);
+        List<Long> first = ids(PetContract.PetEntry.buildPageUri(PAGE_SIZE, -1));
+        List<Long> second = ids(PetContract.PetEntry.buildPageUri(PAGE_SIZE, last(first)));
+
+        //A pet of the first page goes, the first page shrinks instead of taking the first pet of the second
+        mPets.resolver().delete(petUri(first.get(10)), null, null);
+        List<Long> reloaded = ids(PetContract.PetEntry.buildBoundedPageUri(-1, last(first)));
+        assertEquals(PAGE_SIZE - 1, reloaded.size());
+        assertEquals(last(first), last(reloaded));
+
+        //New pets go after every page
+        mPets.insertPets(5);
+        List<Long> secondReloaded = ids(PetContract.PetEntry.buildBoundedPageUri(last(first), last(second)));
+        assertEquals(second, secondReloaded);
+
+        //Together the pages hold every live pet once
+        List<Long> all = new ArrayList<>(reloaded);
+        all.addAll(secondReloaded);
+        all.addAll(ids(PetContract.PetEntry.buildPageUri(PAGE_SIZE, last(second))));
+        assertEquals(mPets.countPets(), all.size());
+        assertEquals(all.size(), mPets.longForQuery("SELECT COUNT(DISTINCT _id) FROM " + PetDbHelper.VIEW_LIVE_PETS));
+        for (int i = 1; i < all.size(); i++)
+            assertEquals(true, all.get(i) > all.get(i - 1));
+    }
+
+    @Test
+    public void undoneDeleteComesBackInItsPage() {
+        mPets.insertPets(120);
+        List<Long> first = ids(PetContract.PetEntry.buildPageUri(PAGE_SIZE, -1));
+        long id = first.get(10);
+
+        mPets.resolver().delete(petUri(id), null, null);
+        mPets.resolver().call(PetContract.PetEntry.CONTENT_URI, PetContract.METHOD_UNDO, petUri(id).toString(), null);
+
+        assertEquals(first, ids(PetContract.PetEntry.buildBoundedPageUri(-1, last(first))));
+    }
+
+    private List<Long> ids(Uri uri) {
+        ArrayList<Long> ids = new ArrayList<>();
+        Cursor cursor = mPets.resolver().query(uri, PROJECTION, null, null, null);
+        try {
+            while (cursor.moveToNext())
+                ids.add(cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private static long last(List<Long> ids) {
+        return ids.get(ids.size() - 1);
+    }
+
+    private static Uri petUri(long id) {
+        return ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, id);
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * A single pet is read from the database once and then served from the row cache
+ * until a committed write of it
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderRowCacheTest {
+
+    private static final String[] PROJECTION = {
+            PetContract.PetEntry._ID,
+            PetContract.PetEntry.COLUMN_PET_NAME,
+            PetContract.PetEntry.COLUMN_PET_WEIGHT};
+
+    @Rule
+    public final PetProviderRule mPets = new PetProviderRule();
+
+    @Test
+    public void aLookupIsOneMissThenHits() {
+        Uri uri = petUri(mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7));
+
+        assertEquals(7, weightOf(uri));
+        assertCacheStats(0, 1);
+        assertEquals(7, weightOf(uri));
+        assertEquals(7, weightOf(uri));
+        assertCacheStats(2, 1);
+    }
+
+    @Test
+    public void aCommittedBatchInvalidatesItsPets() throws Exception {
+        Uri uri = petUri(mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7));
+        weightOf(uri);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newUpdate(uri)
+                .withValue(PetContract.PetEntry.COLUMN_PET_WEIGHT, 8).build());
+        mPets.resolver().applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+
+        assertEquals(8, weightOf(uri));
+        assertCacheStats(0, 2);
+    }
+
+    @Test
+    public void aFailedBatchKeepsItsPetsCached() throws Exception {
+        Uri uri = petUri(mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7));
+        weightOf(uri);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newUpdate(uri)
+                .withValue(PetContract.PetEntry.COLUMN_PET_WEIGHT, 8).build());
+        operations.add(ContentProviderOperation.newUpdate(petUri(ContentUris.parseId(uri) + 1))
+                .withValue(PetContract.PetEntry.COLUMN_PET_WEIGHT, 8).withExpectedCount(1).build());
+        try {
+            mPets.resolver().applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+            fail("The batch did not fail");
+        } catch (OperationApplicationException expected) {
+        }
+
+        //Nothing was written, the cached pet is still the right one
+        assertEquals(7, weightOf(uri));
+        assertCacheStats(1, 1);
+    }
+
+    private long weightOf(Uri uri) {
+        Cursor cursor = mPets.resolver().query(uri, PROJECTION, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(cursor.getColumnIndexOrThrow(PetContract.PetEntry.COLUMN_PET_WEIGHT));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertCacheStats(int hits, int misses) {
+        Bundle stats = mPets.provider().call(PetContract.METHOD_GET_STATS, null, null);
+        assertEquals(hits, stats.getInt(PetProviderStats.KEY_ROW_CACHE_HITS));
+        assertEquals(misses, stats.getInt(PetProviderStats.KEY_ROW_CACHE_MISSES));
+    }
+
+    private static Uri petUri(long id) {
+        return ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, id);
+    }
+}
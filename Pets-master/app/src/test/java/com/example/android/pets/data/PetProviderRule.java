@@ -0,0 +1,102 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.pm.ProviderInfo;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import org.junit.rules.ExternalResource;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.android.controller.ContentProviderController;
+import org.robolectric.shadows.ShadowContentResolver;
+
+/**
+ * Gives every test a PetProvider on a new database, registered with the content resolver under the
+ * authority of the app, so the test can go through the resolver like the app does.
+ */
+
+public class PetProviderRule extends ExternalResource {
+
+    private ContentProviderController<PetProvider> mController;
+    private PetProvider mProvider;
+
+    @Override
+    protected void before() {
+        ProviderInfo info = new ProviderInfo();
+        info.authority = PetContract.CONTENT_AUTHORITY;
+        mController = Robolectric.buildContentProvider(PetProvider.class).create(info);
+        mProvider = mController.get();
+    }
+
+    @Override
+    protected void after() {
+        //The purge and the snapshot stop before the database closes under them
+        mController.shutdown();
+        PetDbHelper.closeInstance();
+    }
+
+    public PetProvider provider() {
+        return mProvider;
+    }
+
+    public ContentResolver resolver() {
+        return RuntimeEnvironment.application.getContentResolver();
+    }
+
+    /*
+    shadowResolver() records the notifications of the provider
+     */
+    public ShadowContentResolver shadowResolver() {
+        return Shadows.shadowOf(resolver());
+    }
+
+    /*
+    database() is the database of the provider, for checks the provider does not serve
+     */
+    public SQLiteDatabase database() {
+        return PetDbHelper.getInstance(RuntimeEnvironment.application).getWritableDatabase();
+    }
+
+    public long longForQuery(String sql, String... args) {
+        return DatabaseUtils.longForQuery(database(), sql, args.length == 0 ? null : args);
+    }
+
+    /*
+    countPets() counts the live pets
+     */
+    public long countPets() {
+        return longForQuery("SELECT COUNT(*) FROM " + PetDbHelper.VIEW_LIVE_PETS);
+    }
+
+    /*
+    insert() adds a pet through the resolver and returns its _id
+     */
+    public long insert(String name, String breed, int gender, int weight) {
+        Uri uri = resolver().insert(PetContract.PetEntry.CONTENT_URI, pet(name, breed, gender, weight));
+        return ContentUris.parseId(uri);
+    }
+
+    /*
+    insertPets() adds count pets with one bulkInsert, named "Pet <n>" and of a few breeds
+     */
+    public void insertPets(int count) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++)
+            values[i] = pet("Pet " + i, "Breed " + (i % 10), i % 3, i % 40);
+        resolver().bulkInsert(PetContract.PetEntry.CONTENT_URI, values);
+    }
+
+    public static ContentValues pet(String name, String breed, int gender, int weight) {
+        ContentValues values = new ContentValues();
+        values.put(PetContract.PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetContract.PetEntry.COLUMN_PET_BREED, breed);
+        values.put(PetContract.PetEntry.COLUMN_PET_GENDER, gender);
+        values.put(PetContract.PetEntry.COLUMN_PET_WEIGHT, weight);
+        return values;
+    }
+}
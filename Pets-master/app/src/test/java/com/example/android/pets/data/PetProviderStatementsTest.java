@@ -0,0 +1,151 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * update() and delete() write the pets table with a single statement per call, whatever the uri
+ */
+
+@RunWith(RobolectricTestRunner.class)
+@Config(shadows = ShadowCountingSQLiteConnection.class)
+public class PetProviderStatementsTest {
+
+    //Statements writing the pets table, the statements of its triggers are not seen
+    private static final Pattern PETS_WRITE = Pattern.compile(
+            "^\\s*(INSERT( OR \\w+)? INTO|UPDATE( OR \\w+)?|DELETE FROM) " + PetContract.PetEntry.TABLE_NAME + "\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    @Rule
+    public final PetProviderRule mPets = new PetProviderRule();
+
+    @Test
+    public void updateOfOnePetIsOneStatement() {
+        long totoId = mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7);
+        mPets.insert("Rex", "Boxer", PetContract.PetEntry.GENDER_MALE, 20);
+        long journal = countJournal();
+
+        ContentValues values = new ContentValues();
+        values.put(PetContract.PetEntry.COLUMN_PET_WEIGHT, 8);
+        ShadowCountingSQLiteConnection.startRecording();
+        int rowsUpdated = mPets.resolver().update(petUri(totoId), values, null, null);
+        List<String> statements = ShadowCountingSQLiteConnection.stopRecording();
+
+        assertEquals(1, rowsUpdated);
+        assertEquals(statements.toString(), 1, countPetsWrites(statements));
+        assertEquals(journal + 1, countJournal());
+    }
+
+    @Test
+    public void editorUpdateIsOneStatement() {
+        long totoId = mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7);
+
+        ShadowCountingSQLiteConnection.startRecording();
+        int rowsUpdated = mPets.resolver().update(petUri(totoId),
+                PetProviderRule.pet("Toto", "Cairn Terrier", PetContract.PetEntry.GENDER_MALE, 8), null, null);
+        List<String> statements = ShadowCountingSQLiteConnection.stopRecording();
+
+        assertEquals(1, rowsUpdated);
+        assertEquals(statements.toString(), 1, countPetsWrites(statements));
+    }
+
+    @Test
+    public void updateOfASelectionIsOneStatement() {
+        mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7);
+        mPets.insert("Rex", "Boxer", PetContract.PetEntry.GENDER_MALE, 20);
+        mPets.insert("Bella", "Beagle", PetContract.PetEntry.GENDER_FEMALE, 9);
+        mPets.shadowResolver().getNotifiedUris().clear();
+
+        ContentValues values = new ContentValues();
+        values.put(PetContract.PetEntry.COLUMN_PET_WEIGHT, 10);
+        ShadowCountingSQLiteConnection.startRecording();
+        int rowsUpdated = mPets.resolver().update(PetContract.PetEntry.CONTENT_URI, values,
+                PetContract.PetEntry.COLUMN_PET_GENDER + "=?",
+                new String[] {String.valueOf(PetContract.PetEntry.GENDER_MALE)});
+        List<String> statements = ShadowCountingSQLiteConnection.stopRecording();
+
+        assertEquals(2, rowsUpdated);
+        assertEquals(statements.toString(), 1, countPetsWrites(statements));
+        assertEquals(1, mPets.shadowResolver().getNotifiedUris().size());
+    }
+
+    @Test
+    public void deleteOfOnePetIsOneStatementAndLeavesTheOthers() {
+        long totoId = mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7);
+        mPets.insert("Rex", "Boxer", PetContract.PetEntry.GENDER_MALE, 20);
+        mPets.insert("Bella", "Beagle", PetContract.PetEntry.GENDER_FEMALE, 9);
+        mPets.shadowResolver().getNotifiedUris().clear();
+
+        ShadowCountingSQLiteConnection.startRecording();
+        int rowsDeleted = mPets.resolver().delete(petUri(totoId), null, null);
+        List<String> statements = ShadowCountingSQLiteConnection.stopRecording();
+
+        assertEquals(1, rowsDeleted);
+        assertEquals(statements.toString(), 1, countPetsWrites(statements));
+        assertEquals(2, mPets.countPets());
+        assertEquals(1, mPets.shadowResolver().getNotifiedUris().size());
+        assertEquals(petUri(totoId), mPets.shadowResolver().getNotifiedUris().get(0).uri);
+    }
+
+    @Test
+    public void deleteOfEveryPetDoesNotWriteThePets() {
+        mPets.insertPets(20);
+
+        ShadowCountingSQLiteConnection.startRecording();
+        int rowsDeleted = mPets.resolver().delete(PetContract.PetEntry.CONTENT_URI, null, null);
+        List<String> statements = ShadowCountingSQLiteConnection.stopRecording();
+
+        //Only the deleted through mark moves, the purge removes the rows later
+        assertEquals(20, rowsDeleted);
+        assertEquals(statements.toString(), 0, countPetsWrites(statements));
+        assertEquals(0, mPets.countPets());
+    }
+
+    @Test
+    public void writesMatchingNothingAreOneStatementWithoutNotification() {
+        long totoId = mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7);
+        mPets.resolver().delete(petUri(totoId), null, null);
+        mPets.shadowResolver().getNotifiedUris().clear();
+
+        ContentValues values = new ContentValues();
+        values.put(PetContract.PetEntry.COLUMN_PET_WEIGHT, 8);
+        ShadowCountingSQLiteConnection.startRecording();
+        int rowsUpdated = mPets.resolver().update(petUri(totoId), values, null, null);
+        int rowsDeleted = mPets.resolver().delete(petUri(totoId), null, null);
+        List<String> statements = ShadowCountingSQLiteConnection.stopRecording();
+
+        assertEquals(0, rowsUpdated);
+        assertEquals(0, rowsDeleted);
+        assertEquals(statements.toString(), 2, countPetsWrites(statements));
+        assertEquals(0, mPets.shadowResolver().getNotifiedUris().size());
+    }
+
+    private static Uri petUri(long id) {
+        return ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, id);
+    }
+
+    private static int countPetsWrites(List<String> statements) {
+        int count = 0;
+        for (String sql : statements) {
+            if (PETS_WRITE.matcher(sql).find())
+                count++;
+        }
+        return count;
+    }
+
+    private long countJournal() {
+        return mPets.longForQuery("SELECT COUNT(*) FROM " + PetDbHelper.TABLE_JOURNAL);
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Every write gives the pets it changes a new version, so a mirror reading the changes feed
+ * from the last version it saw ends up with the live pets
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderSyncTest {
+
+    @Rule
+    public final PetProviderRule mPets = new PetProviderRule();
+
+    @Test
+    public void theMirrorFollowsEveryWrite() {
+        SyncServer server = new SyncServer();
+        mPets.insertPets(120);
+        server.sync(mPets.resolver());
+        assertEquals(livePets(), server.mPets);
+        assertEquals(120, server.mPulled);
+
+        long updatedId = mPets.longForQuery("SELECT MIN(" + PetContract.PetEntry._ID + ") FROM "
+                + PetContract.PetEntry.TABLE_NAME);
+        ContentValues values = new ContentValues();
+        values.put(PetContract.PetEntry.COLUMN_PET_WEIGHT, 99);
+        mPets.resolver().update(ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, updatedId), values,
+                null, null);
+        mPets.resolver().delete(ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, updatedId + 1),
+                null, null);
+        mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7);
+        server.sync(mPets.resolver());
+
+        //Only the three pets written since are pulled
+        assertEquals(livePets(), server.mPets);
+        assertEquals(3, server.mPulled);
+        assertFalse(server.mResynced);
+    }
+
+    @Test
+    public void anUpdateOfSeveralPetsGivesEachItsOwnVersion() {
+        SyncServer server = new SyncServer();
+        mPets.insertPets(10);
+        server.sync(mPets.resolver());
+
+        ContentValues values = new ContentValues();
+        values.put(PetContract.PetEntry.COLUMN_PET_WEIGHT, 1);
+        mPets.resolver().update(PetContract.PetEntry.CONTENT_URI, values,
+                PetContract.PetEntry.COLUMN_PET_GENDER + " = ?", new String[] {"0"});
+
+        assertEquals(mPets.longForQuery("SELECT COUNT(*) FROM " + PetContract.PetEntry.TABLE_NAME),
+                mPets.longForQuery("SELECT COUNT(DISTINCT " + PetContract.PetEntry.COLUMN_PET_VERSION + ") FROM "
+                        + PetContract.PetEntry.TABLE_NAME));
+        assertEquals(mPets.longForQuery("SELECT MAX(" + PetContract.PetEntry.COLUMN_PET_VERSION + ") FROM "
+                        + PetContract.PetEntry.TABLE_NAME), syncVersion());
+        server.sync(mPets.resolver());
+        assertEquals(livePets(), server.mPets);
+        assertEquals(4, server.mPulled);
+    }
+
+    @Test
+    public void aSaveWithoutChangesKeepsTheVersion() {
+        SyncServer server = new SyncServer();
+        long id = mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7);
+        mPets.insertPets(10);
+        server.sync(mPets.resolver());
+        long syncVersion = syncVersion();
+        long updatedAt = mPets.longForQuery("SELECT " + PetContract.PetEntry.COLUMN_PET_UPDATED_AT + " FROM "
+                + PetContract.PetEntry.TABLE_NAME + " WHERE " + PetContract.PetEntry._ID + " = ?", String.valueOf(id));
+
+        //The editor saves every column of the pet as they are, then several pets get the gender they have
+        mPets.resolver().update(ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, id),
+                PetProviderRule.pet("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7), null, null);
+        ContentValues values = new ContentValues();
+        values.put(PetContract.PetEntry.COLUMN_PET_GENDER, 0);
+        assertEquals(4, mPets.resolver().update(PetContract.PetEntry.CONTENT_URI, values,
+                PetContract.PetEntry.COLUMN_PET_GENDER + " = ?", new String[] {"0"}));
+
+        assertEquals(syncVersion, syncVersion());
+        assertEquals(updatedAt, mPets.longForQuery("SELECT " + PetContract.PetEntry.COLUMN_PET_UPDATED_AT + " FROM "
+                + PetContract.PetEntry.TABLE_NAME + " WHERE " + PetContract.PetEntry._ID + " = ?", String.valueOf(id)));
+        server.sync(mPets.resolver());
+        assertEquals(0, server.mPulled);
+    }
+
+    @Test
+    public void deletingAllPetsMakesTheMirrorStartOver() {
+        SyncServer server = new SyncServer();
+        mPets.insertPets(10);
+        server.sync(mPets.resolver());
+
+        mPets.resolver().delete(PetContract.PetEntry.CONTENT_URI, null, null);
+        mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7);
+        server.sync(mPets.resolver());
+
+        assertEquals(livePets(), server.mPets);
+        assertEquals(1, server.mPets.size());
+        assertTrue(server.mResynced);
+    }
+
+    /*
+    syncVersion() is the last version handed out to a pet
+     */
+    private long syncVersion() {
+        return mPets.longForQuery("SELECT " + PetDbHelper.COLUMN_SYNC_VERSION + " FROM " + PetDbHelper.TABLE_SYNC);
+    }
+
+    /*
+    livePets() are the pets as the mirror keeps them
+     */
+    private HashMap<Long, String> livePets() {
+        HashMap<Long, String> pets = new HashMap<>();
+        Cursor cursor = mPets.database().query(PetDbHelper.VIEW_LIVE_PETS, SyncServer.COLUMNS, null, null,
+                null, null, null);
+        try {
+            while (cursor.moveToNext())
+                pets.put(cursor.getLong(0), SyncServer.pet(cursor));
+        } finally {
+            cursor.close();
+        }
+        return pets;
+    }
+
+    /*
+    Stand-in for a sync server: it mirrors the pets by _id and pulls the changes feed
+    a page at a time from the last version it saw
+     */
+    private static class SyncServer {
+        static final String[] COLUMNS = {
+                PetContract.PetEntry._ID,
+                PetContract.PetEntry.COLUMN_PET_NAME,
+                PetContract.PetEntry.COLUMN_PET_BREED,
+                PetContract.PetEntry.COLUMN_PET_GENDER,
+                PetContract.PetEntry.COLUMN_PET_WEIGHT};
+
+        private static final int PAGE_SIZE = 50;
+
+        final HashMap<Long, String> mPets = new HashMap<>();
+        long mVersion = 0;
+
+        //Changes pulled by the last sync, and whether it had to start over
+        int mPulled;
+        boolean mResynced;
+
+        void sync(ContentResolver resolver) {
+            mPulled = 0;
+            mResynced = false;
+            while (true) {
+                Cursor changes = resolver.query(PetContract.PetEntry.buildChangesUri(mVersion, PAGE_SIZE),
+                        null, null, null, null);
+                try {
+                    if (changes.getExtras().getBoolean(PetContract.PetEntry.EXTRA_RESYNC)) {
+                        startOver(resolver);
+                        continue;
+                    }
+                    int deleted = changes.getColumnIndexOrThrow(PetContract.PetEntry.COLUMN_PET_DELETED);
+                    int version = changes.getColumnIndexOrThrow(PetContract.PetEntry.COLUMN_PET_VERSION);
+                    while (changes.moveToNext()) {
+                        long id = changes.getLong(changes.getColumnIndexOrThrow(PetContract.PetEntry._ID));
+                        if (changes.getInt(deleted) == 1)
+                            mPets.remove(id);
+                        else
+                            mPets.put(id, pet(changes));
+                        mVersion = changes.getLong(version);
+                        mPulled++;
+                    }
+                    if (changes.getCount() < PAGE_SIZE)
+                        return;
+                } finally {
+                    changes.close();
+                }
+            }
+        }
+
+        /*
+        startOver() mirrors the live pets again, and goes on from their highest version
+         */
+        private void startOver(ContentResolver resolver) {
+            mPets.clear();
+            mVersion = 0;
+            mResynced = true;
+            String[] projection = Arrays.copyOf(COLUMNS, COLUMNS.length + 1);
+            projection[COLUMNS.length] = PetContract.PetEntry.COLUMN_PET_VERSION;
+            Cursor pets = resolver.query(PetContract.PetEntry.CONTENT_URI, projection, null, null, null);
+            try {
+                while (pets.moveToNext()) {
+                    mPets.put(pets.getLong(0), pet(pets));
+                    mVersion = Math.max(mVersion, pets.getLong(COLUMNS.length));
+                }
+            } finally {
+                pets.close();
+            }
+        }
+
+        static String pet(Cursor cursor) {
+            return cursor.getString(cursor.getColumnIndexOrThrow(PetContract.PetEntry.COLUMN_PET_NAME)) + "/"
+                    + cursor.getString(cursor.getColumnIndexOrThrow(PetContract.PetEntry.COLUMN_PET_BREED)) + "/"
+                    + cursor.getInt(cursor.getColumnIndexOrThrow(PetContract.PetEntry.COLUMN_PET_GENDER)) + "/"
+                    + cursor.getInt(cursor.getColumnIndexOrThrow(PetContract.PetEntry.COLUMN_PET_WEIGHT));
+        }
+    }
+}
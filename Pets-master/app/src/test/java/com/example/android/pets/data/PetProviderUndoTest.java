@@ -0,0 +1,90 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Bundle;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Undo and redo through the journal, a deleted pet comes back from its tombstone
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderUndoTest {
+
+    @Rule
+    public final PetProviderRule mPets = new PetProviderRule();
+
+    @Test
+    public void undoingADeleteRestoresThePetInPlace() {
+        long id = mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7);
+        mPets.insert("Rex", "Boxer", PetContract.PetEntry.GENDER_MALE, 20);
+        mPets.resolver().delete(petUri(id), null, null);
+        long version = versionOf(id);
+
+        assertTrue(revert(PetContract.METHOD_UNDO, id));
+
+        assertEquals(2, mPets.countPets());
+        assertEquals(7, mPets.longForQuery("SELECT " + PetContract.PetEntry.COLUMN_PET_WEIGHT + " FROM "
+                + PetDbHelper.VIEW_LIVE_PETS + " WHERE " + PetContract.PetEntry._ID + " = ?", String.valueOf(id)));
+        //Back in the stats and the search
+        assertEquals(2, mPets.longForQuery("SELECT " + PetDbHelper.COLUMN_STATS_COUNT + " FROM "
+                + PetDbHelper.TABLE_GENDER_STATS + " WHERE " + PetContract.PetEntry.COLUMN_PET_GENDER + " = "
+                + PetContract.PetEntry.GENDER_MALE));
+        assertEquals(1, mPets.longForQuery("SELECT COUNT(*) FROM " + PetDbHelper.TABLE_PETS_FTS
+                + " WHERE " + PetDbHelper.TABLE_PETS_FTS + " MATCH 'toto'"));
+        //The same row with a new version, nothing was removed for good so no reader has to resync
+        assertTrue(versionOf(id) > version);
+        assertEquals(0, mPets.longForQuery("SELECT " + PetDbHelper.COLUMN_SYNC_PURGED_VERSION + " FROM "
+                + PetDbHelper.TABLE_SYNC));
+    }
+
+    @Test
+    public void redoingTheUndoDeletesThePetAgain() {
+        long id = mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7);
+        mPets.resolver().delete(petUri(id), null, null);
+        assertTrue(revert(PetContract.METHOD_UNDO, id));
+
+        assertTrue(revert(PetContract.METHOD_REDO, id));
+
+        assertEquals(0, mPets.countPets());
+        assertEquals(0, mPets.longForQuery("SELECT COUNT(*) FROM " + PetDbHelper.TABLE_GENDER_STATS));
+        assertEquals(0, mPets.longForQuery("SELECT COUNT(*) FROM " + PetDbHelper.TABLE_PETS_FTS));
+        assertEquals(1, mPets.longForQuery("SELECT COUNT(*) FROM " + PetContract.PetEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void undoingAnUpdatePutsTheOldValuesBack() {
+        long id = mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7);
+        ContentValues values = new ContentValues();
+        values.put(PetContract.PetEntry.COLUMN_PET_WEIGHT, 8);
+        mPets.resolver().update(petUri(id), values, null, null);
+
+        assertTrue(revert(PetContract.METHOD_UNDO, id));
+
+        assertEquals(7, mPets.longForQuery("SELECT " + PetContract.PetEntry.COLUMN_PET_WEIGHT + " FROM "
+                + PetDbHelper.VIEW_LIVE_PETS + " WHERE " + PetContract.PetEntry._ID + " = ?", String.valueOf(id)));
+    }
+
+    private boolean revert(String method, long id) {
+        Bundle result = mPets.resolver().call(PetContract.PetEntry.CONTENT_URI, method, petUri(id).toString(), null);
+        return result.getBoolean(PetContract.KEY_CHANGED);
+    }
+
+    private long versionOf(long id) {
+        return mPets.longForQuery("SELECT " + PetContract.PetEntry.COLUMN_PET_VERSION + " FROM "
+                + PetContract.PetEntry.TABLE_NAME + " WHERE " + PetContract.PetEntry._ID + " = ?", String.valueOf(id));
+    }
+
+    private static Uri petUri(long id) {
+        return ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, id);
+    }
+}
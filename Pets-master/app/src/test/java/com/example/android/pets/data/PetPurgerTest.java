@@ -0,0 +1,55 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The purge removes a tombstone once its retention is over, without waiting for the next delete
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class PetPurgerTest {
+
+    //Retention of the purger under test, and the longest wait for it to purge
+    private static final long RETENTION_MS = 500;
+    private static final long TIMEOUT_MS = 10000;
+
+    @Rule
+    public final PetProviderRule mPets = new PetProviderRule();
+
+    @Test
+    public void anExpiredTombstoneIsPurgedWithoutAnotherDelete() throws Exception {
+        long id = mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7);
+        mPets.insert("Rex", "Boxer", PetContract.PetEntry.GENDER_MALE, 20);
+        mPets.resolver().delete(ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, id), null, null);
+
+        //Started once, like the provider does on create. The tombstone is younger than the retention
+        PetPurger purger = new PetPurger(PetDbHelper.getInstance(RuntimeEnvironment.application),
+                new PetPhotoStore(RuntimeEnvironment.application), RETENTION_MS);
+        try {
+            purger.schedule();
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (countRows() != 1 && System.currentTimeMillis() < deadline)
+                Thread.sleep(50);
+        } finally {
+            purger.shutdown();
+        }
+
+        assertEquals(1, countRows());
+        assertEquals(1, mPets.countPets());
+    }
+
+    /*
+    countRows() counts the rows of the pets table, tombstones included
+     */
+    private long countRows() {
+        return mPets.longForQuery("SELECT COUNT(*) FROM " + PetContract.PetEntry.TABLE_NAME);
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The write queue runs the writes in order, merges only back to back updates of a pet
+ * and reports every failed write to its callback
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class PetWriteQueueTest {
+
+    @Rule
+    public final PetProviderRule mPets = new PetProviderRule();
+
+    @Test
+    public void backToBackUpdatesAreMerged() throws Exception {
+        Uri uri = petUri(mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7));
+        PetWriteQueue queue = PetWriteQueue.getInstance(RuntimeEnvironment.application);
+        List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+
+        //Holds the writer so both updates are still queued when the second one comes
+        CountDownLatch writer = blockWriter(queue);
+        queue.update(uri, weight(8), collect(results, null));
+        CountDownLatch done = new CountDownLatch(1);
+        queue.update(uri, weight(9), collect(results, done));
+        writer.countDown();
+        await(done);
+
+        assertEquals(2, results.size());
+        assertEquals(Integer.valueOf(1), results.get(0));
+        assertEquals(Integer.valueOf(1), results.get(1));
+        assertEquals(9, weightOf(uri));
+        //One write, so one journal entry
+        assertEquals(1, mPets.longForQuery("SELECT COUNT(*) FROM " + PetDbHelper.TABLE_JOURNAL
+                + " WHERE " + PetContract.JournalEntry.COLUMN_OPERATION + " = "
+                + PetContract.JournalEntry.OPERATION_UPDATE));
+    }
+
+    @Test
+    public void anUpdateAfterADeleteIsNotMergedBeforeIt() throws Exception {
+        Uri uri = petUri(mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7));
+        PetWriteQueue queue = PetWriteQueue.getInstance(RuntimeEnvironment.application);
+        List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+
+        CountDownLatch writer = blockWriter(queue);
+        queue.update(uri, weight(8), collect(results, null));
+        queue.delete(uri, collect(results, null));
+        CountDownLatch done = new CountDownLatch(1);
+        queue.update(uri, weight(9), collect(results, done));
+        writer.countDown();
+        await(done);
+
+        //The second update runs after the delete and finds no pet
+        assertEquals(3, results.size());
+        assertEquals(Integer.valueOf(1), results.get(0));
+        assertEquals(Integer.valueOf(1), results.get(1));
+        assertEquals(Integer.valueOf(0), results.get(2));
+        assertEquals(8, weightOf(uri));
+    }
+
+    @Test
+    public void aFailedWriteIsReportedAndTheQueueGoesOn() throws Exception {
+        Uri uri = petUri(mPets.insert("Toto", "Terrier", PetContract.PetEntry.GENDER_MALE, 7));
+        PetWriteQueue queue = PetWriteQueue.getInstance(RuntimeEnvironment.application);
+        List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+
+        //Not a column of pets, the provider fails with a SQLiteException
+        ContentValues unknown = new ContentValues();
+        unknown.put("no_such_column", 1);
+        queue.update(uri, unknown, collect(results, null));
+        CountDownLatch done = new CountDownLatch(1);
+        queue.delete(uri, collect(results, done));
+        await(done);
+
+        assertEquals(2, results.size());
+        assertEquals(Integer.valueOf(0), results.get(0));
+        assertEquals(Integer.valueOf(1), results.get(1));
+    }
+
+    /*
+    blockWriter() queues a task that holds the writer thread until the returned latch counts down,
+    and returns once the writer runs it
+     */
+    private static CountDownLatch blockWriter(PetWriteQueue queue) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        queue.runOnWriter(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private static PetWriteQueue.Callback<Integer> collect(final List<Integer> results, final CountDownLatch done) {
+        return new PetWriteQueue.Callback<Integer>() {
+            @Override
+            public void onComplete(Integer result) {
+                results.add(result);
+                if (done != null)
+                    done.countDown();
+            }
+        };
+    }
+
+    private static void await(CountDownLatch done) throws InterruptedException {
+        //The callbacks are posted to the main looper
+        for (int i = 0; i < 500 && done.getCount() != 0; i++) {
+            ShadowLooper.idleMainLooper();
+            done.await(10, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(0, done.getCount());
+    }
+
+    private long weightOf(Uri uri) {
+        return mPets.longForQuery("SELECT " + PetContract.PetEntry.COLUMN_PET_WEIGHT + " FROM "
+                + PetContract.PetEntry.TABLE_NAME + " WHERE " + PetContract.PetEntry._ID + " = ?",
+                String.valueOf(ContentUris.parseId(uri)));
+    }
+
+    private static ContentValues weight(int weight) {
+        ContentValues values = new ContentValues();
+        values.put(PetContract.PetEntry.COLUMN_PET_WEIGHT, weight);
+        return values;
+    }
+
+    private static Uri petUri(long id) {
+        return ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, id);
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.android.pets.data;
+
+import android.database.CharArrayBuffer;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowCursorWindow;
+
+/**
+ * The cursor window of Robolectric leaves copyStringToBuffer() out, the buffer stays empty. The provider copies
+ * the text of a list of pets with it, see PetColumnCursor, so the tests copy the string of the window instead.
+ */
+
+@Implements(className = "android.database.CursorWindow")
+public class ShadowCopyingCursorWindow extends ShadowCursorWindow {
+
+    @Implementation
+    public static void nativeCopyStringToBuffer(int windowPtr, int row, int column, CharArrayBuffer buffer) {
+        copy(nativeGetString(windowPtr, row, column), buffer);
+    }
+
+    @Implementation
+    public static void nativeCopyStringToBuffer(long windowPtr, int row, int column, CharArrayBuffer buffer) {
+        copy(nativeGetString(windowPtr, row, column), buffer);
+    }
+
+    private static void copy(String value, CharArrayBuffer buffer) {
+        int length = value == null ? 0 : value.length();
+        if (buffer.data == null || buffer.data.length < length)
+            buffer.data = new char[length];
+        if (length != 0)
+            value.getChars(0, length, buffer.data, 0);
+        buffer.sizeCopied = length;
+    }
+}
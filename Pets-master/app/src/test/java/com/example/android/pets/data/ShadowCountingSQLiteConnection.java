@@ -0,0 +1,149 @@
+package com.example.android.pets.data;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowSQLiteConnection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the SQL of every statement the current thread executes, so a test can count the statements of a
+ * provider call. Statements of the triggers run inside the statement that fired them and are not counted,
+ * neither are the statements of the background threads of the provider.
+ */
+
+@Implements(className = "android.database.sqlite.SQLiteConnection", isInAndroidSdk = false)
+public class ShadowCountingSQLiteConnection extends ShadowSQLiteConnection {
+
+    //SQL of the prepared statements by their pointer
+    private static final Map<Long, String> sSql = new HashMap<>();
+
+    //Statements executed by the thread since it called startRecording(), null while not recording
+    private static final ThreadLocal<List<String>> sExecuted = new ThreadLocal<>();
+
+    /*
+    startRecording() starts a new record of the statements the current thread executes
+     */
+    public static void startRecording() {
+        sExecuted.set(new ArrayList<String>());
+    }
+
+    /*
+    stopRecording() returns the SQL of the statements executed since startRecording(), in order
+     */
+    public static List<String> stopRecording() {
+        List<String> executed = sExecuted.get();
+        sExecuted.remove();
+        return executed;
+    }
+
+    private static void prepared(long statementPtr, String sql) {
+        synchronized (sSql) {
+            sSql.put(statementPtr, sql);
+        }
+    }
+
+    private static void executing(long statementPtr) {
+        List<String> executed = sExecuted.get();
+        if (executed == null)
+            return;
+        synchronized (sSql) {
+            executed.add(sSql.get(statementPtr));
+        }
+    }
+
+    //Kitkat passes the pointers as ints, Lollipop onwards as longs
+
+    @Implementation
+    public static int nativePrepareStatement(int connectionPtr, String sql) {
+        int statementPtr = ShadowSQLiteConnection.nativePrepareStatement(connectionPtr, sql);
+        prepared(statementPtr, sql);
+        return statementPtr;
+    }
+
+    @Implementation
+    public static long nativePrepareStatement(long connectionPtr, String sql) {
+        long statementPtr = ShadowSQLiteConnection.nativePrepareStatement(connectionPtr, sql);
+        prepared(statementPtr, sql);
+        return statementPtr;
+    }
+
+    @Implementation
+    public static void nativeExecute(int connectionPtr, int statementPtr) {
+        executing(statementPtr);
+        ShadowSQLiteConnection.nativeExecute(connectionPtr, statementPtr);
+    }
+
+    @Implementation
+    public static void nativeExecute(long connectionPtr, long statementPtr) {
+        executing(statementPtr);
+        ShadowSQLiteConnection.nativeExecute(connectionPtr, statementPtr);
+    }
+
+    @Implementation
+    public static long nativeExecuteForLong(int connectionPtr, int statementPtr) {
+        executing(statementPtr);
+        return ShadowSQLiteConnection.nativeExecuteForLong(connectionPtr, statementPtr);
+    }
+
+    @Implementation
+    public static long nativeExecuteForLong(long connectionPtr, long statementPtr) {
+        executing(statementPtr);
+        return ShadowSQLiteConnection.nativeExecuteForLong(connectionPtr, statementPtr);
+    }
+
+    @Implementation
+    public static String nativeExecuteForString(int connectionPtr, int statementPtr) {
+        executing(statementPtr);
+        return ShadowSQLiteConnection.nativeExecuteForString(connectionPtr, statementPtr);
+    }
+
+    @Implementation
+    public static String nativeExecuteForString(long connectionPtr, long statementPtr) {
+        executing(statementPtr);
+        return ShadowSQLiteConnection.nativeExecuteForString(connectionPtr, statementPtr);
+    }
+
+    @Implementation
+    public static int nativeExecuteForChangedRowCount(int connectionPtr, int statementPtr) {
+        executing(statementPtr);
+        return ShadowSQLiteConnection.nativeExecuteForChangedRowCount(connectionPtr, statementPtr);
+    }
+
+    @Implementation
+    public static int nativeExecuteForChangedRowCount(long connectionPtr, long statementPtr) {
+        executing(statementPtr);
+        return ShadowSQLiteConnection.nativeExecuteForChangedRowCount(connectionPtr, statementPtr);
+    }
+
+    @Implementation
+    public static long nativeExecuteForLastInsertedRowId(int connectionPtr, int statementPtr) {
+        executing(statementPtr);
+        return ShadowSQLiteConnection.nativeExecuteForLastInsertedRowId(connectionPtr, statementPtr);
+    }
+
+    @Implementation
+    public static long nativeExecuteForLastInsertedRowId(long connectionPtr, long statementPtr) {
+        executing(statementPtr);
+        return ShadowSQLiteConnection.nativeExecuteForLastInsertedRowId(connectionPtr, statementPtr);
+    }
+
+    @Implementation
+    public static long nativeExecuteForCursorWindow(int connectionPtr, int statementPtr, int windowPtr,
+                                                    int startPos, int requiredPos, boolean countAllRows) {
+        executing(statementPtr);
+        return ShadowSQLiteConnection.nativeExecuteForCursorWindow(connectionPtr, statementPtr, windowPtr,
+                startPos, requiredPos, countAllRows);
+    }
+
+    @Implementation
+    public static long nativeExecuteForCursorWindow(long connectionPtr, long statementPtr, long windowPtr,
+                                                    int startPos, int requiredPos, boolean countAllRows) {
+        executing(statementPtr);
+        return ShadowSQLiteConnection.nativeExecuteForCursorWindow(connectionPtr, statementPtr, windowPtr,
+                startPos, requiredPos, countAllRows);
+    }
+}